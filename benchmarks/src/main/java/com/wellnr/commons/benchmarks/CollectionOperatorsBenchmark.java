@@ -0,0 +1,77 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.benchmarks;
+
+import com.wellnr.commons.CollectionOperators;
+import com.wellnr.commons.markup.Tuple2;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the list helpers of {@link CollectionOperators} for small and large lists.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CollectionOperatorsBenchmark {
+
+    @Param({"10", "1000"})
+    int size;
+
+    private List<Integer> first;
+
+    private List<Integer> second;
+
+    @Setup
+    public void setup() {
+        first = IntStream.range(0, size).boxed().toList();
+        second = IntStream.range(size, 2 * size).boxed().toList();
+    }
+
+    @Benchmark
+    public List<Integer> concat() {
+        return CollectionOperators.concat(first, second);
+    }
+
+    @Benchmark
+    public List<Integer> createImmutableList() {
+        return CollectionOperators.createImmutableList(first);
+    }
+
+    @Benchmark
+    public List<Integer> createMutableList() {
+        return CollectionOperators.createMutableList(first);
+    }
+
+    @Benchmark
+    public List<Integer> map() {
+        return CollectionOperators.map(first, i -> i + 1);
+    }
+
+    @Benchmark
+    public List<Integer> mapWithIndex() {
+        return CollectionOperators.mapWithIndex(first, Integer::sum);
+    }
+
+    @Benchmark
+    public List<Tuple2<Integer, Integer>> zipWithIndex() {
+        return CollectionOperators.zipWithIndex(first);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.benchmarks;
+
+import com.wellnr.commons.Operators;
+import com.wellnr.commons.persistence.FileSystemRepository;
+import com.wellnr.commons.persistence.FileSystemRepositoryOptions;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the hot paths of {@link FileSystemRepository} for different numbers of entities, with and without the
+ * cache. The entities are stored in a temporary directory which is removed after each trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileSystemRepositoryBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    int entities;
+
+    @Param({"false", "true"})
+    boolean cacheEnabled;
+
+    private Path directory;
+
+    private FileSystemRepository<Person> repository;
+
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("wellnr-commons-benchmark");
+        repository =
+                new FileSystemRepository<>(
+                        Person::id,
+                        directory,
+                        Person::read,
+                        Person::write,
+                        Person.class,
+                        FileSystemRepositoryOptions.apply().withCacheEnabled(cacheEnabled));
+
+        repository.saveAll(
+                IntStream.range(0, entities)
+                        .mapToObj(i -> new Person(getId(i), "Person " + i))
+                        .toList());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+
+        try (var files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder())
+                    .forEach(file -> Operators.ignoreExceptions(() -> Files.delete(file)));
+        }
+    }
+
+    @Benchmark
+    public List<Person> findAll() {
+        return repository.findAll();
+    }
+
+    @Benchmark
+    public Optional<Person> findById() {
+        return repository.findById(nextId());
+    }
+
+    @Benchmark
+    public void save() {
+        var id = nextId();
+        repository.save(new Person(id, "Updated " + id));
+    }
+
+    private String nextId() {
+        next = (next + 1) % entities;
+        return getId(next);
+    }
+
+    private static String getId(int i) {
+        return String.format("person-%06d", i);
+    }
+
+    public record Person(String id, String name) {
+
+        static Person read(Path file) throws IOException {
+            var lines = Files.readAllLines(file);
+            return new Person(lines.get(0), lines.get(1));
+        }
+
+        static void write(Path file, Person person) throws IOException {
+            Files.writeString(file, person.id() + "\n" + person.name());
+        }
+    }
+}
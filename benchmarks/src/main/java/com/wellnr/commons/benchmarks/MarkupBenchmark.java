@@ -0,0 +1,83 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.benchmarks;
+
+import com.wellnr.commons.Operators;
+import com.wellnr.commons.markup.Either;
+import com.wellnr.commons.markup.Result;
+import com.wellnr.commons.markup.Tuple;
+import com.wellnr.commons.markup.Tuple2;
+import com.wellnr.commons.markup.Tuple5;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the allocation of the markup types and the exception helpers of {@link Operators}. Run with
+ * {@code -prof gc} to report the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MarkupBenchmark {
+
+    private final String value = "value";
+
+    private final Exception failure = new IllegalStateException("failure");
+
+    @Benchmark
+    public Either<String, Integer> eitherApply() {
+        return Either.apply(null, 42);
+    }
+
+    @Benchmark
+    public Optional<String> eitherFromLeft() {
+        return Either.<String, Integer>fromLeft(value).getLeft();
+    }
+
+    @Benchmark
+    public Result<String> resultSuccess() {
+        return Result.success(value);
+    }
+
+    @Benchmark
+    public Result<String> resultFailure() {
+        return Result.failure(failure);
+    }
+
+    @Benchmark
+    public Tuple2<String, Integer> tuple2() {
+        return Tuple.apply(value, 42);
+    }
+
+    @Benchmark
+    public Tuple5<String, Integer, String, Integer, String> tuple5() {
+        return Tuple.apply(value, 1, value, 2, value);
+    }
+
+    @Benchmark
+    public String suppressExceptions() {
+        return Operators.suppressExceptions(() -> value);
+    }
+
+    @Benchmark
+    public Optional<String> ignoreExceptionsToOptionalWithFailure() {
+        return Operators.ignoreExceptionsToOptional(
+                () -> {
+                    throw failure;
+                });
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.benchmarks;
+
+import com.wellnr.commons.StringConversionCache;
+import com.wellnr.commons.StringOperators;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the case conversions of {@link StringOperators} for short and long inputs, uncached and memoized by a
+ * {@link StringConversionCache}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringOperatorsBenchmark {
+
+    @Param({"3", "12"})
+    int words;
+
+    private String camelCase;
+
+    private String sentence;
+
+    private String noun;
+
+    private StringConversionCache cache;
+
+    @Setup
+    public void setup() {
+        var camelCase = new StringBuilder();
+        var sentence = new StringBuilder();
+
+        for (var i = 0; i < words; i++) {
+            camelCase.append(i == 0 ? "some" : "Entity").append(i);
+            sentence.append(i == 0 ? "" : " ").append("Some Entity").append(i);
+        }
+
+        this.camelCase = camelCase.toString();
+        this.sentence = sentence.toString();
+        this.noun = "category";
+        this.cache = StringConversionCache.apply(1024);
+    }
+
+    @Benchmark
+    public String camelCaseToHumanReadable() {
+        return StringOperators.camelCaseToHumanReadable(camelCase);
+    }
+
+    @Benchmark
+    public String camelCaseToKebabCase() {
+        return StringOperators.camelCaseToKebabCase(camelCase);
+    }
+
+    @Benchmark
+    public String stringToCamelCase() {
+        return StringOperators.stringToCamelCase(sentence);
+    }
+
+    @Benchmark
+    public String stringToKebabCase() {
+        return StringOperators.stringToKebabCase(sentence);
+    }
+
+    @Benchmark
+    public String stringToTechFriendlyName() {
+        return StringOperators.stringToTechFriendlyName(sentence);
+    }
+
+    @Benchmark
+    public boolean fuzzyEquals() {
+        return StringOperators.fuzzyEquals(camelCase, sentence);
+    }
+
+    @Benchmark
+    public String pluralize() {
+        return StringOperators.pluralize(noun);
+    }
+
+    @Benchmark
+    public String cachedCamelCaseToKebabCase() {
+        return cache.camelCaseToKebabCase(camelCase);
+    }
+
+    @Benchmark
+    public String cachedStringToTechFriendlyName() {
+        return cache.stringToTechFriendlyName(sentence);
+    }
+
+    @Benchmark
+    public String cachedPluralize() {
+        return cache.pluralize(noun);
+    }
+}
@@ -0,0 +1,295 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons;
+
+import com.wellnr.commons.functions.Function1;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memoizes the conversions of {@link StringOperators} for applications which convert the same identifiers
+ * repeatedly. Equal inputs return the same result instance as long as it is cached.
+ * <p>
+ * Each conversion keeps at most {@code maxSize} results. The results are distributed by hash over independently
+ * locked segments, each segment drops its least recently used results, hence concurrent lookups of different
+ * inputs rarely contend. As some conversions depend on the default locale, each segment records the locale of its
+ * results and drops them when it is accessed with another default locale. Results which have been computed while
+ * the default locale changed are not cached.
+ */
+public final class StringConversionCache {
+
+    private static final int MAX_SEGMENTS = 16;
+
+    private final Memo camelCaseToHumanReadable;
+
+    private final Memo camelCaseToKebabCase;
+
+    private final Memo stringToCamelCase;
+
+    private final Memo stringToKebabCase;
+
+    private final Memo pluralize;
+
+    private final List<Memo> memos;
+
+    private final LongAdder hits;
+
+    private final LongAdder misses;
+
+    private StringConversionCache(int maxSize) {
+        this.camelCaseToHumanReadable =
+                new Memo(StringOperators::camelCaseToHumanReadable, maxSize);
+        this.camelCaseToKebabCase = new Memo(StringOperators::camelCaseToKebabCase, maxSize);
+        this.stringToCamelCase = new Memo(StringOperators::stringToCamelCase, maxSize);
+        this.stringToKebabCase = new Memo(StringOperators::stringToKebabCase, maxSize);
+        this.pluralize = new Memo(StringOperators::pluralize, maxSize);
+        this.memos =
+                List.of(
+                        camelCaseToHumanReadable,
+                        camelCaseToKebabCase,
+                        stringToCamelCase,
+                        stringToKebabCase,
+                        pluralize);
+        this.hits = new LongAdder();
+        this.misses = new LongAdder();
+    }
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxSize The maximum number of cached results per conversion.
+     * @return The new cache.
+     */
+    public static StringConversionCache apply(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException(
+                    String.format("The size of the cache must be positive, but was %d.", maxSize));
+        }
+
+        return new StringConversionCache(maxSize);
+    }
+
+    /**
+     * See {@link StringOperators#camelCaseToHumanReadable(String)}.
+     *
+     * @param s The string to transform.
+     * @return The human-readable string.
+     */
+    public String camelCaseToHumanReadable(String s) {
+        return get(camelCaseToHumanReadable, s);
+    }
+
+    /**
+     * See {@link StringOperators#camelCaseToKebabCase(String)}.
+     *
+     * @param s The string to transform.
+     * @return The transformed string.
+     */
+    public String camelCaseToKebabCase(String s) {
+        return get(camelCaseToKebabCase, s);
+    }
+
+    /**
+     * See {@link StringOperators#stringToCamelCase(String)}.
+     *
+     * @param s The text to convert.
+     * @return A camel case string.
+     */
+    public String stringToCamelCase(String s) {
+        return get(stringToCamelCase, s);
+    }
+
+    /**
+     * See {@link StringOperators#stringToKebabCase(String)}.
+     *
+     * @param s The string to convert.
+     * @return A kebab case string.
+     */
+    public String stringToKebabCase(String s) {
+        return get(stringToKebabCase, s);
+    }
+
+    /**
+     * See {@link StringOperators#stringToTechFriendlyName(String)}, shares the results of
+     * {@link #stringToKebabCase(String)}.
+     *
+     * @param s The text to convert.
+     * @return A tech-friendly string.
+     */
+    public String stringToTechFriendlyName(String s) {
+        return get(stringToKebabCase, s);
+    }
+
+    /**
+     * See {@link StringOperators#pluralize(String)}.
+     *
+     * @param word The word to pluralize.
+     * @return The pluralized word.
+     */
+    public String pluralize(String word) {
+        return get(pluralize, word);
+    }
+
+    /**
+     * Returns the number of lookups which have been answered from the cache.
+     *
+     * @return The number of hits.
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of lookups which have computed the result.
+     *
+     * @return The number of misses.
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * Returns the number of cached results of all conversions.
+     *
+     * @return The number of results.
+     */
+    public int size() {
+        return memos.stream().mapToInt(Memo::size).sum();
+    }
+
+    /**
+     * Drops all cached results. The counters are not reset.
+     */
+    public void clear() {
+        memos.forEach(Memo::clear);
+    }
+
+    private String get(Memo memo, String s) {
+        var locale = Locale.getDefault();
+        var cached = memo.get(s, locale);
+
+        if (Objects.nonNull(cached)) {
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        var result = memo.conversion.get(s);
+
+        if (!locale.equals(Locale.getDefault())) {
+            return result;
+        }
+
+        return memo.put(s, locale, result);
+    }
+
+    /**
+     * The cached results of a single conversion.
+     */
+    private static final class Memo {
+
+        private final Function1<String, String> conversion;
+
+        private final Segment[] segments;
+
+        private Memo(Function1<String, String> conversion, int maxSize) {
+            var count = Integer.highestOneBit(Math.min(MAX_SEGMENTS, maxSize));
+
+            this.conversion = conversion;
+            this.segments = new Segment[count];
+
+            // The remainder of the division is spread over the first segments, hence the
+            // capacities sum up to maxSize.
+            for (var i = 0; i < count; i++) {
+                segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+            }
+        }
+
+        private String get(String s, Locale locale) {
+            var segment = getSegment(s);
+
+            synchronized (segment) {
+                if (!locale.equals(segment.locale)) {
+                    segment.results.clear();
+                    segment.locale = locale;
+                    return null;
+                }
+
+                return segment.results.get(s);
+            }
+        }
+
+        /**
+         * Caches a result, unless another thread has cached a result for the same input in the meantime or the
+         * segment has been accessed with another locale.
+         *
+         * @return The cached result.
+         */
+        private String put(String s, Locale locale, String result) {
+            var segment = getSegment(s);
+
+            synchronized (segment) {
+                if (!locale.equals(segment.locale)) {
+                    return result;
+                }
+
+                var existing = segment.results.putIfAbsent(s, result);
+                return Objects.nonNull(existing) ? existing : result;
+            }
+        }
+
+        private int size() {
+            var size = 0;
+
+            for (var segment : segments) {
+                synchronized (segment) {
+                    size += segment.results.size();
+                }
+            }
+
+            return size;
+        }
+
+        private void clear() {
+            for (var segment : segments) {
+                synchronized (segment) {
+                    segment.results.clear();
+                }
+            }
+        }
+
+        private Segment getSegment(String s) {
+            var hash = s.hashCode();
+            return segments[(hash ^ (hash >>> 16)) & (segments.length - 1)];
+        }
+    }
+
+    /**
+     * A part of the results of a conversion, guarded by its own monitor.
+     */
+    private static final class Segment {
+
+        private final Map<String, String> results;
+
+        /**
+         * The default locale of the cached results, {@code null} until the segment has been accessed.
+         */
+        private Locale locale;
+
+        private Segment(int capacity) {
+            this.results =
+                    new LinkedHashMap<>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                            return size() > capacity;
+                        }
+                    };
+        }
+    }
+}
@@ -5,9 +5,19 @@
 package com.wellnr.commons;
 
 import com.wellnr.commons.functions.Function0;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 public final class StringOperators {
 
+    private static final Pattern KEBAB_CASE = Pattern.compile("^[a-z]+(-[a-z0-9]+)*$");
+
+    /**
+     * Languages with locale-specific case mappings of ASCII letters, e.g. the dotless i of Turkish.
+     */
+    private static final Set<String> SPECIAL_CASING_LANGUAGES = Set.of("tr", "az", "lt");
+
     private StringOperators() {}
 
     /**
@@ -17,20 +27,54 @@ public final class StringOperators {
      * @return The human-readable string.
      */
     public static String camelCaseToHumanReadable(String s) {
-        var result =
-                s.replaceAll(
-                        String.format(
-                                "%s|%s|%s",
-                                "(?<=[A-Z])(?=[A-Z][a-z])",
-                                "(?<=[^A-Z])(?=[A-Z])",
-                                "(?<=[A-Za-z])(?=[^A-Za-z])"),
-                        " ");
-
-        if (result.length() > 1) {
-            return result.substring(0, 1).toUpperCase() + result.substring(1);
-        } else {
-            return result.toUpperCase();
+        return appendCamelCaseToHumanReadable(s, new StringBuilder(s.length() + 8)).toString();
+    }
+
+    /**
+     * Transforms a camel case string to a human-readable string and appends it to a builder. A space is inserted
+     * before each word, i.e. before an upper case letter which follows a character other than an upper case letter,
+     * before the last letter of an upper case sequence which is followed by a lower case letter and after a letter
+     * which is followed by a character other than a letter. The first character is transformed to upper case.
+     *
+     * @param s      The string to transform.
+     * @param target The builder to append the human-readable string to.
+     * @return The builder.
+     */
+    public static StringBuilder appendCamelCaseToHumanReadable(
+            CharSequence s, StringBuilder target) {
+        var start = target.length();
+        var length = s.length();
+
+        for (var i = 0; i < length; i++) {
+            var c = s.charAt(i);
+
+            if (i > 0) {
+                var previous = s.charAt(i - 1);
+
+                if ((isAsciiUpperCase(c) && !isAsciiUpperCase(previous))
+                        || (isAsciiUpperCase(c)
+                                && isAsciiUpperCase(previous)
+                                && i + 1 < length
+                                && isAsciiLowerCase(s.charAt(i + 1)))
+                        || (isAsciiLetter(previous) && !isAsciiLetter(c))) {
+                    target.append(' ');
+                }
+            }
+
+            target.append(c);
+        }
+
+        if (target.length() > start) {
+            var first = target.charAt(start);
+
+            if (first < 128 && !hasSpecialCasing()) {
+                target.setCharAt(start, Character.toUpperCase(first));
+            } else {
+                target.replace(start, start + 1, String.valueOf(first).toUpperCase());
+            }
         }
+
+        return target;
     }
 
     /**
@@ -40,9 +84,26 @@ public final class StringOperators {
      * @return The transformed string.
      */
     public static String camelCaseToKebabCase(String s) {
-        return s.replaceAll("([a-z0-9])([A-Z])", "$1-$2")
-                .replaceAll("([A-Z])([A-Z])(?=[a-z])", "$1-$2")
-                .toLowerCase();
+        return appendCamelCaseToKebabCase(s, new StringBuilder(s.length() + 8)).toString();
+    }
+
+    /**
+     * Transforms a camel case string to a kebab case string and appends it to a builder. A hyphen is inserted
+     * before an upper case letter which follows a lower case letter or digit and before the last letter of an
+     * upper case sequence which is followed by a lower case letter, then the string is transformed to lower case.
+     *
+     * @param s      The string to transform.
+     * @param target The builder to append the kebab case string to.
+     * @return The builder.
+     */
+    public static StringBuilder appendCamelCaseToKebabCase(CharSequence s, StringBuilder target) {
+        if (isAscii(s) && !hasSpecialCasing()) {
+            return appendHyphenated(s, target, true);
+        }
+
+        // Lower-casing other characters may depend on the locale and on the surrounding characters.
+        var hyphenated = appendHyphenated(s, new StringBuilder(s.length() + 8), false);
+        return target.append(hyphenated.toString().toLowerCase());
     }
 
     /**
@@ -63,29 +124,35 @@ public final class StringOperators {
      * @return A camel case string.
      */
     public static String stringToCamelCase(String s) {
-        var builder = new StringBuilder();
-        char delimiter = ' ';
-        boolean shouldConvertNextCharToLower = true;
-
-        // Replace all special characters with whitespace
-        s = s.replaceAll("[^a-zA-Z0-9]", " ");
-
-        // Replace all whitespace with a single space
-        s = s.replaceAll("\\s+", " ");
-
-        for (int i = 0; i < s.length(); i++) {
-            char currentChar = s.charAt(i);
-            if (currentChar == delimiter) {
-                shouldConvertNextCharToLower = false;
-            } else if (shouldConvertNextCharToLower) {
-                builder.append(Character.toLowerCase(currentChar));
+        return appendStringToCamelCase(s, new StringBuilder(s.length())).toString();
+    }
+
+    /**
+     * Converts a string to a camel case string and appends it to a builder. All characters except ASCII letters
+     * and digits are treated as word delimiters and removed. The first letter of each word except the first is
+     * transformed to upper case, all other letters to lower case.
+     *
+     * @param s      The text to convert.
+     * @param target The builder to append the camel case string to.
+     * @return The builder.
+     */
+    public static StringBuilder appendStringToCamelCase(CharSequence s, StringBuilder target) {
+        var upperCaseNext = false;
+
+        for (var i = 0; i < s.length(); i++) {
+            var c = s.charAt(i);
+
+            if (!isAsciiLetter(c) && !isAsciiDigit(c)) {
+                upperCaseNext = true;
+            } else if (upperCaseNext) {
+                target.append(Character.toUpperCase(c));
+                upperCaseNext = false;
             } else {
-                builder.append(Character.toUpperCase(currentChar));
-                shouldConvertNextCharToLower = true;
+                target.append(Character.toLowerCase(c));
             }
         }
 
-        return builder.toString();
+        return target;
     }
 
     /**
@@ -95,7 +162,9 @@ public final class StringOperators {
      * @return A kebab case string.
      */
     public static String stringToKebabCase(String s) {
-        return camelCaseToKebabCase(stringToCamelCase(s));
+        var camelCase = appendStringToCamelCase(s, new StringBuilder(s.length()));
+        return appendCamelCaseToKebabCase(camelCase, new StringBuilder(camelCase.length() + 8))
+                .toString();
     }
 
     /**
@@ -105,7 +174,7 @@ public final class StringOperators {
      * @return A tech-friendly string.
      */
     public static String stringToTechFriendlyName(String s) {
-        return camelCaseToKebabCase(stringToCamelCase(s));
+        return stringToKebabCase(s);
     }
 
     /**
@@ -133,7 +202,7 @@ public final class StringOperators {
      */
     public static <T extends Exception> String validateKebabCaseString(String s, Function0<T> e)
             throws T {
-        if (!s.matches("^[a-z]+(-[a-z0-9]+)*$")) {
+        if (!KEBAB_CASE.matcher(s).matches()) {
             throw e.get();
         }
 
@@ -156,4 +225,71 @@ public final class StringOperators {
 
         return s;
     }
+
+    /**
+     * Appends a string with hyphens between the words of camel case, see
+     * {@link #appendCamelCaseToKebabCase(CharSequence, StringBuilder)}.
+     *
+     * @param s         The string.
+     * @param target    The builder to append to.
+     * @param lowerCase Whether ASCII upper case letters are transformed to lower case.
+     * @return The builder.
+     */
+    private static StringBuilder appendHyphenated(
+            CharSequence s, StringBuilder target, boolean lowerCase) {
+        var length = s.length();
+
+        for (var i = 0; i < length; i++) {
+            var c = s.charAt(i);
+
+            if (i > 0 && isAsciiUpperCase(c)) {
+                var previous = s.charAt(i - 1);
+
+                if (isAsciiLowerCase(previous)
+                        || isAsciiDigit(previous)
+                        || (isAsciiUpperCase(previous)
+                                && i + 1 < length
+                                && isAsciiLowerCase(s.charAt(i + 1)))) {
+                    target.append('-');
+                }
+            }
+
+            target.append(lowerCase ? Character.toLowerCase(c) : c);
+        }
+
+        return target;
+    }
+
+    /**
+     * Checks whether the default locale maps the case of ASCII letters differently than {@link Character}.
+     */
+    private static boolean hasSpecialCasing() {
+        return SPECIAL_CASING_LANGUAGES.contains(Locale.getDefault().getLanguage());
+    }
+
+    private static boolean isAscii(CharSequence s) {
+        for (var i = 0; i < s.length(); i++) {
+            if (s.charAt(i) >= 128) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static boolean isAsciiDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return isAsciiLowerCase(c) || isAsciiUpperCase(c);
+    }
+
+    private static boolean isAsciiLowerCase(char c) {
+        return c >= 'a' && c <= 'z';
+    }
+
+    private static boolean isAsciiUpperCase(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
 }
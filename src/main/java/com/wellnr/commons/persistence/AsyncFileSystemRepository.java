@@ -0,0 +1,133 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.functions.Function0;
+import com.wellnr.commons.markup.Result;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+/**
+ * Non-blocking access to a {@link FileSystemRepository}. Each operation runs on the executor of the repository, see
+ * {@link FileSystemRepositoryOptions#getExecutor()}, and at most
+ * {@link FileSystemRepositoryOptions#getMaxInFlightAsyncOperations()} operations run at the same time. Failures
+ * complete the returned futures exceptionally.
+ *
+ * @param <T> the type of the entity managed by the repository.
+ */
+public final class AsyncFileSystemRepository<T> {
+
+    private final FileSystemRepository<T> repository;
+
+    private final Executor executor;
+
+    AsyncFileSystemRepository(FileSystemRepository<T> repository, Executor executor) {
+        this.repository = repository;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the blocking repository.
+     *
+     * @return The repository.
+     */
+    public FileSystemRepository<T> blocking() {
+        return repository;
+    }
+
+    public CompletableFuture<Long> countAsync() {
+        return supply(repository::count);
+    }
+
+    public CompletableFuture<Void> deleteAsync(String id) {
+        return run(() -> repository.delete(id));
+    }
+
+    public CompletableFuture<Void> deleteAsync(String id, EntityVersion expectedVersion) {
+        return run(() -> repository.delete(id, expectedVersion));
+    }
+
+    public CompletableFuture<List<Result<String>>> deleteAllAsync(Collection<String> ids) {
+        return supply(() -> repository.deleteAll(ids));
+    }
+
+    public CompletableFuture<Boolean> existsByIdAsync(String id) {
+        return supply(() -> repository.existsById(id));
+    }
+
+    public CompletableFuture<List<T>> findAllAsync() {
+        return supply(repository::findAll);
+    }
+
+    public CompletableFuture<List<T>> findAllByAsync(Predicate<T> predicate) {
+        return supply(() -> repository.findAllBy(predicate));
+    }
+
+    public CompletableFuture<List<T>> findByIndexAsync(String name, Object key) {
+        return supply(() -> repository.findByIndex(name, key));
+    }
+
+    public CompletableFuture<Optional<T>> findByIdAsync(String id) {
+        return supply(() -> repository.findById(id));
+    }
+
+    public CompletableFuture<Optional<T>> findOneByAsync(Predicate<T> predicate) {
+        return supply(() -> repository.findOneBy(predicate));
+    }
+
+    public CompletableFuture<Optional<T>> findOneByIndexAsync(String name, Object key) {
+        return supply(() -> repository.findOneByIndex(name, key));
+    }
+
+    public CompletableFuture<Page<T>> findPageAsync(
+            Predicate<T> predicate, String cursor, int limit) {
+        return supply(() -> repository.findPage(predicate, cursor, limit));
+    }
+
+    public CompletableFuture<Page<T>> findPageAsync(
+            Predicate<T> predicate, Comparator<T> comparator, String cursor, int limit) {
+        return supply(() -> repository.findPage(predicate, comparator, cursor, limit));
+    }
+
+    public CompletableFuture<Optional<VersionedEntity<T>>> findVersionedByIdAsync(String id) {
+        return supply(() -> repository.findVersionedById(id));
+    }
+
+    public CompletableFuture<List<String>> listIdsAsync() {
+        return supply(repository::listIds);
+    }
+
+    /**
+     * Saves an entity. If write-behind is enabled, the future completes when the entity has been buffered, use
+     * {@link FileSystemRepository#flush()} to wait until it has been written.
+     *
+     * @param entity The entity to save.
+     * @return A future which completes when the entity has been saved.
+     */
+    public CompletableFuture<Void> saveAsync(T entity) {
+        return run(() -> repository.save(entity));
+    }
+
+    public CompletableFuture<EntityVersion> saveAsync(T entity, EntityVersion expectedVersion) {
+        return supply(() -> repository.save(entity, expectedVersion));
+    }
+
+    public CompletableFuture<List<Result<T>>> saveAllAsync(Collection<T> entities) {
+        return supply(() -> repository.saveAll(entities));
+    }
+
+    private CompletableFuture<Void> run(Runnable operation) {
+        return CompletableFuture.runAsync(operation, executor);
+    }
+
+    private <R> CompletableFuture<R> supply(Function0<R> operation) {
+        return CompletableFuture.supplyAsync(operation::get, executor);
+    }
+}
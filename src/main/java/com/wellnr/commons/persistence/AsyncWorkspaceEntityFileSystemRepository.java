@@ -0,0 +1,137 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.functions.Function0;
+import com.wellnr.commons.markup.Result;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Predicate;
+
+/**
+ * Non-blocking access to a {@link WorkspaceEntityFileSystemRepository}, see {@link AsyncFileSystemRepository}. The
+ * limit of {@link FileSystemRepositoryOptions#getMaxInFlightAsyncOperations()} applies to all workspaces together.
+ *
+ * @param <T> the type of the entity managed by the repository.
+ */
+public final class AsyncWorkspaceEntityFileSystemRepository<T> {
+
+    private final WorkspaceEntityFileSystemRepository<T> repository;
+
+    private final Executor executor;
+
+    AsyncWorkspaceEntityFileSystemRepository(
+            WorkspaceEntityFileSystemRepository<T> repository, Executor executor) {
+        this.repository = repository;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the blocking repository.
+     *
+     * @return The repository.
+     */
+    public WorkspaceEntityFileSystemRepository<T> blocking() {
+        return repository;
+    }
+
+    public CompletableFuture<Long> countAsync(String workspaceId) {
+        return supply(() -> repository.count(workspaceId));
+    }
+
+    public CompletableFuture<Void> deleteAsync(String workspaceId, String id) {
+        return run(() -> repository.delete(workspaceId, id));
+    }
+
+    public CompletableFuture<Void> deleteAsync(
+            String workspaceId, String id, EntityVersion expectedVersion) {
+        return run(() -> repository.delete(workspaceId, id, expectedVersion));
+    }
+
+    public CompletableFuture<List<Result<String>>> deleteAllAsync(
+            String workspaceId, Collection<String> ids) {
+        return supply(() -> repository.deleteAll(workspaceId, ids));
+    }
+
+    public CompletableFuture<Boolean> existsByIdAsync(String workspaceId, String id) {
+        return supply(() -> repository.existsById(workspaceId, id));
+    }
+
+    public CompletableFuture<List<T>> findAllAsync(String workspaceId) {
+        return supply(() -> repository.findAll(workspaceId));
+    }
+
+    public CompletableFuture<List<T>> findAllByAsync(String workspaceId, Predicate<T> predicate) {
+        return supply(() -> repository.findAllBy(workspaceId, predicate));
+    }
+
+    public CompletableFuture<List<T>> findByIndexAsync(
+            String workspaceId, String name, Object key) {
+        return supply(() -> repository.findByIndex(workspaceId, name, key));
+    }
+
+    public CompletableFuture<Optional<T>> findByIdAsync(String workspaceId, String id) {
+        return supply(() -> repository.findById(workspaceId, id));
+    }
+
+    public CompletableFuture<Optional<T>> findOneByAsync(
+            String workspaceId, Predicate<T> predicate) {
+        return supply(() -> repository.findOneBy(workspaceId, predicate));
+    }
+
+    public CompletableFuture<Optional<T>> findOneByIndexAsync(
+            String workspaceId, String name, Object key) {
+        return supply(() -> repository.findOneByIndex(workspaceId, name, key));
+    }
+
+    public CompletableFuture<Page<T>> findPageAsync(
+            String workspaceId, Predicate<T> predicate, String cursor, int limit) {
+        return supply(() -> repository.findPage(workspaceId, predicate, cursor, limit));
+    }
+
+    public CompletableFuture<Page<T>> findPageAsync(
+            String workspaceId,
+            Predicate<T> predicate,
+            Comparator<T> comparator,
+            String cursor,
+            int limit) {
+        return supply(() -> repository.findPage(workspaceId, predicate, comparator, cursor, limit));
+    }
+
+    public CompletableFuture<Optional<VersionedEntity<T>>> findVersionedByIdAsync(
+            String workspaceId, String id) {
+        return supply(() -> repository.findVersionedById(workspaceId, id));
+    }
+
+    public CompletableFuture<List<String>> listIdsAsync(String workspaceId) {
+        return supply(() -> repository.listIds(workspaceId));
+    }
+
+    public CompletableFuture<Void> saveAsync(String workspaceId, T entity) {
+        return run(() -> repository.save(workspaceId, entity));
+    }
+
+    public CompletableFuture<EntityVersion> saveAsync(
+            String workspaceId, T entity, EntityVersion expectedVersion) {
+        return supply(() -> repository.save(workspaceId, entity, expectedVersion));
+    }
+
+    public CompletableFuture<List<Result<T>>> saveAllAsync(
+            String workspaceId, Collection<T> entities) {
+        return supply(() -> repository.saveAll(workspaceId, entities));
+    }
+
+    private CompletableFuture<Void> run(Runnable operation) {
+        return CompletableFuture.runAsync(operation, executor);
+    }
+
+    private <R> CompletableFuture<R> supply(Function0<R> operation) {
+        return CompletableFuture.supplyAsync(operation::get, executor);
+    }
+}
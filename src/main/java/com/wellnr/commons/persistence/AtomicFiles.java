@@ -0,0 +1,243 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.Operators;
+import com.wellnr.commons.functions.Procedure1;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Helper functions to replace files atomically: Content is written to a temporary file within the same directory,
+ * which is renamed to the target afterwards.
+ * <p>
+ * Temporary files are named {@code .<file-name>.<uuid>.tmp}. Files of transactions which wait for their commit are
+ * named {@code .<file-name>.<uuid>.staged}, see {@link WriteAheadLog}; these are not removed by
+ * {@link #deleteStaleTemporaryFiles(Path, int, String)}, as they may still be referenced by a log.
+ */
+@Slf4j
+final class AtomicFiles {
+
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private static final String STAGED_SUFFIX = ".staged";
+
+    /**
+     * Temporary files which have not been modified for this duration are considered as left over from a crash.
+     */
+    private static final Duration STALE_TEMPORARY_FILE_AGE = Duration.ofHours(1);
+
+    /**
+     * File stores which do not support atomic moves, a warning is logged once per store.
+     */
+    private static final Set<FileStore> NON_ATOMIC_STORES = ConcurrentHashMap.newKeySet();
+
+    private AtomicFiles() {}
+
+    /**
+     * Writes a file atomically.
+     *
+     * @param target     The file to write.
+     * @param write      The procedure which writes the content to the given (temporary) path.
+     * @param durability Whether the file and the directory should be flushed to disk.
+     */
+    static void write(Path target, Procedure1<Path> write, WriteDurability durability) {
+        var temporary = writeTemporary(target, write, durability);
+        move(temporary, target);
+
+        if (durability == WriteDurability.SYNC_FILE_AND_DIRECTORY) {
+            syncDirectory(target.getParent());
+        }
+    }
+
+    /**
+     * Writes the content of a file to a new temporary file next to the target. The temporary file is removed if
+     * writing fails.
+     *
+     * @param target     The file which will be replaced by the temporary file.
+     * @param write      The procedure which writes the content to the given path.
+     * @param durability Whether the file should be flushed to disk.
+     * @return The path of the temporary file.
+     */
+    static Path writeTemporary(Path target, Procedure1<Path> write, WriteDurability durability) {
+        return writeTemporary(target, TEMPORARY_SUFFIX, write, durability);
+    }
+
+    /**
+     * Writes the content of a file of a transaction to a new staged file next to the target, like
+     * {@link #writeTemporary(Path, Procedure1, WriteDurability)}. Staged files are kept when stale temporary files
+     * are removed.
+     *
+     * @param target     The file which will be replaced by the staged file.
+     * @param write      The procedure which writes the content to the given path.
+     * @param durability Whether the file should be flushed to disk.
+     * @return The path of the staged file.
+     */
+    static Path writeStaged(Path target, Procedure1<Path> write, WriteDurability durability) {
+        return writeTemporary(target, STAGED_SUFFIX, write, durability);
+    }
+
+    /**
+     * Checks whether a file is a temporary or staged file of this class.
+     *
+     * @param file The file.
+     * @return True if the file is a temporary or staged file.
+     */
+    static boolean isTemporary(Path file) {
+        var fileName = file.getFileName().toString();
+
+        return fileName.startsWith(".")
+                && (fileName.endsWith(TEMPORARY_SUFFIX) || fileName.endsWith(STAGED_SUFFIX));
+    }
+
+    /**
+     * Removes temporary files which have been left over by writes which crashed. Only files which have not been
+     * modified for an hour are removed, hence writes of other processes which are in progress are not affected.
+     *
+     * @param directory  The directory to clean up.
+     * @param depth      The maximum depth of nested directories to visit, 1 for files of the directory only.
+     * @param fileSuffix The suffix of the target files, e.g. {@code .person.json}.
+     * @return The number of removed files.
+     */
+    static int deleteStaleTemporaryFiles(Path directory, int depth, String fileSuffix) {
+        var threshold = Instant.now().minus(STALE_TEMPORARY_FILE_AGE);
+        List<Path> stale;
+
+        try (var files =
+                Operators.suppressExceptions(
+                        () ->
+                                Files.find(
+                                        directory,
+                                        depth,
+                                        (file, attributes) ->
+                                                attributes.isRegularFile()
+                                                        && isTemporaryFileOf(file, fileSuffix)
+                                                        && attributes
+                                                                .lastModifiedTime()
+                                                                .toInstant()
+                                                                .isBefore(threshold)))) {
+            stale = files.toList();
+        }
+
+        stale.forEach(file -> Operators.ignoreExceptions(() -> Files.deleteIfExists(file)));
+
+        if (!stale.isEmpty()) {
+            log.info(
+                    "Removed {} stale temporary files from directory `{}`.",
+                    stale.size(),
+                    directory);
+        }
+
+        return stale.size();
+    }
+
+    /**
+     * Renames a file and replaces the target if it exists. The rename is atomic if the file system supports it,
+     * otherwise a warning is logged once per file store and the file is replaced without atomicity guarantees.
+     *
+     * @param source The file to rename.
+     * @param target The new name of the file.
+     */
+    static void move(Path source, Path target) {
+        Operators.suppressExceptions(
+                () -> {
+                    try {
+                        Files.move(
+                                source,
+                                target,
+                                StandardCopyOption.ATOMIC_MOVE,
+                                StandardCopyOption.REPLACE_EXISTING);
+                    } catch (AtomicMoveNotSupportedException ex) {
+                        var store = Files.getFileStore(source);
+
+                        if (NON_ATOMIC_STORES.add(store)) {
+                            log.warn(
+                                    "The file store `{}` does not support atomic moves, files are"
+                                            + " replaced without atomicity guarantees. Readers may"
+                                            + " see partially written files.",
+                                    store,
+                                    ex);
+                        }
+
+                        Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                });
+    }
+
+    /**
+     * Flushes the content of a file to disk.
+     *
+     * @param file The file to flush.
+     */
+    static void sync(Path file) {
+        Operators.suppressExceptions(
+                () -> {
+                    try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                        channel.force(true);
+                    }
+                });
+    }
+
+    /**
+     * Flushes the entries of a directory to disk. Not all platforms support this, failures are ignored.
+     *
+     * @param directory The directory to flush.
+     */
+    static void syncDirectory(Path directory) {
+        Operators.ignoreExceptions(
+                () -> {
+                    try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+                        channel.force(true);
+                    }
+                },
+                ex -> log.debug("Unable to flush directory `{}`.", directory, ex));
+    }
+
+    private static Path writeTemporary(
+            Path target, String suffix, Procedure1<Path> write, WriteDurability durability) {
+        var temporary =
+                target.resolveSibling(
+                        "." + target.getFileName() + "." + UUID.randomUUID() + suffix);
+
+        try {
+            write.run(temporary);
+
+            if (durability != WriteDurability.NONE) {
+                sync(temporary);
+            }
+        } catch (RuntimeException ex) {
+            Operators.ignoreExceptions(() -> Files.deleteIfExists(temporary));
+            throw ex;
+        }
+
+        return temporary;
+    }
+
+    /**
+     * Checks whether a file is a temporary file, not a staged file, of a target with the given suffix.
+     */
+    private static boolean isTemporaryFileOf(Path file, String fileSuffix) {
+        var fileName = file.getFileName().toString();
+        // The name of the target is followed by `.<uuid>.tmp`.
+        var length = fileName.length() - TEMPORARY_SUFFIX.length() - 37;
+
+        return fileName.startsWith(".")
+                && fileName.endsWith(TEMPORARY_SUFFIX)
+                && length > 0
+                && fileName.startsWith(fileSuffix, length - fileSuffix.length());
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import java.util.ArrayDeque;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs at most a fixed number of tasks at the same time on another executor. Further tasks are queued without
+ * blocking the caller and are started when running tasks have finished.
+ */
+final class BoundedExecutor implements Executor {
+
+    private final Executor executor;
+
+    private final int maxRunning;
+
+    private final Queue<Runnable> queue;
+
+    private int running;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param executor   The executor which runs the tasks.
+     * @param maxRunning The maximum number of tasks which run at the same time.
+     */
+    BoundedExecutor(Executor executor, int maxRunning) {
+        if (maxRunning < 1) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "The maximum number of running tasks must be positive, but was %d.",
+                            maxRunning));
+        }
+
+        this.executor = executor;
+        this.maxRunning = maxRunning;
+        this.queue = new ArrayDeque<>();
+        this.running = 0;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        synchronized (this) {
+            if (running >= maxRunning) {
+                queue.add(task);
+                return;
+            }
+
+            running++;
+        }
+
+        start(task);
+    }
+
+    private void start(Runnable task) {
+        try {
+            executor.execute(
+                    () -> {
+                        try {
+                            task.run();
+                        } finally {
+                            onFinished();
+                        }
+                    });
+        } catch (RejectedExecutionException ex) {
+            onFinished();
+            throw ex;
+        }
+    }
+
+    /**
+     * Starts the next queued task in place of a finished task.
+     */
+    private void onFinished() {
+        Runnable next;
+
+        synchronized (this) {
+            next = queue.poll();
+
+            if (Objects.isNull(next)) {
+                running--;
+                return;
+            }
+        }
+
+        start(next);
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.Operators;
+import com.wellnr.commons.functions.Procedure2;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A single {@link WatchService} which is shared by all repositories of the JVM. One daemon thread dispatches the
+ * events of all registered directories to their listeners.
+ * <p>
+ * Listeners are called with the kind of the event and the absolute path of the changed file. For
+ * {@link StandardWatchEventKinds#OVERFLOW} the path is {@code null}; listeners must assume that any file of the
+ * directory may have changed.
+ */
+@Slf4j
+final class DirectoryWatcher {
+
+    private static DirectoryWatcher instance;
+
+    private final WatchService watchService;
+
+    private final Map<WatchKey, List<Procedure2<WatchEvent.Kind<?>, Path>>> listeners;
+
+    private DirectoryWatcher() {
+        this.watchService =
+                Operators.suppressExceptions(() -> FileSystems.getDefault().newWatchService());
+        this.listeners = new ConcurrentHashMap<>();
+
+        var thread = new Thread(this::run, "wellnr-directory-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the shared instance, the watcher thread is started with the first call.
+     *
+     * @return The shared watcher.
+     */
+    static synchronized DirectoryWatcher getInstance() {
+        if (Objects.isNull(instance)) {
+            instance = new DirectoryWatcher();
+        }
+
+        return instance;
+    }
+
+    /**
+     * Registers a listener for changes of files within a directory (not recursive).
+     *
+     * @param directory The directory to watch.
+     * @param listener  The listener which is called for each event.
+     * @return A registration which must be closed to stop watching.
+     */
+    synchronized Registration register(
+            Path directory, Procedure2<WatchEvent.Kind<?>, Path> listener) {
+        var key =
+                Operators.suppressExceptions(
+                        () ->
+                                directory.register(
+                                        watchService,
+                                        StandardWatchEventKinds.ENTRY_CREATE,
+                                        StandardWatchEventKinds.ENTRY_MODIFY,
+                                        StandardWatchEventKinds.ENTRY_DELETE),
+                        "An exception occurred while registering watcher for `" + directory + "`.");
+
+        listeners.computeIfAbsent(key, k -> new CopyOnWriteArrayList<>()).add(listener);
+        return () -> unregister(key, listener);
+    }
+
+    private synchronized void unregister(
+            WatchKey key, Procedure2<WatchEvent.Kind<?>, Path> listener) {
+        var registered = listeners.get(key);
+
+        if (Objects.nonNull(registered)) {
+            registered.remove(listener);
+
+            if (registered.isEmpty()) {
+                listeners.remove(key);
+                key.cancel();
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            WatchKey key;
+
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+
+            var directory = (Path) key.watchable();
+            var registered = listeners.getOrDefault(key, List.of());
+
+            for (var event : key.pollEvents()) {
+                var kind = event.kind();
+                var path =
+                        kind == StandardWatchEventKinds.OVERFLOW
+                                ? null
+                                : directory.resolve((Path) event.context());
+
+                for (var listener : registered) {
+                    Operators.ignoreExceptions(
+                            () -> listener.run(kind, path),
+                            ex ->
+                                    log.warn(
+                                            "An exception occurred while handling file event for"
+                                                    + " `{}`.",
+                                            path,
+                                            ex));
+                }
+            }
+
+            if (!key.reset()) {
+                listeners.remove(key);
+            }
+        }
+    }
+
+    /**
+     * A handle to stop watching a directory.
+     */
+    interface Registration extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
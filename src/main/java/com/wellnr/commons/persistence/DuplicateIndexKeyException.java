@@ -0,0 +1,36 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.exceptions.DomainException;
+
+/**
+ * Thrown when an entity should be saved with a key which is already assigned to another entity within a unique
+ * index of a {@link FileSystemRepository}.
+ */
+public class DuplicateIndexKeyException extends DomainException {
+
+    private DuplicateIndexKeyException(String message) {
+        super(message);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param index      The name of the unique index.
+     * @param key        The duplicate key.
+     * @param existingId The id of the entity which is already assigned to the key.
+     * @param id         The id of the entity which should be saved.
+     * @return The new instance.
+     */
+    public static DuplicateIndexKeyException apply(
+            String index, Object key, String existingId, String id) {
+        return new DuplicateIndexKeyException(
+                String.format(
+                        "Cannot save entity `%s`, key `%s` of unique index `%s` is already assigned"
+                                + " to entity `%s`.",
+                        id, key, index, existingId));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of decoded entities used by {@link FileSystemRepository}.
+ * <p>
+ * Every change of an entry is stamped with a monotonic counter. Callers take a {@link #snapshot()} before they
+ * read from or write to disk and pass it along when they put the result into the cache. Results which are older
+ * than a change recorded in the meantime are dropped, hence readers never need to hold a lock while doing I/O.
+ *
+ * @param <T> the type of the cached entities.
+ */
+final class EntityCache<T> {
+
+    /**
+     * Decoded entities by id, sorted by id.
+     */
+    private final ConcurrentSkipListMap<String, T> entries;
+
+    /**
+     * The stamp of the latest change of each entry.
+     */
+    private final Map<String, Long> changes;
+
+    /**
+     * Ids which have been changed on disk since they have been cached.
+     */
+    private final Set<String> stale;
+
+    private final AtomicLong stamps;
+
+    /**
+     * Whether {@link #entries} contains all entities of the repository.
+     */
+    private volatile boolean complete;
+
+    /**
+     * The stamp of the last invalidation of the whole cache.
+     */
+    private volatile long clearedAt;
+
+    EntityCache() {
+        this.entries = new ConcurrentSkipListMap<>();
+        this.changes = new ConcurrentHashMap<>();
+        this.stale = ConcurrentHashMap.newKeySet();
+        this.stamps = new AtomicLong();
+        this.complete = false;
+        this.clearedAt = 0;
+    }
+
+    /**
+     * Returns the cached value of an entity.
+     *
+     * @param id The id of the entity.
+     * @return Empty if the cache cannot answer the request; otherwise the cached lookup result, which is empty
+     *     if the entity is known to not exist.
+     */
+    Optional<Optional<T>> get(String id) {
+        if (stale.contains(id)) {
+            return Optional.empty();
+        }
+
+        var value = entries.get(id);
+
+        if (Objects.nonNull(value)) {
+            return Optional.of(Optional.of(value));
+        } else if (complete) {
+            return Optional.of(Optional.empty());
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns all cached entities, sorted by id. Stale entries must be refreshed with {@link #put} before.
+     *
+     * @return Empty if the cache does not contain all entities.
+     */
+    Optional<List<T>> getAll() {
+        if (complete) {
+            return Optional.of(List.copyOf(entries.values()));
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the ids which need to be reloaded before {@link #getAll()} returns a valid result.
+     *
+     * @return The ids of the stale entries.
+     */
+    Set<String> getStaleIds() {
+        return Set.copyOf(stale);
+    }
+
+    /**
+     * Marks a single entity as changed on disk.
+     *
+     * @param id The id of the entity.
+     */
+    synchronized void invalidate(String id) {
+        changes.put(id, stamps.incrementAndGet());
+        stale.add(id);
+    }
+
+    /**
+     * Drops all cached values.
+     */
+    synchronized void invalidateAll() {
+        clearedAt = stamps.incrementAndGet();
+        complete = false;
+        entries.clear();
+        changes.clear();
+        stale.clear();
+    }
+
+    /**
+     * Stores a value which has been read from disk. The value is dropped if the entry has been changed after the
+     * snapshot was taken.
+     *
+     * @param id       The id of the entity.
+     * @param value    The value, or {@code null} if the entity does not exist.
+     * @param snapshot The snapshot which was taken before the value was read.
+     */
+    synchronized void put(String id, T value, long snapshot) {
+        if (snapshot < clearedAt || changes.getOrDefault(id, 0L) > snapshot) {
+            return;
+        }
+
+        set(id, value);
+        stale.remove(id);
+    }
+
+    /**
+     * Stores a value which has been written to disk by the repository. The value always replaces the cached
+     * value, but the entry stays stale if a change on disk has been reported after the snapshot was taken.
+     *
+     * @param id       The id of the entity.
+     * @param value    The value, or {@code null} if the entity has been deleted.
+     * @param snapshot The snapshot which was taken before the value was written.
+     */
+    synchronized void write(String id, T value, long snapshot) {
+        var changedOnDisk = changes.getOrDefault(id, 0L) > snapshot;
+
+        set(id, value);
+
+        if (!changedOnDisk) {
+            stale.remove(id);
+        }
+    }
+
+    /**
+     * Replaces the content of the cache with all entities of the repository. Entries which have been changed
+     * after the snapshot was taken are kept.
+     *
+     * @param values   The entities by id.
+     * @param snapshot The snapshot which was taken before the values were read.
+     */
+    synchronized void putAll(Map<String, T> values, long snapshot) {
+        if (snapshot < clearedAt) {
+            return;
+        }
+
+        var stamp = stamps.incrementAndGet();
+        var ids = new HashSet<>(values.keySet());
+        ids.addAll(entries.keySet());
+
+        for (var id : ids) {
+            if (changes.getOrDefault(id, 0L) > snapshot) {
+                continue;
+            }
+
+            var value = values.get(id);
+
+            if (Objects.isNull(value)) {
+                entries.remove(id);
+            } else {
+                entries.put(id, value);
+            }
+
+            changes.put(id, stamp);
+            stale.remove(id);
+        }
+
+        complete = true;
+    }
+
+    long snapshot() {
+        return stamps.get();
+    }
+
+    private void set(String id, T value) {
+        if (Objects.isNull(value)) {
+            entries.remove(id);
+        } else {
+            entries.put(id, value);
+        }
+
+        changes.put(id, stamps.incrementAndGet());
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * A change of an entity which is published by {@link FileSystemRepository#changes()}.
+ *
+ * @param <T> the type of the entity.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class EntityChange<T> {
+
+    /**
+     * The kinds of changes.
+     */
+    public enum Type {
+
+        /**
+         * The entity has been created.
+         */
+        CREATED,
+
+        /**
+         * The entity has been updated.
+         */
+        UPDATED,
+
+        /**
+         * The entity has been deleted.
+         */
+        DELETED,
+
+        /**
+         * Changes made by other processes have been lost, any entity may have changed. Consumers should re-read all
+         * entities they depend on.
+         */
+        RESET
+    }
+
+    Type type;
+
+    /**
+     * The id of the entity, {@code null} for {@link Type#RESET}.
+     */
+    String id;
+
+    /**
+     * The new state of the entity, {@code null} for {@link Type#DELETED} and {@link Type#RESET}.
+     */
+    T entity;
+
+    /**
+     * Creates a change for a created entity.
+     *
+     * @param id     The id of the entity.
+     * @param entity The entity.
+     * @param <T>    The type of the entity.
+     * @return The new instance.
+     */
+    public static <T> EntityChange<T> created(String id, T entity) {
+        return new EntityChange<>(Type.CREATED, id, entity);
+    }
+
+    /**
+     * Creates a change for an updated entity.
+     *
+     * @param id     The id of the entity.
+     * @param entity The new state of the entity.
+     * @param <T>    The type of the entity.
+     * @return The new instance.
+     */
+    public static <T> EntityChange<T> updated(String id, T entity) {
+        return new EntityChange<>(Type.UPDATED, id, entity);
+    }
+
+    /**
+     * Creates a change for a deleted entity.
+     *
+     * @param id  The id of the entity.
+     * @param <T> The type of the entity.
+     * @return The new instance.
+     */
+    public static <T> EntityChange<T> deleted(String id) {
+        return new EntityChange<>(Type.DELETED, id, null);
+    }
+
+    /**
+     * Creates a change which signals that changes have been lost.
+     *
+     * @param <T> The type of the entities.
+     * @return The new instance.
+     */
+    public static <T> EntityChange<T> reset() {
+        return new EntityChange<>(Type.RESET, null, null);
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.functions.Function1;
+import com.wellnr.commons.functions.Procedure2;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes entities to bytes and decodes them again. Codecs are required by storage engines which do not store each
+ * entity in its own file, see {@link StorageEngine#LOG_STRUCTURED}. Built-in codecs and decorators are provided by
+ * {@link EntityCodecs}.
+ *
+ * @param <T> the type of the entities.
+ */
+public interface EntityCodec<T> {
+
+    /**
+     * Creates a codec from two functions.
+     *
+     * @param encode The procedure which writes an entity to a stream.
+     * @param decode The function which reads an entity from a stream.
+     * @param <T>    The type of the entities.
+     * @return The codec.
+     */
+    static <T> EntityCodec<T> apply(
+            Procedure2<T, OutputStream> encode, Function1<InputStream, T> decode) {
+        return new EntityCodec<>() {
+            @Override
+            public void encode(T entity, OutputStream output) throws Exception {
+                encode.apply(entity, output);
+            }
+
+            @Override
+            public T decode(InputStream input) throws Exception {
+                return decode.apply(input);
+            }
+        };
+    }
+
+    /**
+     * Creates a codec from two functions, with a separate function to decode entities from memory-mapped files.
+     *
+     * @param encode       The procedure which writes an entity to a stream.
+     * @param decode       The function which reads an entity from a stream.
+     * @param decodeBuffer The function which reads an entity from a buffer, see {@link #decode(ByteBuffer)}.
+     * @param <T>          The type of the entities.
+     * @return The codec.
+     */
+    static <T> EntityCodec<T> apply(
+            Procedure2<T, OutputStream> encode,
+            Function1<InputStream, T> decode,
+            Function1<ByteBuffer, T> decodeBuffer) {
+        return new EntityCodec<>() {
+            @Override
+            public void encode(T entity, OutputStream output) throws Exception {
+                encode.apply(entity, output);
+            }
+
+            @Override
+            public T decode(InputStream input) throws Exception {
+                return decode.apply(input);
+            }
+
+            @Override
+            public T decode(ByteBuffer buffer) throws Exception {
+                return decodeBuffer.apply(buffer);
+            }
+        };
+    }
+
+    /**
+     * Returns the extension of entity files written with this codec, without leading dot. Only used by
+     * {@link StorageEngine#FILE_PER_ENTITY}.
+     *
+     * @return The file extension, {@code json} by default.
+     */
+    default String getFileExtension() {
+        return "json";
+    }
+
+    /**
+     * Writes an entity to a stream. The stream must not be closed by the codec.
+     *
+     * @param entity The entity to encode.
+     * @param output The stream to write to.
+     * @throws Exception If the entity cannot be encoded.
+     */
+    void encode(T entity, OutputStream output) throws Exception;
+
+    /**
+     * Reads an entity from a stream. The stream must not be closed by the codec.
+     *
+     * @param input The stream to read from.
+     * @return The decoded entity.
+     * @throws Exception If the entity cannot be decoded.
+     */
+    T decode(InputStream input) throws Exception;
+
+    /**
+     * Reads an entity from a buffer. The buffer is used if memory-mapped reads are enabled with
+     * {@link FileSystemRepositoryOptions#isMemoryMappedReads()}; it is read-only and may be backed by a mapped file,
+     * hence the entity should not keep references to it.
+     * <p>
+     * The default implementation copies the buffer and calls {@link #decode(InputStream)}. Codecs should override it
+     * to parse the buffer directly.
+     *
+     * @param buffer The buffer, positioned at the start of the entity.
+     * @return The decoded entity.
+     * @throws Exception If the entity cannot be decoded.
+     */
+    default T decode(ByteBuffer buffer) throws Exception {
+        var bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return decode(new ByteArrayInputStream(bytes));
+    }
+}
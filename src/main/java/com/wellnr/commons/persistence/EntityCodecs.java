@@ -0,0 +1,225 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.functions.Function1;
+import com.wellnr.commons.functions.Procedure2;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Built-in {@link EntityCodec}s and decorators.
+ */
+public final class EntityCodecs {
+
+    private EntityCodecs() {}
+
+    /**
+     * Creates a compact binary codec. Entities are written field by field with {@link DataOutput}, which avoids the
+     * parsing overhead of text formats. Files get the extension {@code bin}.
+     *
+     * @param write The procedure which writes the fields of an entity.
+     * @param read  The function which reads the fields of an entity in the same order.
+     * @param <T>   The type of the entities.
+     * @return The codec.
+     */
+    public static <T> EntityCodec<T> binary(
+            Procedure2<T, DataOutput> write, Function1<DataInput, T> read) {
+        return new EntityCodec<>() {
+            @Override
+            public String getFileExtension() {
+                return "bin";
+            }
+
+            @Override
+            public void encode(T entity, OutputStream output) throws Exception {
+                var data = new DataOutputStream(output);
+                write.apply(entity, data);
+                data.flush();
+            }
+
+            @Override
+            public T decode(InputStream input) throws Exception {
+                return read.apply(new DataInputStream(input));
+            }
+
+            @Override
+            public T decode(ByteBuffer buffer) throws Exception {
+                return decode(new ByteBufferInputStream(buffer));
+            }
+        };
+    }
+
+    /**
+     * Compresses the output of a codec with GZIP. Files get the extension of the codec with suffix {@code .gz}.
+     *
+     * @param codec The codec to compress.
+     * @param <T>   The type of the entities.
+     * @return The compressing codec.
+     */
+    public static <T> EntityCodec<T> gzip(EntityCodec<T> codec) {
+        return new EntityCodec<>() {
+            @Override
+            public String getFileExtension() {
+                return codec.getFileExtension() + ".gz";
+            }
+
+            @Override
+            public void encode(T entity, OutputStream output) throws Exception {
+                var compressed = new GZIPOutputStream(new NonClosingOutputStream(output), 8192);
+                codec.encode(entity, compressed);
+                compressed.finish();
+            }
+
+            @Override
+            public T decode(InputStream input) throws Exception {
+                return codec.decode(new GZIPInputStream(input, 8192));
+            }
+
+            @Override
+            public T decode(ByteBuffer buffer) throws Exception {
+                return decode(new ByteBufferInputStream(buffer));
+            }
+        };
+    }
+
+    /**
+     * Compresses the output of a codec with Deflate at the fastest compression level. This trades compression ratio
+     * for (de-)compression speed compared to {@link #gzip(EntityCodec)}. Files get the extension of the codec with
+     * suffix {@code .deflate}.
+     *
+     * @param codec The codec to compress.
+     * @param <T>   The type of the entities.
+     * @return The compressing codec.
+     */
+    public static <T> EntityCodec<T> deflate(EntityCodec<T> codec) {
+        return new EntityCodec<>() {
+            @Override
+            public String getFileExtension() {
+                return codec.getFileExtension() + ".deflate";
+            }
+
+            @Override
+            public void encode(T entity, OutputStream output) throws Exception {
+                var deflater = new Deflater(Deflater.BEST_SPEED);
+
+                try {
+                    var compressed =
+                            new DeflaterOutputStream(
+                                    new NonClosingOutputStream(output), deflater, 8192);
+                    codec.encode(entity, compressed);
+                    compressed.finish();
+                } finally {
+                    deflater.end();
+                }
+            }
+
+            @Override
+            public T decode(InputStream input) throws Exception {
+                var inflater = new Inflater();
+
+                try {
+                    return codec.decode(new InflaterInputStream(input, inflater, 8192));
+                } finally {
+                    inflater.end();
+                }
+            }
+
+            @Override
+            public T decode(ByteBuffer buffer) throws Exception {
+                return decode(new ByteBufferInputStream(buffer));
+            }
+        };
+    }
+
+    /**
+     * Changes the file extension of a codec.
+     *
+     * @param codec         The codec.
+     * @param fileExtension The file extension, without leading dot.
+     * @param <T>           The type of the entities.
+     * @return The codec with the new file extension.
+     */
+    public static <T> EntityCodec<T> withFileExtension(EntityCodec<T> codec, String fileExtension) {
+        return new EntityCodec<>() {
+            @Override
+            public String getFileExtension() {
+                return fileExtension;
+            }
+
+            @Override
+            public void encode(T entity, OutputStream output) throws Exception {
+                codec.encode(entity, output);
+            }
+
+            @Override
+            public T decode(InputStream input) throws Exception {
+                return codec.decode(input);
+            }
+
+            @Override
+            public T decode(ByteBuffer buffer) throws Exception {
+                return codec.decode(buffer);
+            }
+        };
+    }
+
+    /**
+     * Reads a buffer as a stream without copying it to a byte array first. The stream advances the position of the
+     * buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            Objects.checkFromIndexSize(off, len, b.length);
+
+            if (len == 0) {
+                return 0;
+            } else if (!buffer.hasRemaining()) {
+                return -1;
+            }
+
+            var count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            var count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
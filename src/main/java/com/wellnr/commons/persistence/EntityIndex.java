@@ -0,0 +1,188 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.functions.Function0;
+import com.wellnr.commons.functions.Function1;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A secondary index of a {@link FileSystemRepository} which maps keys extracted from entities to entity ids.
+ * <p>
+ * The index is built lazily with the first access. Changes made by the repository are applied directly, changes
+ * on disk reported by the file watcher are collected as dirty ids and applied before the next access.
+ *
+ * @param <T> the type of the indexed entities.
+ */
+final class EntityIndex<T> {
+
+    /**
+     * The name of the index.
+     */
+    private final String name;
+
+    /**
+     * The function to extract the key from an entity. Entities with a {@code null} key are not indexed.
+     */
+    private final Function1<T, ?> extractor;
+
+    /**
+     * Whether a key may only be assigned to one entity.
+     */
+    private final boolean unique;
+
+    private final Map<Object, Set<String>> idsByKey;
+
+    private final Map<String, Object> keysById;
+
+    /**
+     * Ids of entities which have been changed on disk since the last access.
+     */
+    private final Set<String> dirty;
+
+    private volatile boolean built;
+
+    EntityIndex(String name, Function1<T, ?> extractor, boolean unique) {
+        this.name = name;
+        this.extractor = extractor;
+        this.unique = unique;
+        this.idsByKey = new HashMap<>();
+        this.keysById = new HashMap<>();
+        this.dirty = ConcurrentHashMap.newKeySet();
+        this.built = false;
+    }
+
+    /**
+     * Returns whether the entity matches a key of the index.
+     *
+     * @param entity The entity to check.
+     * @param key    The key.
+     * @return True if the extracted key of the entity equals the key.
+     */
+    boolean matches(T entity, Object key) {
+        return Objects.equals(extractor.get(entity), key);
+    }
+
+    /**
+     * Makes the index ready for access. Builds the index if required and applies changes reported by the file
+     * watcher.
+     *
+     * @param loadAll  Loads all entities by id, used to build the index.
+     * @param loadById Loads a single entity, used to update dirty entries.
+     */
+    synchronized void refresh(
+            Function0<Map<String, T>> loadAll, Function1<String, Optional<T>> loadById) {
+        if (!built) {
+            dirty.clear();
+            idsByKey.clear();
+            keysById.clear();
+            loadAll.get().forEach(this::put);
+            built = true;
+        }
+
+        for (var id : Set.copyOf(dirty)) {
+            dirty.remove(id);
+            remove(id);
+            loadById.get(id).ifPresent(entity -> put(id, entity));
+        }
+    }
+
+    /**
+     * Returns the ids of all entities with the given key, sorted by id.
+     *
+     * @param key The key to look up.
+     * @return The ids.
+     */
+    synchronized Set<String> get(Object key) {
+        return new TreeSet<>(idsByKey.getOrDefault(key, Set.of()));
+    }
+
+    /**
+     * Marks all entries as invalid, the index will be rebuilt with the next access.
+     */
+    void invalidate() {
+        built = false;
+    }
+
+    /**
+     * Marks a single entity as changed on disk.
+     *
+     * @param id The id of the entity.
+     */
+    void invalidate(String id) {
+        dirty.add(id);
+    }
+
+    /**
+     * Checks whether an entity can be stored without violating the unique constraint of the index.
+     *
+     * @param id     The id of the entity.
+     * @param entity The entity.
+     * @throws DuplicateIndexKeyException If another entity with the same key exists.
+     */
+    synchronized void validate(String id, T entity) {
+        if (!unique) {
+            return;
+        }
+
+        var key = extractor.get(entity);
+
+        if (Objects.isNull(key)) {
+            return;
+        }
+
+        var existing = idsByKey.getOrDefault(key, Set.of());
+
+        if (!existing.isEmpty() && !existing.contains(id)) {
+            throw DuplicateIndexKeyException.apply(name, key, existing.iterator().next(), id);
+        }
+    }
+
+    /**
+     * Updates the index after an entity has been saved or deleted.
+     *
+     * @param id     The id of the entity.
+     * @param entity The new value of the entity, {@code null} if it has been deleted.
+     */
+    synchronized void update(String id, T entity) {
+        if (!built) {
+            return;
+        }
+
+        remove(id);
+
+        if (Objects.nonNull(entity)) {
+            put(id, entity);
+        }
+    }
+
+    private void put(String id, T entity) {
+        var key = extractor.get(entity);
+
+        if (Objects.nonNull(key)) {
+            keysById.put(id, key);
+            idsByKey.computeIfAbsent(key, k -> new TreeSet<>()).add(id);
+        }
+    }
+
+    private void remove(String id) {
+        var key = keysById.remove(id);
+
+        if (Objects.nonNull(key)) {
+            var ids = idsByKey.get(key);
+            ids.remove(id);
+
+            if (ids.isEmpty()) {
+                idsByKey.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.functions.Procedure0;
+import com.wellnr.commons.functions.Procedure2;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * The storage engine of a {@link FileSystemRepository}. A storage reads and writes encoded entities by id, while
+ * caching, indexing and locking are implemented by the repository on top of it.
+ * <p>
+ * Read operations skip entities which cannot be decoded with a warning, write operations throw an exception if
+ * the entity cannot be stored.
+ *
+ * @param <T> the type of the stored entities.
+ */
+interface EntityStorage<T> extends AutoCloseable {
+
+    /**
+     * Reads a single entity.
+     *
+     * @param id The id of the entity.
+     * @return The entity, or empty if it does not exist or cannot be read.
+     */
+    Optional<T> read(String id);
+
+    /**
+     * Reads all entities.
+     *
+     * @return The entities by id, sorted by id.
+     */
+    Map<String, T> readAll();
+
+    /**
+     * Reads the encoded content of an entity without decoding it.
+     *
+     * @param id The id of the entity.
+     * @return The content, or empty if the entity does not exist.
+     */
+    Optional<byte[]> readBytes(String id);
+
+    /**
+     * Lists the ids of all entities without reading them.
+     *
+     * @return The ids, sorted.
+     */
+    List<String> ids();
+
+    /**
+     * Returns a lazy stream of the ids of all entities, in no particular order. The stream must be closed.
+     *
+     * @return The stream of ids.
+     */
+    Stream<String> streamIds();
+
+    /**
+     * Returns a lazy stream of all entities. The stream must be closed.
+     *
+     * @return The stream of entities.
+     */
+    Stream<T> stream();
+
+    /**
+     * Checks whether an entity exists, without reading it.
+     *
+     * @param id The id of the entity.
+     * @return True if the entity exists.
+     */
+    boolean exists(String id);
+
+    /**
+     * Returns the current version of an entity without reading it.
+     *
+     * @param id The id of the entity.
+     * @return The version, or empty if the entity does not exist.
+     */
+    Optional<EntityVersion> version(String id);
+
+    /**
+     * Acquires a lock which serializes versioned writes of an entity across processes. Writes within the JVM must
+     * be serialized by the caller.
+     *
+     * @param id The id of the entity.
+     * @return The lock, which is released by closing it.
+     */
+    Lock lock(String id);
+
+    /**
+     * Checks whether an id can be stored. Ids must not be empty.
+     *
+     * @param id The id of the entity.
+     * @throws IllegalArgumentException If the id cannot be stored.
+     */
+    default void validateId(String id) {
+        if (Objects.isNull(id) || id.isEmpty()) {
+            throw new IllegalArgumentException("The id of an entity must not be empty.");
+        }
+    }
+
+    /**
+     * Writes an entity.
+     *
+     * @param id     The id of the entity.
+     * @param entity The entity.
+     * @param batch  If true, the write is part of a batch and the storage may defer flushing to {@link #sync()}.
+     */
+    void write(String id, T entity, boolean batch);
+
+    /**
+     * Writes the encoded content of an entity, as returned by {@link #readBytes(String)}.
+     *
+     * @param id      The id of the entity.
+     * @param content The encoded entity.
+     * @param batch   If true, the write is part of a batch and the storage may defer flushing to {@link #sync()}.
+     */
+    void writeBytes(String id, byte[] content, boolean batch);
+
+    /**
+     * Deletes an entity.
+     *
+     * @param id    The id of the entity.
+     * @param batch If true, the delete is part of a batch and the storage may defer flushing to {@link #sync()}.
+     * @return True if the entity existed.
+     */
+    boolean delete(String id, boolean batch);
+
+    /**
+     * Flushes deferred writes of a batch as required by the configured {@link WriteDurability}.
+     */
+    void sync();
+
+    /**
+     * Returns the name of the encoding of entities, e.g. the file extension of the codec. Encoded entities can only
+     * be copied between storages with the same format.
+     *
+     * @return The format.
+     */
+    String getFormat();
+
+    /**
+     * Returns the directory of the storage, which also identifies the storage in metrics.
+     *
+     * @return The directory.
+     */
+    Path getDirectory();
+
+    /**
+     * Starts to watch for changes made by other processes.
+     *
+     * @param onChange   Called with the id of an entity which has been changed and the kind of change as reported
+     *                   by the file system, which is only a hint as files may be replaced or changed repeatedly.
+     * @param onOverflow Called if changes have been lost, any entity may have changed.
+     * @return The registration of the watcher, or empty if the storage cannot be changed by other processes.
+     */
+    Optional<DirectoryWatcher.Registration> watch(
+            Procedure2<String, EntityChange.Type> onChange, Procedure0 onOverflow);
+
+    @Override
+    void close();
+
+    /**
+     * A lock acquired with {@link #lock(String)}.
+     */
+    interface Lock extends AutoCloseable {
+
+        @Override
+        void close();
+    }
+}
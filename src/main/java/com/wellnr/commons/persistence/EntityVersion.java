@@ -0,0 +1,40 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * An opaque version of a stored entity, which changes with each write. Versions are used for optimistic concurrency
+ * control with {@link FileSystemRepository#save(Object, EntityVersion)}. The value can be passed to clients, e.g.
+ * as an HTTP entity tag, and restored with {@link #apply(String)}.
+ * <p>
+ * With {@link StorageEngine#FILE_PER_ENTITY} the version is a fingerprint of the file (file key, modification time
+ * and size), hence it also detects changes made by other processes. With {@link StorageEngine#LOG_STRUCTURED}
+ * versions are assigned in memory and are only valid as long as the storage is open.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class EntityVersion {
+
+    String value;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param value The value of the version, see {@link #toString()}.
+     * @return The new instance.
+     */
+    public static EntityVersion apply(String value) {
+        return new EntityVersion(value);
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+}
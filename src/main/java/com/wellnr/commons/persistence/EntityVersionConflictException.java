@@ -0,0 +1,62 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.exceptions.DomainException;
+import java.util.Objects;
+import lombok.Getter;
+
+/**
+ * Thrown when an entity should be saved or deleted with an expected version, but the entity has been changed in the
+ * meantime.
+ */
+@Getter
+public class EntityVersionConflictException extends DomainException {
+
+    /**
+     * The id of the entity.
+     */
+    private final String id;
+
+    /**
+     * The version the caller expected, {@code null} if the entity was expected to not exist.
+     */
+    private final EntityVersion expectedVersion;
+
+    /**
+     * The current version, {@code null} if the entity does not exist.
+     */
+    private final EntityVersion actualVersion;
+
+    private EntityVersionConflictException(
+            String message, String id, EntityVersion expectedVersion, EntityVersion actualVersion) {
+        super(message);
+        this.id = id;
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param id              The id of the entity.
+     * @param expectedVersion The expected version, {@code null} if the entity was expected to not exist.
+     * @param actualVersion   The current version, {@code null} if the entity does not exist.
+     * @return The new instance.
+     */
+    public static EntityVersionConflictException apply(
+            String id, EntityVersion expectedVersion, EntityVersion actualVersion) {
+        return new EntityVersionConflictException(
+                String.format(
+                        "Entity `%s` has been changed concurrently, expected version `%s` but found"
+                                + " `%s`.",
+                        id,
+                        Objects.isNull(expectedVersion) ? "<none>" : expectedVersion,
+                        Objects.isNull(actualVersion) ? "<none>" : actualVersion),
+                id,
+                expectedVersion,
+                actualVersion);
+    }
+}
@@ -0,0 +1,807 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.Operators;
+import com.wellnr.commons.functions.Function1;
+import com.wellnr.commons.functions.Procedure0;
+import com.wellnr.commons.functions.Procedure1;
+import com.wellnr.commons.functions.Procedure2;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stores each entity in its own file {@code <id>.<entity-name>.<extension>} within a directory. Files are written to a
+ * temporary file first, which is renamed atomically, hence readers never see partially written entities.
+ * <p>
+ * With {@link FileSystemRepositoryOptions#getShardDepth()} files are placed in nested shard directories which are
+ * named by a hash of the id, e.g. {@code 3f/a2/<id>.<entity-name>.json}. Files of the flat layout are still found
+ * until they have been moved with {@link #migrateToShards(String)}.
+ *
+ * @param <T> the type of the stored entities.
+ */
+@Slf4j
+final class FileEntityStorage<T> implements EntityStorage<T> {
+
+    /**
+     * The number of regions of the lock file, ids with the same region hash block each other.
+     */
+    private static final int LOCK_REGIONS = 1024;
+
+    /**
+     * The directory where the entities are stored.
+     */
+    private final Path directory;
+
+    /**
+     * The function that reads an entity from a file.
+     */
+    private final Function1<Path, T> readValue;
+
+    /**
+     * The function that writes an entity to a file.
+     */
+    private final Procedure2<Path, T> writeValue;
+
+    /**
+     * The name of the entity type. This value is used to create file-name extensions.
+     */
+    private final String entityName;
+
+    /**
+     * The extension of entity files, e.g. {@code json}.
+     */
+    private final String fileExtension;
+
+    private final FileSystemRepositoryOptions options;
+
+    /**
+     * Shard directories which are known to exist.
+     */
+    private final Set<Path> shards;
+
+    /**
+     * Directories which must be flushed by {@link #sync()} after batched writes and deletes.
+     */
+    private final Set<Path> pendingSyncs;
+
+    /**
+     * Whether files of the flat layout may exist in a sharded storage, which must be checked on each access.
+     */
+    private volatile boolean flatFiles;
+
+    /**
+     * The channel of the lock file for versioned writes, opened with the first lock.
+     */
+    private FileChannel lockChannel;
+
+    FileEntityStorage(
+            Path directory,
+            Function1<Path, T> readValue,
+            Procedure2<Path, T> writeValue,
+            String entityName,
+            String fileExtension,
+            FileSystemRepositoryOptions options) {
+        this(directory, readValue, writeValue, entityName, fileExtension, options, true);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param prepare If false, the directory is neither created nor cleaned up from stale temporary files, e.g. to
+     *                scan an existing directory.
+     */
+    FileEntityStorage(
+            Path directory,
+            Function1<Path, T> readValue,
+            Procedure2<Path, T> writeValue,
+            String entityName,
+            String fileExtension,
+            FileSystemRepositoryOptions options,
+            boolean prepare) {
+
+        if (options.getShardDepth() < 0
+                || options.getShardWidth() < 1
+                || options.getShardDepth() * options.getShardWidth() > 8) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Invalid shard layout with depth %d and width %d, depth * width must"
+                                    + " not exceed 8.",
+                            options.getShardDepth(), options.getShardWidth()));
+        }
+
+        this.directory = directory;
+        this.readValue = readValue;
+        this.writeValue = writeValue;
+        this.entityName = entityName;
+        this.fileExtension = fileExtension;
+        this.options = options;
+        this.shards = ConcurrentHashMap.newKeySet();
+        this.pendingSyncs = ConcurrentHashMap.newKeySet();
+
+        if (prepare) {
+            Operators.suppressExceptions(
+                    () -> {
+                        Files.createDirectories(directory);
+                    });
+
+            AtomicFiles.deleteStaleTemporaryFiles(
+                    directory, options.getShardDepth() + 1, getFileSuffix());
+        }
+
+        this.flatFiles = isSharded() && !flatIds().isEmpty();
+    }
+
+    @Override
+    public Optional<T> read(String id) {
+        return locate(id).flatMap(this::readFile);
+    }
+
+    /**
+     * Reads all entities from the directory. Files which cannot be read are skipped with a warning. The files are
+     * read concurrently if configured with {@link FileSystemRepositoryOptions#getParallelism()}.
+     *
+     * @return The entities by id, sorted by id.
+     */
+    @Override
+    public Map<String, T> readAll() {
+        var ids = ids();
+        var entities =
+                RepositoryExecutors.map(
+                        ids,
+                        id -> locate(id).flatMap(this::readFile),
+                        options.getParallelism(),
+                        RepositoryExecutors.getExecutor(options));
+
+        var result = new LinkedHashMap<String, T>();
+
+        for (var i = 0; i < ids.size(); i++) {
+            var id = ids.get(i);
+            entities.get(i).ifPresent(entity -> result.put(id, entity));
+        }
+
+        return result;
+    }
+
+    @Override
+    public Optional<byte[]> readBytes(String id) {
+        return locate(id)
+                .flatMap(
+                        file -> {
+                            var content =
+                                    Operators.ignoreExceptionsToOptional(
+                                            () -> Files.readAllBytes(file),
+                                            ex ->
+                                                    log.warn(
+                                                            "An exception occurred while reading"
+                                                                    + " entity `{}`.",
+                                                            id,
+                                                            ex));
+
+                            if (options.getMetrics() != RepositoryMetrics.NONE) {
+                                content.ifPresentOrElse(
+                                        bytes ->
+                                                options.getMetrics()
+                                                        .onBytesRead(
+                                                                directory.toString(), bytes.length),
+                                        () ->
+                                                options.getMetrics()
+                                                        .onReadFailure(directory.toString(), id));
+                            }
+
+                            return content;
+                        });
+    }
+
+    @Override
+    public List<String> ids() {
+        try (var ids = streamIds()) {
+            return ids.sorted().distinct().toList();
+        }
+    }
+
+    @Override
+    public Stream<String> streamIds() {
+        // Entity files are found at the depth of the shards and, for files of the flat layout, at
+        // the top level.
+        var files =
+                Operators.suppressExceptions(
+                        () ->
+                                Files.find(
+                                        directory,
+                                        options.getShardDepth() + 1,
+                                        (file, attributes) ->
+                                                attributes.isRegularFile()
+                                                        && getEntityId(file).isPresent()));
+
+        var ids = files.map(this::getEntityId).flatMap(Optional::stream);
+        return flatFiles ? ids.distinct() : ids;
+    }
+
+    @Override
+    public Stream<T> stream() {
+        return streamIds()
+                .map(id -> locate(id).flatMap(this::readFile))
+                .filter(Optional::isPresent)
+                .map(Optional::get);
+    }
+
+    @Override
+    public boolean exists(String id) {
+        return locate(id).isPresent();
+    }
+
+    @Override
+    public Optional<EntityVersion> version(String id) {
+        var version = version(getEntityPath(id));
+
+        if (version.isEmpty() && flatFiles) {
+            version = version(getFlatPath(id));
+        }
+
+        return version;
+    }
+
+    /**
+     * Locks a region of the lock file {@code .<entity-name>.write.lock}, which is selected by the hash of the id.
+     * Processes which use versioned writes on the same directory exclude each other with these regions.
+     */
+    @Override
+    public Lock lock(String id) {
+        var position = Math.floorMod(id.hashCode(), LOCK_REGIONS);
+
+        while (true) {
+            try {
+                var lock = getLockChannel().lock(position, 1, false);
+
+                return () -> Operators.ignoreExceptions(() -> lock.release());
+            } catch (OverlappingFileLockException ex) {
+                // The region is held by another repository of the same directory within this JVM.
+                Operators.suppressExceptions(() -> Thread.sleep(1));
+            } catch (IOException ex) {
+                return Operators.wrapAndThrow(ex);
+            }
+        }
+    }
+
+    /**
+     * Checks whether an id can be stored. The id is part of the file name, hence it must not be empty, must not
+     * contain path separators and must not refer to a directory like {@code ..}.
+     *
+     * @param id The id of the entity.
+     */
+    @Override
+    public void validateId(String id) {
+        EntityStorage.super.validateId(id);
+
+        if (id.equals(".")
+                || id.equals("..")
+                || id.indexOf('/') >= 0
+                || id.indexOf('\\') >= 0
+                || id.indexOf('\0') >= 0) {
+            throw new IllegalArgumentException(
+                    String.format("The id `%s` cannot be used as a file name.", id));
+        }
+    }
+
+    @Override
+    public void write(String id, T entity, boolean batch) {
+        writeFile(id, path -> writeValue.apply(path, entity), batch);
+    }
+
+    @Override
+    public void writeBytes(String id, byte[] content, boolean batch) {
+        writeFile(id, path -> Files.write(path, content), batch);
+    }
+
+    @Override
+    public boolean delete(String id, boolean batch) {
+        var files = new ArrayList<Path>();
+        files.add(getEntityPath(id));
+
+        if (flatFiles) {
+            files.add(getFlatPath(id));
+        }
+
+        var deleted = false;
+
+        for (var file : files) {
+            if (Operators.suppressExceptions(() -> Files.deleteIfExists(file))) {
+                deleted = true;
+
+                if (options.getDurability() == WriteDurability.SYNC_FILE_AND_DIRECTORY) {
+                    pendingSyncs.add(file.getParent());
+                }
+            }
+        }
+
+        if (deleted && !batch) {
+            sync();
+        }
+
+        return deleted;
+    }
+
+    @Override
+    public void sync() {
+        for (var pending : List.copyOf(pendingSyncs)) {
+            pendingSyncs.remove(pending);
+            AtomicFiles.syncDirectory(pending);
+        }
+    }
+
+    @Override
+    public String getFormat() {
+        return fileExtension;
+    }
+
+    @Override
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Watches the directory and, for a sharded layout, all shard directories. Shard directories which are created
+     * later are watched as soon as their creation is reported.
+     */
+    @Override
+    public Optional<DirectoryWatcher.Registration> watch(
+            Procedure2<String, EntityChange.Type> onChange, Procedure0 onOverflow) {
+        var registrations = new ArrayList<DirectoryWatcher.Registration>();
+        var watched = ConcurrentHashMap.<Path>newKeySet();
+
+        watch(directory, 0, watched, registrations, onChange, onOverflow);
+
+        return Optional.of(
+                () -> {
+                    synchronized (registrations) {
+                        registrations.forEach(DirectoryWatcher.Registration::close);
+                        registrations.clear();
+                    }
+                });
+    }
+
+    /**
+     * Closes the lock file, if opened. Entity files are only opened during single operations, hence the storage can
+     * still be used afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        if (Objects.nonNull(lockChannel)) {
+            Operators.ignoreExceptions(lockChannel::close);
+            lockChannel = null;
+        }
+    }
+
+    /**
+     * Lists the ids of entity files of the flat layout within a sharded storage.
+     *
+     * @return The ids, empty if the storage is not sharded.
+     */
+    List<String> flatIds() {
+        if (!isSharded()) {
+            return List.of();
+        }
+
+        try (var list = Operators.suppressExceptions(() -> Files.list(directory))) {
+            return list.filter(Files::isRegularFile)
+                    .map(this::getEntityId)
+                    .flatMap(Optional::stream)
+                    .toList();
+        }
+    }
+
+    /**
+     * Moves the file of an entity from the flat layout to its shard directory. If the shard directory already
+     * contains a newer file, the file of the flat layout is deleted. The caller must ensure that the entity is not
+     * written concurrently.
+     *
+     * @param id The id of the entity.
+     * @return True if a file has been moved.
+     */
+    boolean migrateToShards(String id) {
+        var source = getFlatPath(id);
+        var target = getEntityPath(id);
+
+        if (!isSharded() || !Files.exists(source)) {
+            return false;
+        }
+
+        createShard(target.getParent());
+
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException ex) {
+            Operators.suppressExceptions(() -> Files.deleteIfExists(source));
+            return false;
+        } catch (NoSuchFileException ex) {
+            return false;
+        } catch (IOException ex) {
+            return Operators.wrapAndThrow(ex);
+        }
+
+        if (options.getDurability() == WriteDurability.SYNC_FILE_AND_DIRECTORY) {
+            AtomicFiles.syncDirectory(target.getParent());
+            AtomicFiles.syncDirectory(directory);
+        }
+
+        return true;
+    }
+
+    /**
+     * Completes a migration to the sharded layout, files of the flat layout are not looked up anymore if none are
+     * left.
+     */
+    void completeMigrationToShards() {
+        flatFiles = !flatIds().isEmpty();
+    }
+
+    /**
+     * Writes an entity to a temporary file next to its entity file and flushes it to disk. The file is moved to the
+     * entity file when the transaction is applied, see {@link WriteAheadLog}.
+     *
+     * @param id     The id of the entity.
+     * @param entity The entity.
+     * @return The operations which replace the entity file with the temporary file.
+     */
+    List<WriteAheadLog.Operation> stage(String id, T entity) {
+        validateId(id);
+
+        var file = getEntityPath(id);
+
+        createShard(file.getParent());
+
+        var temporary =
+                AtomicFiles.writeStaged(
+                        file, path -> writeValue.apply(path, entity), WriteDurability.SYNC_FILE);
+
+        var operations = new ArrayList<WriteAheadLog.Operation>();
+        operations.add(WriteAheadLog.Operation.move(temporary, file));
+
+        if (flatFiles) {
+            operations.add(WriteAheadLog.Operation.delete(getFlatPath(id)));
+        }
+
+        return operations;
+    }
+
+    /**
+     * Returns the operations which delete the files of an entity within a transaction.
+     *
+     * @param id The id of the entity.
+     * @return The operations.
+     */
+    List<WriteAheadLog.Operation> stageDelete(String id) {
+        var operations = new ArrayList<WriteAheadLog.Operation>();
+        operations.add(WriteAheadLog.Operation.delete(getEntityPath(id)));
+
+        if (flatFiles) {
+            operations.add(WriteAheadLog.Operation.delete(getFlatPath(id)));
+        }
+
+        return operations;
+    }
+
+    private void watch(
+            Path dir,
+            int level,
+            Set<Path> watched,
+            List<DirectoryWatcher.Registration> registrations,
+            Procedure2<String, EntityChange.Type> onChange,
+            Procedure0 onOverflow) {
+
+        if (!watched.add(dir)) {
+            return;
+        }
+
+        var registration =
+                DirectoryWatcher.getInstance()
+                        .register(
+                                dir,
+                                (kind, file) -> {
+                                    if (kind == StandardWatchEventKinds.OVERFLOW) {
+                                        onOverflow.run();
+                                    } else if (level < options.getShardDepth()
+                                            && kind == StandardWatchEventKinds.ENTRY_CREATE
+                                            && Files.isDirectory(file)) {
+                                        watch(
+                                                file,
+                                                level + 1,
+                                                watched,
+                                                registrations,
+                                                onChange,
+                                                onOverflow);
+                                    } else {
+                                        var type =
+                                                kind == StandardWatchEventKinds.ENTRY_CREATE
+                                                        ? EntityChange.Type.CREATED
+                                                        : kind
+                                                                        == StandardWatchEventKinds
+                                                                                .ENTRY_DELETE
+                                                                ? EntityChange.Type.DELETED
+                                                                : EntityChange.Type.UPDATED;
+
+                                        getEntityId(file).ifPresent(id -> onChange.run(id, type));
+                                    }
+                                });
+
+        synchronized (registrations) {
+            registrations.add(registration);
+        }
+
+        if (level < options.getShardDepth()) {
+            try (var list = Operators.suppressExceptions(() -> Files.list(dir))) {
+                list.filter(Files::isDirectory)
+                        .forEach(
+                                child ->
+                                        watch(
+                                                child,
+                                                level + 1,
+                                                watched,
+                                                registrations,
+                                                onChange,
+                                                onOverflow));
+            }
+        } else if (level > 0) {
+            // Files may have been created in a new shard directory before it has been registered.
+            try (var list = Operators.suppressExceptions(() -> Files.list(dir))) {
+                list.forEach(
+                        file ->
+                                getEntityId(file)
+                                        .ifPresent(
+                                                id -> onChange.run(id, EntityChange.Type.CREATED)));
+            }
+        }
+    }
+
+    /**
+     * Writes the file of an entity atomically.
+     *
+     * @param id    The id of the entity.
+     * @param write The procedure which writes the content to the given (temporary) path.
+     * @param batch Whether the write is part of a batch, the directory is flushed by {@link #sync()}.
+     */
+    private void writeFile(String id, Procedure1<Path> write, boolean batch) {
+        validateId(id);
+
+        var file = getEntityPath(id);
+        var durability = options.getDurability();
+
+        if (batch && durability == WriteDurability.SYNC_FILE_AND_DIRECTORY) {
+            durability = WriteDurability.SYNC_FILE;
+            pendingSyncs.add(file.getParent());
+        }
+
+        var fileDurability = durability;
+
+        createShard(file.getParent());
+        Operators.suppressExceptions(
+                () -> AtomicFiles.write(file, write, fileDurability),
+                "An exception occurred while writing entity `" + file + "`.");
+
+        if (flatFiles) {
+            // The file of the flat layout is removed after the new file has been written.
+            Operators.suppressExceptions(() -> Files.deleteIfExists(getFlatPath(id)));
+        }
+
+        if (options.getMetrics() != RepositoryMetrics.NONE) {
+            Operators.ignoreExceptionsToOptional(() -> Files.size(file))
+                    .ifPresent(
+                            size ->
+                                    options.getMetrics()
+                                            .onBytesWritten(directory.toString(), size));
+        }
+    }
+
+    private synchronized FileChannel getLockChannel() throws IOException {
+        if (Objects.isNull(lockChannel) || !lockChannel.isOpen()) {
+            lockChannel =
+                    FileChannel.open(
+                            directory.resolve("." + entityName + ".write.lock"),
+                            StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE);
+        }
+
+        return lockChannel;
+    }
+
+    private Optional<T> readFile(Path file) {
+        var entity =
+                Operators.ignoreExceptionsToOptional(
+                        () -> this.readValue.get(file),
+                        ex ->
+                                log.warn(
+                                        "An exception occurred while reading entity form file"
+                                                + " `{}`.",
+                                        file.getFileName(),
+                                        ex));
+
+        var metrics = options.getMetrics();
+
+        if (metrics == RepositoryMetrics.NONE) {
+            return entity;
+        }
+
+        // The reader function reads the file, hence its size is only determined for metrics.
+        if (entity.isPresent()) {
+            Operators.ignoreExceptionsToOptional(() -> Files.size(file))
+                    .ifPresent(size -> metrics.onBytesRead(directory.toString(), size));
+        } else {
+            getEntityId(file).ifPresent(id -> metrics.onReadFailure(directory.toString(), id));
+        }
+
+        return entity;
+    }
+
+    /**
+     * Returns the version of an entity file. The version consists of the file key, the modification time and the size
+     * of the file. If the file system does not provide file keys, the modification time may not change if a file is
+     * replaced quickly, hence the checksum of the content is used instead.
+     *
+     * @param file The entity file.
+     * @return The version, or empty if the file does not exist.
+     */
+    private Optional<EntityVersion> version(Path file) {
+        try {
+            var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            var key = attributes.fileKey();
+
+            if (Objects.isNull(key)) {
+                var crc = new CRC32C();
+
+                try (var input = Files.newInputStream(file)) {
+                    var buffer = new byte[8192];
+
+                    for (var count = input.read(buffer); count >= 0; count = input.read(buffer)) {
+                        crc.update(buffer, 0, count);
+                    }
+                }
+
+                key = String.format("%08x", crc.getValue());
+            }
+
+            return Optional.of(
+                    EntityVersion.apply(
+                            String.format(
+                                    "%s-%d-%d",
+                                    key,
+                                    attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+                                    attributes.size())));
+        } catch (NoSuchFileException ex) {
+            return Optional.empty();
+        } catch (IOException ex) {
+            return Operators.wrapAndThrow(ex);
+        }
+    }
+
+    /**
+     * Creates a shard directory if it does not exist yet. New directories are flushed to disk if required by the
+     * durability setting.
+     *
+     * @param shard The shard directory.
+     */
+    private void createShard(Path shard) {
+        if (!isSharded() || shards.contains(shard)) {
+            return;
+        }
+
+        if (!Files.isDirectory(shard)) {
+            Operators.suppressExceptions(() -> Files.createDirectories(shard));
+
+            if (options.getDurability() == WriteDurability.SYNC_FILE_AND_DIRECTORY) {
+                for (var dir = shard; !dir.equals(directory); dir = dir.getParent()) {
+                    AtomicFiles.syncDirectory(dir.getParent());
+                }
+            }
+        }
+
+        shards.add(shard);
+    }
+
+    /**
+     * Returns the path of the existing file of an entity.
+     *
+     * @param id The id of the entity.
+     * @return The file, or empty if the entity does not exist.
+     */
+    private Optional<Path> locate(String id) {
+        var file = getEntityPath(id);
+
+        if (Files.exists(file)) {
+            return Optional.of(file);
+        }
+
+        if (flatFiles) {
+            var flat = getFlatPath(id);
+
+            if (Files.exists(flat)) {
+                return Optional.of(flat);
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /**
+     * Returns the id of the entity stored in a file.
+     *
+     * @param file The path of the file.
+     * @return The id, or empty if the file does not contain an entity of this storage.
+     */
+    private Optional<String> getEntityId(Path file) {
+        var fileName = file.getFileName().toString();
+        var suffix = getFileSuffix();
+
+        if (AtomicFiles.isTemporary(file)) {
+            return Optional.empty();
+        }
+
+        if (fileName.endsWith(suffix) && fileName.length() > suffix.length()) {
+            return Optional.of(fileName.substring(0, fileName.length() - suffix.length()));
+        } else {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the path of an entity file within its shard directory, or within the directory if the storage is not
+     * sharded.
+     *
+     * @param id The id of the entity.
+     * @return The path.
+     */
+    private Path getEntityPath(String id) {
+        if (!isSharded()) {
+            return getFlatPath(id);
+        }
+
+        var crc = new CRC32C();
+        crc.update(id.getBytes(StandardCharsets.UTF_8));
+
+        var hash = String.format("%08x", crc.getValue());
+        var width = options.getShardWidth();
+        var path = directory;
+
+        for (var level = 0; level < options.getShardDepth(); level++) {
+            path = path.resolve(hash.substring(level * width, (level + 1) * width));
+        }
+
+        return path.resolve(id + getFileSuffix());
+    }
+
+    private Path getFlatPath(String id) {
+        return directory.resolve(id + getFileSuffix());
+    }
+
+    private String getFileSuffix() {
+        return "." + entityName + "." + fileExtension;
+    }
+
+    private boolean isSharded() {
+        return options.getShardDepth() > 0;
+    }
+}
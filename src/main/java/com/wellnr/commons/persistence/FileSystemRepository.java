@@ -6,23 +6,65 @@ package com.wellnr.commons.persistence;
 
 import com.wellnr.commons.Operators;
 import com.wellnr.commons.StringOperators;
+import com.wellnr.commons.functions.Function0;
 import com.wellnr.commons.functions.Function1;
 import com.wellnr.commons.functions.Procedure2;
+import com.wellnr.commons.markup.Result;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
 
 /**
  * A generic file system repository implementation.
+ * <p>
+ * By default each entity is stored in its own file {@code <id>.<entity-name>.json} within the working directory,
+ * repositories created with an {@link EntityCodec} use the file extension of the codec.
+ * Files are written to a temporary file first, which is renamed atomically, hence readers never see partially
+ * written entities. Other storage engines can be selected with {@link FileSystemRepositoryOptions#getStorageEngine()},
+ * see {@link StorageEngine}.
+ * <p>
+ * The repository should be closed when it is not used anymore to release the file watcher of the cache and the
+ * secondary indexes (if used).
  *
  * @param <T> the type of the entity managed by the repository.
  */
 @Slf4j
-public class FileSystemRepository<T> {
+public class FileSystemRepository<T> implements AutoCloseable {
+
+    /**
+     * The number of entities which are written concurrently by {@link #importSnapshot(InputStream)}.
+     */
+    private static final int SNAPSHOT_BATCH_SIZE = 256;
+
+    /**
+     * The number of attempts of {@link #findVersionedById(String)} to read an entity which is replaced concurrently.
+     */
+    private static final int VERSIONED_READ_ATTEMPTS = 10;
 
     /**
      * The function that returns the id of an entity.
@@ -30,24 +72,74 @@ public class FileSystemRepository<T> {
     private final Function1<T, String> getId;
 
     /**
-     * The working directory where the entities are stored.
+     * The storage engine which reads and writes the entities.
+     */
+    private final EntityStorage<T> storage;
+
+    /**
+     * Optional settings of the repository.
+     */
+    private final FileSystemRepositoryOptions options;
+
+    /**
+     * The in-memory cache of decoded entities. {@code null} if caching is disabled or the repository is closed.
+     */
+    private volatile EntityCache<T> cache;
+
+    /**
+     * Locks to serialize concurrent writes of the same entity.
+     */
+    private final StripedLocks locks;
+
+    /**
+     * Secondary indexes by name.
+     */
+    private final Map<String, EntityIndex<T>> indexes;
+
+    /**
+     * The registration of the file watcher which invalidates the cache and the indexes. {@code null} if neither
+     * caching nor indexes are used.
+     */
+    private DirectoryWatcher.Registration watcher;
+
+    private boolean closed;
+
+    /**
+     * Publishes changes to the subscribers of {@link #changes()}, {@code null} until the first subscription.
+     */
+    private volatile SubmissionPublisher<EntityChange<T>> publisher;
+
+    /**
+     * The version of each entity at its last published change, empty if the entity has been deleted. Used to skip
+     * file watcher events which are caused by the repository itself.
+     */
+    private final Map<String, Optional<EntityVersion>> publishedVersions;
+
+    /**
+     * The version of each entity after its last write by the repository, empty if the repository deleted the entity.
+     * Used to skip file watcher events which are caused by the repository itself.
+     */
+    private final Map<String, Optional<EntityVersion>> writtenVersions;
+
+    /**
+     * Buffers saved entities if write-behind is enabled, {@code null} otherwise.
      */
-    private final Path workingDirectory;
+    private final WriteBehindBuffer<T> writeBehind;
 
     /**
-     * The function that reads an entity from a file.
+     * The non-blocking facade, {@code null} until it is requested with {@link #async()}.
      */
-    private final Function1<Path, T> readValue;
+    private AsyncFileSystemRepository<T> async;
 
     /**
-     * The function that writes an entity to a file.
+     * Receives the metrics of the repository, see {@link FileSystemRepositoryOptions#getMetrics()}.
      */
-    private final Procedure2<Path, T> writeValue;
+    private final RepositoryMetrics metrics;
 
     /**
-     * The name of the entity type. This value is used to create file-name extensions.
+     * The name of the repository within metrics, the directory of the storage.
      */
-    private final String entityName;
+    private final String name;
 
     /**
      * Creates a new file system repository.
@@ -58,6 +150,7 @@ public class FileSystemRepository<T> {
      * @param writeValue       The function that writes an entity to a file.
      * @param entityName       The name of the entity type. This value is used to create file-name extensions.
      * @param directoryName    The name of the directory where the entities are stored (within working directory).
+     * @param options          Optional settings of the repository.
      */
     public FileSystemRepository(
             Function1<T, String> getId,
@@ -65,18 +158,134 @@ public class FileSystemRepository<T> {
             Function1<Path, T> readValue,
             Procedure2<Path, T> writeValue,
             String entityName,
-            String directoryName) {
+            String directoryName,
+            FileSystemRepositoryOptions options) {
+        this(
+                getId,
+                createStorage(
+                        workingDirectory.resolve(directoryName.toLowerCase()),
+                        readValue,
+                        writeValue,
+                        entityName.toLowerCase(),
+                        options),
+                options);
+    }
+
+    /**
+     * Creates a new file system repository which encodes entities with a codec. Codecs are supported by all
+     * storage engines.
+     *
+     * @param getId            the function that returns the id of an entity.
+     * @param workingDirectory The working directory where the entities are stored.
+     * @param codec            The codec to encode and decode entities.
+     * @param entityName       The name of the entity type. This value is used to create file-name extensions.
+     * @param directoryName    The name of the directory where the entities are stored (within working directory).
+     * @param options          Optional settings of the repository.
+     */
+    public FileSystemRepository(
+            Function1<T, String> getId,
+            Path workingDirectory,
+            EntityCodec<T> codec,
+            String entityName,
+            String directoryName,
+            FileSystemRepositoryOptions options) {
+        this(
+                getId,
+                createStorage(
+                        workingDirectory.resolve(directoryName.toLowerCase()),
+                        codec,
+                        entityName.toLowerCase(),
+                        options),
+                options);
+    }
+
+    /**
+     * Creates a new file system repository which encodes entities with a codec.
+     *
+     * @param getId            the function that returns the id of an entity.
+     * @param workingDirectory The working directory where the entities are stored.
+     * @param codec            The codec to encode and decode entities.
+     * @param entityClass      The type of the entity managed by the repository.
+     * @param options          Optional settings of the repository.
+     */
+    public FileSystemRepository(
+            Function1<T, String> getId,
+            Path workingDirectory,
+            EntityCodec<T> codec,
+            Class<T> entityClass,
+            FileSystemRepositoryOptions options) {
+        this(
+                getId,
+                workingDirectory,
+                codec,
+                StringOperators.camelCaseToKebabCase(entityClass.getSimpleName()),
+                StringOperators.pluralize(
+                        StringOperators.camelCaseToKebabCase(entityClass.getSimpleName())),
+                options);
+    }
+
+    private FileSystemRepository(
+            Function1<T, String> getId,
+            EntityStorage<T> storage,
+            FileSystemRepositoryOptions options) {
 
         this.getId = getId;
-        this.workingDirectory = workingDirectory.resolve(directoryName.toLowerCase());
-        this.readValue = readValue;
-        this.writeValue = writeValue;
-        this.entityName = entityName.toLowerCase();
+        this.storage = storage;
+        this.options = options;
+        this.metrics = options.getMetrics();
+        this.name = storage.getDirectory().toString();
+        this.closed = false;
+        this.publisher = null;
+        this.publishedVersions = new ConcurrentHashMap<>();
+        this.writtenVersions = new ConcurrentHashMap<>();
 
-        Operators.suppressExceptions(
-                () -> {
-                    Files.createDirectories(this.workingDirectory);
-                });
+        this.locks = new StripedLocks(64);
+        this.indexes = new ConcurrentHashMap<>();
+
+        if (Objects.nonNull(options.getWriteBehindDelay())) {
+            this.writeBehind =
+                    new WriteBehindBuffer<>(
+                            options.getWriteBehindDelay(),
+                            options.getWriteBehindBatchSize(),
+                            RepositoryExecutors.getExecutor(options),
+                            this::writeBuffered);
+        } else {
+            this.writeBehind = null;
+        }
+
+        if (options.isCacheEnabled()) {
+            this.cache = new EntityCache<>();
+            this.watch();
+        } else {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Creates a new file system repository.
+     *
+     * @param getId            the function that returns the id of an entity.
+     * @param workingDirectory The working directory where the entities are stored.
+     * @param readValue        The function that reads an entity from a file.
+     * @param writeValue       The function that writes an entity to a file.
+     * @param entityName       The name of the entity type. This value is used to create file-name extensions.
+     * @param directoryName    The name of the directory where the entities are stored (within working directory).
+     */
+    public FileSystemRepository(
+            Function1<T, String> getId,
+            Path workingDirectory,
+            Function1<Path, T> readValue,
+            Procedure2<Path, T> writeValue,
+            String entityName,
+            String directoryName) {
+        this(
+                getId,
+                workingDirectory,
+                readValue,
+                writeValue,
+                entityName,
+                directoryName,
+                FileSystemRepositoryOptions.apply());
     }
 
     /**
@@ -103,6 +312,34 @@ public class FileSystemRepository<T> {
                 StringOperators.pluralize(entityName.toLowerCase()));
     }
 
+    /**
+     * Creates a new file system repository.
+     *
+     * @param getId            the function that returns the id of an entity.
+     * @param workingDirectory The working directory where the entities are stored.
+     * @param readValue        The function that reads an entity from a file.
+     * @param writeValue       The function that writes an entity to a file.
+     * @param entityClass      The type of the entity managed by the repository.
+     * @param options          Optional settings of the repository.
+     */
+    public FileSystemRepository(
+            Function1<T, String> getId,
+            Path workingDirectory,
+            Function1<Path, T> readValue,
+            Procedure2<Path, T> writeValue,
+            Class<T> entityClass,
+            FileSystemRepositoryOptions options) {
+        this(
+                getId,
+                workingDirectory,
+                readValue,
+                writeValue,
+                StringOperators.camelCaseToKebabCase(entityClass.getSimpleName()),
+                StringOperators.pluralize(
+                        StringOperators.camelCaseToKebabCase(entityClass.getSimpleName())),
+                options);
+    }
+
     /**
      * Creates a new file system repository.
      *
@@ -125,68 +362,1596 @@ public class FileSystemRepository<T> {
                 StringOperators.camelCaseToKebabCase(entityClass.getSimpleName()));
     }
 
-    public void delete(String id) {
-        var file = getEntityPath(id);
+    /**
+     * Rewrites the entity files of a repository directory from one codec to another, e.g. from JSON to a compressed
+     * binary format. The entities are read with {@code source} from {@code <id>.<entity-name>.<extension>} files and
+     * written with {@code target} to the storage engine selected by {@code options}. Source files are deleted after
+     * they have been rewritten, unless target files replace them in place because both codecs use the same file
+     * extension.
+     * <p>
+     * Repositories of the directory must not be used while the migration runs.
+     *
+     * @param workingDirectory The working directory where the entities are stored.
+     * @param entityName       The name of the entity type.
+     * @param directoryName    The name of the directory where the entities are stored (within working directory).
+     * @param source           The codec the entities are currently stored with.
+     * @param target           The codec to store the entities with.
+     * @param options          The options of the target repository.
+     * @param <T>              The type of the entities.
+     * @return The result for each entity id, failed if the entity could not be read or written.
+     */
+    public static <T> List<Result<String>> migrate(
+            Path workingDirectory,
+            String entityName,
+            String directoryName,
+            EntityCodec<T> source,
+            EntityCodec<T> target,
+            FileSystemRepositoryOptions options) {
+
+        var directory = workingDirectory.resolve(directoryName.toLowerCase());
+        var sourceStorage =
+                createFileStorage(
+                        directory,
+                        source,
+                        entityName.toLowerCase(),
+                        options.withMemoryMappedReads(false));
+
+        var inPlace =
+                options.getStorageEngine() == StorageEngine.FILE_PER_ENTITY
+                        && source.getFileExtension().equals(target.getFileExtension());
+
+        try (var targetStorage =
+                createStorage(directory, target, entityName.toLowerCase(), options)) {
+            var results =
+                    RepositoryExecutors.map(
+                            sourceStorage.ids(),
+                            id -> {
+                                try {
+                                    var entity =
+                                            sourceStorage
+                                                    .read(id)
+                                                    .orElseThrow(
+                                                            () ->
+                                                                    new IllegalStateException(
+                                                                            String.format(
+                                                                                    "Entity `%s`"
+                                                                                        + " cannot"
+                                                                                        + " be read.",
+                                                                                    id)));
+
+                                    targetStorage.write(id, entity, true);
+
+                                    if (!inPlace) {
+                                        sourceStorage.delete(id, true);
+                                    }
+
+                                    return Result.success(id);
+                                } catch (Exception ex) {
+                                    return Result.<String>failure(ex);
+                                }
+                            },
+                            options.getParallelism(),
+                            RepositoryExecutors.getExecutor(options));
+
+            targetStorage.sync();
+            sourceStorage.sync();
+
+            return List.copyOf(results);
+        }
+    }
+
+    /**
+     * Returns a non-blocking facade of the repository, which runs the operations on the executor of the repository.
+     *
+     * @return The facade.
+     */
+    public synchronized AsyncFileSystemRepository<T> async() {
+        if (Objects.isNull(async)) {
+            async =
+                    new AsyncFileSystemRepository<>(
+                            this,
+                            new BoundedExecutor(
+                                    RepositoryExecutors.getExecutor(options),
+                                    options.getMaxInFlightAsyncOperations()));
+        }
 
-        if (Files.exists(file)) {
-            Operators.suppressExceptions(() -> Files.delete(file));
+        return async;
+    }
+
+    /**
+     * Writes buffered entities, releases the file watcher, the cache and all secondary indexes. With
+     * {@link StorageEngine#FILE_PER_ENTITY} the repository can still be used afterwards, but all operations will
+     * access the file system directly. Other storage engines release their files and must not be used anymore.
+     * <p>
+     * If buffered entities could not be written since the last {@link #flush()}, the failure is thrown after all
+     * resources have been released.
+     */
+    @Override
+    public synchronized void close() {
+        var failure =
+                Objects.nonNull(writeBehind)
+                        ? writeBehind.flush().handle((result, ex) -> ex).join()
+                        : null;
+
+        this.cache = null;
+        this.indexes.clear();
+
+        if (Objects.nonNull(watcher)) {
+            watcher.close();
+            watcher = null;
+        }
+
+        writtenVersions.clear();
+
+        if (Objects.nonNull(publisher)) {
+            publisher.close();
+            publisher = null;
+            publishedVersions.clear();
+        }
+
+        if (!closed) {
+            closed = true;
+            storage.close();
+        }
+
+        if (Objects.nonNull(failure)) {
+            Operators.wrapAndThrow(failure);
         }
     }
 
+    /**
+     * Returns a publisher of all changes of entities. Changes are published for saves and deletes of this
+     * repository and, with {@link StorageEngine#FILE_PER_ENTITY}, for changes made by other processes which are
+     * detected by a file watcher.
+     * <p>
+     * Changes are delivered asynchronously on the executor of the repository, each subscriber receives them in order
+     * and as requested. If a subscriber falls more than {@link FileSystemRepositoryOptions#getChangeFeedBufferSize()}
+     * changes behind, further changes are dropped for this subscriber with a warning. Subscriptions are completed
+     * when the repository is closed.
+     *
+     * @return The publisher of changes.
+     */
+    public Flow.Publisher<EntityChange<T>> changes() {
+        return subscriber -> {
+            getPublisher().subscribe(subscriber);
+            watch();
+        };
+    }
+
+    /**
+     * Counts the entities without reading them.
+     *
+     * @return The number of entities.
+     */
+    public long count() {
+        return measure(
+                RepositoryMetrics.Operation.COUNT,
+                () -> {
+                    awaitWriteBehind();
+
+                    try (var ids = storage.streamIds()) {
+                        return ids.count();
+                    }
+                });
+    }
+
+    public void delete(String id) {
+        measure(
+                RepositoryMetrics.Operation.DELETE,
+                () -> {
+                    deleteEntity(id, false);
+                    return null;
+                });
+    }
+
     public void delete(T entity) {
         delete(getId.get(entity));
     }
 
+    /**
+     * Deletes an entity if it has not been changed since it has been read with the expected version.
+     *
+     * @param id              The id of the entity.
+     * @param expectedVersion The version the entity has been read with, see {@link #findVersionedById(String)}.
+     * @throws EntityVersionConflictException If the entity has been changed or deleted in the meantime.
+     */
+    public void delete(String id, EntityVersion expectedVersion) {
+        measure(
+                RepositoryMetrics.Operation.DELETE,
+                () ->
+                        withVersionCheck(
+                                id,
+                                expectedVersion,
+                                () -> {
+                                    deleteEntity(id, false);
+                                    return null;
+                                }));
+    }
+
+    /**
+     * Deletes multiple entities. The files are deleted concurrently as configured with
+     * {@link FileSystemRepositoryOptions#getParallelism()} and the directory is flushed only once for the whole
+     * batch (if required by {@link FileSystemRepositoryOptions#getDurability()}). A failure of one entity does not
+     * abort the batch.
+     *
+     * @param ids The ids of the entities to delete.
+     * @return The result for each id, in the order of the ids. Successful results contain the id.
+     */
+    public List<Result<String>> deleteAll(Collection<String> ids) {
+        return measure(
+                RepositoryMetrics.Operation.DELETE_ALL,
+                () -> {
+                    var results =
+                            RepositoryExecutors.map(
+                                    List.copyOf(ids),
+                                    id -> {
+                                        try {
+                                            deleteEntity(id, true);
+                                            return Result.success(id);
+                                        } catch (Exception ex) {
+                                            return Result.<String>failure(ex);
+                                        }
+                                    },
+                                    options.getParallelism(),
+                                    RepositoryExecutors.getExecutor(options));
+
+                    storage.sync();
+                    return List.copyOf(results);
+                });
+    }
+
     public List<T> findAll() {
-        return Operators.suppressExceptions(() -> Files.list(workingDirectory))
-                .filter(p -> p.getFileName().toString().endsWith("." + entityName + ".json"))
-                .map(
-                        p ->
-                                Operators.ignoreExceptionsToOptional(
-                                        () -> this.readValue.get(p),
-                                        ex ->
-                                                log.warn(
-                                                        "An exception occurred while reading entity"
-                                                                + " form file `{}`.",
-                                                        p.getFileName(),
-                                                        ex)))
-                .filter(Optional::isPresent)
-                .map(Optional::get)
-                .toList();
+        return measure(
+                RepositoryMetrics.Operation.FIND_ALL,
+                () -> {
+                    awaitWriteBehind();
+                    return readAll();
+                });
+    }
+
+    /**
+     * Returns a lazy stream of all entities. Entities are read one by one while the stream is consumed, hence
+     * short-circuiting operations like {@code findFirst} or {@code limit} only read as many entities as required.
+     * If the cache is enabled, the entities are served from memory.
+     * <p>
+     * The stream may hold an open directory handle and must be closed, e.g. with a try-with-resources block.
+     *
+     * @return The stream of entities.
+     */
+    public Stream<T> findAllAsStream() {
+        awaitWriteBehind();
+
+        if (Objects.nonNull(cache)) {
+            return readAll().stream();
+        }
+
+        return storage.stream();
     }
 
     public List<T> findAllBy(Predicate<T> predicate) {
-        return findAllByAsStream(predicate).toList();
+        return measure(
+                RepositoryMetrics.Operation.FIND_ALL_BY,
+                () -> {
+                    try (var entities = findAllByAsStream(predicate)) {
+                        return entities.toList();
+                    }
+                });
     }
 
+    /**
+     * Returns a lazy stream of all entities which match the predicate, see {@link #findAllAsStream()}. The stream
+     * must be closed.
+     *
+     * @param predicate The predicate to filter the entities.
+     * @return The stream of matching entities.
+     */
     public Stream<T> findAllByAsStream(Predicate<T> predicate) {
-        return findAll().stream().filter(predicate);
+        if (metrics == RepositoryMetrics.NONE) {
+            return findAllAsStream().filter(predicate);
+        }
+
+        var scanned = new LongAdder();
+        var matched = new LongAdder();
+
+        return findAllAsStream()
+                .peek(entity -> scanned.increment())
+                .filter(predicate)
+                .peek(entity -> matched.increment())
+                .onClose(() -> metrics.onScan(name, scanned.sum(), matched.sum()));
     }
 
     public Optional<T> findOneBy(Predicate<T> predicate) {
-        return findAllByAsStream(predicate).findFirst();
+        return measure(
+                RepositoryMetrics.Operation.FIND_ALL_BY,
+                () -> {
+                    try (var entities = findAllByAsStream(predicate)) {
+                        return entities.findFirst();
+                    }
+                });
     }
 
-    public Optional<T> findById(String id) {
-        var file = getEntityPath(id);
+    /**
+     * Returns a page of the entities which match a predicate, ordered by id. Only the ids of the entities are
+     * listed, entities are read one by one until the page is complete, hence the latency depends on the page size
+     * and the selectivity of the predicate rather than on the number of entities.
+     * <p>
+     * The cursor refers to the last id of the previous page, hence pages are stable if entities are saved or
+     * deleted between requests.
+     *
+     * @param predicate The predicate to filter the entities.
+     * @param cursor    The cursor returned with the previous page, {@code null} for the first page.
+     * @param limit     The maximum number of entities of the page.
+     * @return The page.
+     */
+    public Page<T> findPage(Predicate<T> predicate, String cursor, int limit) {
+        checkLimit(limit);
+        return measure(
+                RepositoryMetrics.Operation.FIND_PAGE, () -> readPage(predicate, cursor, limit));
+    }
 
-        if (Files.exists(file)) {
-            return Operators.ignoreExceptionsToOptional(
-                    () -> this.readValue.get(file),
-                    ex -> log.warn("An exception occurred while reading entity `{}`.", id, ex));
-        } else {
-            return Optional.empty();
+    /**
+     * Returns a page of the entities which match a predicate, ordered by a comparator and by id for equal
+     * entities. As the order depends on the content of the entities, all matching entities are read (from the
+     * cache, if enabled) and only the requested page is kept.
+     * <p>
+     * The cursor refers to the position and id of the last entity of the previous page. If that entity is still
+     * part of the result, the next page starts right after it, otherwise it starts at the previous position.
+     *
+     * @param predicate  The predicate to filter the entities.
+     * @param comparator The order of the entities.
+     * @param cursor     The cursor returned with the previous page, {@code null} for the first page.
+     * @param limit      The maximum number of entities of the page.
+     * @return The page.
+     */
+    public Page<T> findPage(
+            Predicate<T> predicate, Comparator<T> comparator, String cursor, int limit) {
+        checkLimit(limit);
+        return measure(
+                RepositoryMetrics.Operation.FIND_PAGE,
+                () -> readPage(predicate, comparator, cursor, limit));
+    }
+
+    /**
+     * Returns all entities which are assigned to a key within a secondary index.
+     *
+     * @param name The name of the index, see {@link #registerIndex(String, Function1, boolean)}.
+     * @param key  The key to look up.
+     * @return The matching entities, sorted by id.
+     */
+    public List<T> findByIndex(String name, Object key) {
+        var index = indexes.get(name);
+
+        if (Objects.isNull(index)) {
+            throw new IllegalArgumentException(String.format("Unknown index `%s`.", name));
         }
+
+        return measure(
+                RepositoryMetrics.Operation.FIND_BY_INDEX,
+                () -> {
+                    awaitWriteBehind();
+                    index.refresh(this::findAllById, this::readById);
+
+                    return index.get(key).stream()
+                            .map(this::readById)
+                            .flatMap(Optional::stream)
+                            .filter(entity -> index.matches(entity, key))
+                            .toList();
+                });
     }
 
-    public void save(T entity) {
-        var file = getEntityPath(getId.get(entity));
-        Operators.suppressExceptions(
-                () -> writeValue.run(file, entity),
-                "An exception occurred while writing entity `" + file + "`.");
+    /**
+     * Returns the first entity which is assigned to a key within a secondary index.
+     *
+     * @param name The name of the index, see {@link #registerIndex(String, Function1, boolean)}.
+     * @param key  The key to look up.
+     * @return The entity with the lowest id, if any.
+     */
+    public Optional<T> findOneByIndex(String name, Object key) {
+        return findByIndex(name, key).stream().findFirst();
+    }
+
+    /**
+     * Checks whether an entity exists without reading it.
+     *
+     * @param id The id of the entity.
+     * @return True if the entity exists.
+     */
+    public boolean existsById(String id) {
+        return measure(RepositoryMetrics.Operation.EXISTS_BY_ID, () -> checkExists(id));
+    }
+
+    public Optional<T> findById(String id) {
+        return measure(RepositoryMetrics.Operation.FIND_BY_ID, () -> readById(id));
     }
 
-    private Path getEntityPath(String id) {
-        return workingDirectory.resolve(id + "." + entityName + ".json");
+    /**
+     * Reads an entity together with its current version, which can be passed to
+     * {@link #save(Object, EntityVersion)} to detect concurrent changes. The entity is always read from the storage,
+     * not from the cache.
+     *
+     * @param id The id of the entity.
+     * @return The entity and its version, or empty if the entity does not exist.
+     * @throws EntityVersionConflictException If the entity has been replaced during each attempt to read it.
+     */
+    public Optional<VersionedEntity<T>> findVersionedById(String id) {
+        awaitWriteBehind();
+
+        // The entity may be replaced between reading version and content, hence both are read until
+        // they match. Attempts back off exponentially to let concurrent writers finish.
+        Optional<EntityVersion> version = Optional.empty();
+        Optional<EntityVersion> current = Optional.empty();
+
+        for (var attempt = 0; attempt < VERSIONED_READ_ATTEMPTS; attempt++) {
+            if (attempt > 0) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(50L << attempt));
+            }
+
+            version = storage.version(id);
+
+            if (version.isEmpty()) {
+                return Optional.empty();
+            }
+
+            var entity = storage.read(id);
+            current = storage.version(id);
+
+            if (version.equals(current)) {
+                // An unchanged file which cannot be read is treated like a missing entity, as in
+                // findById.
+                var read = version.get();
+                return entity.map(e -> VersionedEntity.apply(e, read));
+            }
+        }
+
+        throw EntityVersionConflictException.apply(id, version.orElse(null), current.orElse(null));
+    }
+
+    /**
+     * Lists the ids of all entities without reading them.
+     *
+     * @return The ids, sorted.
+     */
+    public List<String> listIds() {
+        return measure(
+                RepositoryMetrics.Operation.LIST_IDS,
+                () -> {
+                    awaitWriteBehind();
+                    return storage.ids();
+                });
+    }
+
+    /**
+     * Returns a lazy stream of the ids of all entities without reading them, in no particular order. Unlike
+     * {@link #listIds()} the ids are not collected and sorted, which keeps the memory usage constant for huge
+     * directories. The stream must be closed.
+     *
+     * @return The stream of ids.
+     */
+    public Stream<String> listIdsAsStream() {
+        awaitWriteBehind();
+        return storage.streamIds();
+    }
+
+    /**
+     * Moves entity files of the flat layout into their shard directories, if the repository is configured with
+     * {@link FileSystemRepositoryOptions#getShardDepth()}. Files are moved one by one while the repository stays
+     * usable, entities which have not been moved yet are still found in the flat layout. Moved files keep their
+     * version.
+     *
+     * @return The number of moved files.
+     */
+    public long migrateToShardedLayout() {
+        if (!(storage instanceof FileEntityStorage<T> files)) {
+            return 0;
+        }
+
+        awaitWriteBehind();
+
+        var moved = 0L;
+
+        for (var id : files.flatIds()) {
+            var lock = locks.get(id);
+
+            lock.lock();
+
+            try {
+                if (files.migrateToShards(id)) {
+                    moved++;
+                }
+
+                if (hasSubscribers()) {
+                    // The file watcher reports the move, which is not a change of the entity.
+                    publishedVersions.put(id, storage.version(id));
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        files.completeMigrationToShards();
+        return moved;
+    }
+
+    /**
+     * Writes all entities to a single stream, see {@link #exportSnapshot(OutputStream, boolean)}.
+     *
+     * @param output The stream to write to, which is not closed.
+     * @return The number of exported entities.
+     */
+    public long exportSnapshot(OutputStream output) {
+        return exportSnapshot(output, false);
+    }
+
+    /**
+     * Writes all entities to a single stream, which can be restored with {@link #importSnapshot(InputStream)}. The
+     * entities are copied as stored without decoding them. Entities which are changed during the export may or may
+     * not be included with their latest state.
+     *
+     * @param output   The stream to write to, which is not closed.
+     * @param compress Whether the snapshot is compressed with GZIP.
+     * @return The number of exported entities.
+     */
+    public long exportSnapshot(OutputStream output, boolean compress) {
+        awaitWriteBehind();
+        return Snapshots.write(storage, output, compress);
+    }
+
+    /**
+     * Restores the entities of a snapshot created by {@link #exportSnapshot(OutputStream, boolean)}. Entities of the
+     * snapshot replace existing entities with the same id, other entities are kept. The entities are written in
+     * concurrent batches and the storage is flushed once at the end. Cache and indexes are reset and subscribers
+     * receive a {@link EntityChange.Type#RESET}.
+     *
+     * @param input The stream to read from, which is not closed.
+     * @return The number of imported entities.
+     * @throws IllegalArgumentException If the stream is not a snapshot, if it is incomplete, corrupted or contains
+     *     invalid ids, or if the snapshot has been exported from a repository with another format. No entity is
+     *     changed in these cases.
+     */
+    public long importSnapshot(InputStream input) {
+        awaitWriteBehind();
+
+        try {
+            return Snapshots.read(
+                    input,
+                    storage,
+                    SNAPSHOT_BATCH_SIZE,
+                    entries ->
+                            RepositoryExecutors.map(
+                                    entries,
+                                    entry -> {
+                                        writeSnapshotEntry(entry);
+                                        return entry.id();
+                                    },
+                                    options.getParallelism(),
+                                    RepositoryExecutors.getExecutor(options)));
+        } finally {
+            storage.sync();
+            onOverflow();
+        }
+    }
+
+    /**
+     * Registers a secondary index which can be queried with {@link #findByIndex(String, Object)}. The index is
+     * built lazily with its first use and kept up to date by {@link #save(Object)}, {@link #delete(String)} and
+     * a file watcher for changes made by other processes. An existing index with the same name is replaced.
+     *
+     * @param name      The name of the index.
+     * @param extractor The function to extract the key from an entity. Entities with key {@code null} are not
+     *                  indexed. Keys must implement {@code equals} and {@code hashCode}.
+     * @param unique    If true, {@link #save(Object)} rejects entities with a key which is already assigned to
+     *                  another entity by throwing a {@link DuplicateIndexKeyException}.
+     */
+    public void registerIndex(String name, Function1<T, ?> extractor, boolean unique) {
+        indexes.put(name, new EntityIndex<>(name, extractor, unique));
+        watch();
+    }
+
+    /**
+     * Registers a secondary index which may assign multiple entities to the same key.
+     *
+     * @param name      The name of the index.
+     * @param extractor The function to extract the key from an entity.
+     */
+    public void registerIndex(String name, Function1<T, ?> extractor) {
+        registerIndex(name, extractor, false);
+    }
+
+    /**
+     * Saves an entity. If write-behind is enabled with {@link FileSystemRepositoryOptions#getWriteBehindDelay()}, the
+     * entity is only buffered and written later, see {@link #flush()}. Buffered entities are returned by
+     * {@link #findById(String)}, other queries write the buffered entities before they read the storage. Unique
+     * index keys are checked before the entity is buffered.
+     *
+     * @param entity The entity to save.
+     * @throws DuplicateIndexKeyException If a unique index key of the entity is assigned to another entity.
+     */
+    public void save(T entity) {
+        measure(
+                RepositoryMetrics.Operation.SAVE,
+                () -> {
+                    if (Objects.nonNull(writeBehind)) {
+                        bufferEntity(entity);
+                    } else {
+                        saveEntity(entity, false);
+                    }
+
+                    return null;
+                });
+    }
+
+    /**
+     * Starts writing the entities which are buffered by write-behind. Failures of single entities are logged and
+     * reported by the future, the entities are not retried. Failures of batches which have been written in the
+     * background are reported by the next flush.
+     *
+     * @return A future which completes when all entities which have been saved before have been written, or
+     *     exceptionally if one of them could not be written since the last flush.
+     */
+    public CompletableFuture<Void> flush() {
+        if (Objects.isNull(writeBehind)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return writeBehind.flush();
+    }
+
+    /**
+     * Saves an entity if it has not been changed since it has been read with the expected version (optimistic
+     * locking). Versioned saves of the same entity are serialized across threads and across processes which share
+     * the directory, hence conflicting saves fail fast instead of overwriting each other. Plain
+     * {@link #save(Object)} calls are not checked.
+     *
+     * @param entity          The entity to save.
+     * @param expectedVersion The version the entity has been read with, see {@link #findVersionedById(String)}, or
+     *                        {@code null} if the entity must not exist yet.
+     * @return The new version of the entity.
+     * @throws EntityVersionConflictException If the entity has been changed, created or deleted in the meantime.
+     */
+    public EntityVersion save(T entity, EntityVersion expectedVersion) {
+        var id = getId.get(entity);
+
+        return measure(
+                RepositoryMetrics.Operation.SAVE,
+                () ->
+                        withVersionCheck(
+                                id,
+                                expectedVersion,
+                                () -> {
+                                    saveEntity(entity, false);
+                                    return storage.version(id).orElseThrow();
+                                }));
+    }
+
+    /**
+     * Saves multiple entities. The files are written concurrently as configured with
+     * {@link FileSystemRepositoryOptions#getParallelism()} and the directory is flushed only once for the whole
+     * batch (if required by {@link FileSystemRepositoryOptions#getDurability()}). A failure of one entity does not
+     * abort the batch.
+     *
+     * @param entities The entities to save.
+     * @return The result for each entity, in the order of the entities.
+     */
+    public List<Result<T>> saveAll(Collection<T> entities) {
+        return measure(
+                RepositoryMetrics.Operation.SAVE_ALL,
+                () -> {
+                    var results =
+                            RepositoryExecutors.map(
+                                    List.copyOf(entities),
+                                    entity -> {
+                                        try {
+                                            saveEntity(entity, true);
+                                            return Result.success(entity);
+                                        } catch (Exception ex) {
+                                            return Result.<T>failure(ex);
+                                        }
+                                    },
+                                    options.getParallelism(),
+                                    RepositoryExecutors.getExecutor(options));
+
+                    storage.sync();
+                    return List.copyOf(results);
+                });
+    }
+
+    /**
+     * Creates the storage engine for read and write functions, which are only supported by
+     * {@link StorageEngine#FILE_PER_ENTITY}.
+     */
+    private static <T> EntityStorage<T> createStorage(
+            Path directory,
+            Function1<Path, T> readValue,
+            Procedure2<Path, T> writeValue,
+            String entityName,
+            FileSystemRepositoryOptions options) {
+
+        if (options.getStorageEngine() != StorageEngine.FILE_PER_ENTITY) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "The storage engine %s requires an EntityCodec.",
+                            options.getStorageEngine()));
+        }
+
+        return new FileEntityStorage<>(
+                directory, readValue, writeValue, entityName, "json", options);
+    }
+
+    /**
+     * Opens a repository which only reads the entities of an existing directory, e.g. to scan a workspace which is
+     * not in use. Unlike the constructors, the directory is neither created nor cleaned up from stale temporary
+     * files, the cache and write-behind are disabled.
+     *
+     * @param getId         the function that returns the id of an entity.
+     * @param directory     The directory where the entities are stored.
+     * @param readValue     The function that reads an entity from a file.
+     * @param codec         The codec to decode entities, {@code null} if entities are read with {@code readValue}.
+     * @param entityName    The name of the entity type.
+     * @param options       Optional settings of the repository.
+     * @return The repository, or empty if the directory does not exist.
+     */
+    static <T> Optional<FileSystemRepository<T>> openForScan(
+            Function1<T, String> getId,
+            Path directory,
+            Function1<Path, T> readValue,
+            EntityCodec<T> codec,
+            String entityName,
+            FileSystemRepositoryOptions options) {
+
+        if (!Files.isDirectory(directory)) {
+            return Optional.empty();
+        }
+
+        var scanOptions = options.withCacheEnabled(false).withWriteBehindDelay(null);
+        EntityStorage<T> storage;
+
+        if (Objects.isNull(codec)) {
+            storage =
+                    new FileEntityStorage<>(
+                            directory,
+                            readValue,
+                            (file, entity) -> {
+                                throw new UnsupportedOperationException();
+                            },
+                            entityName.toLowerCase(),
+                            "json",
+                            scanOptions,
+                            false);
+        } else if (options.getStorageEngine() == StorageEngine.FILE_PER_ENTITY) {
+            storage =
+                    new FileEntityStorage<>(
+                            directory,
+                            createReader(codec, scanOptions),
+                            (file, entity) -> {
+                                throw new UnsupportedOperationException();
+                            },
+                            entityName.toLowerCase(),
+                            codec.getFileExtension(),
+                            scanOptions,
+                            false);
+        } else {
+            storage = createStorage(directory, codec, entityName.toLowerCase(), scanOptions);
+        }
+
+        return Optional.of(new FileSystemRepository<>(getId, storage, scanOptions));
+    }
+
+    /**
+     * Creates the storage engine which is selected by the options for a codec.
+     */
+    private static <T> EntityStorage<T> createStorage(
+            Path directory,
+            EntityCodec<T> codec,
+            String entityName,
+            FileSystemRepositoryOptions options) {
+
+        return switch (options.getStorageEngine()) {
+            case FILE_PER_ENTITY -> createFileStorage(directory, codec, entityName, options);
+            case LOG_STRUCTURED -> LogStructuredEntityStorage.open(
+                    directory, codec, entityName, options);
+        };
+    }
+
+    /**
+     * Creates a file-per-entity storage which reads and writes files with a codec.
+     */
+    private static <T> FileEntityStorage<T> createFileStorage(
+            Path directory,
+            EntityCodec<T> codec,
+            String entityName,
+            FileSystemRepositoryOptions options) {
+
+        return new FileEntityStorage<>(
+                directory,
+                createReader(codec, options),
+                (file, entity) -> {
+                    try (var output = new BufferedOutputStream(Files.newOutputStream(file))) {
+                        codec.encode(entity, output);
+                    }
+                },
+                entityName,
+                codec.getFileExtension(),
+                options);
+    }
+
+    /**
+     * Creates the function which reads entity files with a codec. If enabled, files are memory-mapped and decoded
+     * from the mapped buffer.
+     */
+    private static <T> Function1<Path, T> createReader(
+            EntityCodec<T> codec, FileSystemRepositoryOptions options) {
+
+        Function1<Path, T> readStream =
+                file -> {
+                    try (var input = new BufferedInputStream(Files.newInputStream(file))) {
+                        return codec.decode(input);
+                    }
+                };
+
+        if (!options.isMemoryMappedReads()) {
+            return readStream;
+        }
+
+        var mappedFiles = new MappedFileCache(options.getMaxMappedFiles());
+
+        return file -> {
+            var buffer = mappedFiles.map(file, options.getMemoryMapThreshold());
+
+            if (buffer.isPresent()) {
+                return codec.decode(buffer.get());
+            } else {
+                return readStream.apply(file);
+            }
+        };
+    }
+
+    /**
+     * Deletes an entity and updates cache and indexes.
+     *
+     * @param id    The id of the entity.
+     * @param batch Whether the delete is part of a batch, which is flushed by {@link EntityStorage#sync()}.
+     */
+    private void deleteEntity(String id, boolean batch) {
+        var lock = locks.get(id);
+
+        lock.lock();
+
+        try {
+            if (Objects.nonNull(writeBehind)) {
+                writeBehind.discard(id);
+            }
+
+            var cache = this.cache;
+            var snapshot = Objects.nonNull(cache) ? cache.snapshot() : 0L;
+            var deleted = storage.delete(id, batch);
+
+            if (Objects.nonNull(cache)) {
+                cache.write(id, null, snapshot);
+            }
+
+            indexes.values().forEach(index -> index.update(id, null));
+            recordWrite(id);
+
+            if (deleted && hasSubscribers()) {
+                publish(EntityChange.deleted(id), Optional.empty());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes an entity and updates cache and indexes.
+     *
+     * @param entity The entity to write.
+     * @param batch  Whether the write is part of a batch, which is flushed by {@link EntityStorage#sync()}.
+     */
+    private void saveEntity(T entity, boolean batch) {
+        var id = getId.get(entity);
+        var lock = locks.get(id);
+
+        lock.lock();
+
+        try {
+            if (Objects.nonNull(writeBehind)) {
+                writeBehind.discard(id);
+            }
+
+            writeEntity(id, entity, batch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Buffers an entity for write-behind. The unique keys of the entity are claimed before it is buffered, hence
+     * duplicates are rejected by the save instead of failing the batch later.
+     *
+     * @param entity The entity to buffer.
+     */
+    private void bufferEntity(T entity) {
+        var id = getId.get(entity);
+        var lock = locks.get(id);
+
+        lock.lock();
+
+        try {
+            updateIndexes(id, entity);
+            writeBehind.put(id, entity);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes a batch of entities which have been buffered by write-behind. Entities which have been deleted or saved
+     * directly in the meantime are skipped. The directory is flushed once for the whole batch.
+     *
+     * @param entities The entities by id.
+     * @throws Exception The first failure, if an entity could not be written.
+     */
+    private void writeBuffered(Map<String, T> entities) throws Exception {
+        var results =
+                RepositoryExecutors.map(
+                        List.copyOf(entities.entrySet()),
+                        entry -> {
+                            var lock = locks.get(entry.getKey());
+
+                            lock.lock();
+
+                            try {
+                                if (writeBehind.isInFlight(entry.getKey(), entry.getValue())) {
+                                    writeEntity(entry.getKey(), entry.getValue(), true);
+                                }
+
+                                return Result.success(entry.getKey());
+                            } catch (Exception ex) {
+                                log.warn(
+                                        "An exception occurred while writing buffered entity `{}`.",
+                                        entry.getKey(),
+                                        ex);
+                                return Result.<String>failure(ex);
+                            } finally {
+                                lock.unlock();
+                            }
+                        },
+                        options.getParallelism(),
+                        RepositoryExecutors.getExecutor(options));
+
+        storage.sync();
+
+        for (var result : results) {
+            if (result.isFailure()) {
+                throw result.getException();
+            }
+        }
+    }
+
+    /**
+     * Writes an entity and updates cache, indexes and subscribers. The caller must hold the lock of the entity.
+     *
+     * @param id     The id of the entity.
+     * @param entity The entity to write.
+     * @param batch  Whether the write is part of a batch, which is flushed by {@link EntityStorage#sync()}.
+     */
+    private void writeEntity(String id, T entity, boolean batch) {
+        var cache = this.cache;
+        var snapshot = Objects.nonNull(cache) ? cache.snapshot() : 0L;
+
+        updateIndexes(id, entity);
+
+        var existed = hasSubscribers() && storage.exists(id);
+
+        try {
+            storage.write(id, entity, batch);
+        } catch (RuntimeException ex) {
+            indexes.values().forEach(index -> index.invalidate(id));
+            throw ex;
+        }
+
+        if (Objects.nonNull(cache)) {
+            cache.write(id, entity, snapshot);
+        }
+
+        recordWrite(id);
+
+        if (hasSubscribers()) {
+            publish(
+                    existed ? EntityChange.updated(id, entity) : EntityChange.created(id, entity),
+                    storage.version(id));
+        }
+    }
+
+    /**
+     * Writes an entity of a snapshot as stored, without decoding it. Cache and indexes are reset after the import.
+     *
+     * @param entry The entity.
+     */
+    private void writeSnapshotEntry(Snapshots.Entry entry) {
+        var lock = locks.get(entry.id());
+
+        lock.lock();
+
+        try {
+            storage.writeBytes(entry.id(), entry.content(), true);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Reads an entity from the write-behind buffer, the cache or the storage.
+     *
+     * @param id The id of the entity.
+     * @return The entity, or empty if it does not exist.
+     */
+    private Optional<T> readById(String id) {
+        if (Objects.nonNull(writeBehind)) {
+            var buffered = writeBehind.get(id);
+
+            if (buffered.isPresent()) {
+                return buffered;
+            }
+        }
+
+        var cache = this.cache;
+
+        if (Objects.isNull(cache)) {
+            return storage.read(id);
+        }
+
+        var cached = cache.get(id);
+        metrics.onCacheLookup(name, cached.isPresent());
+
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        var snapshot = cache.snapshot();
+        var entity = storage.read(id);
+
+        if (entity.isPresent() || !storage.exists(id)) {
+            cache.put(id, entity.orElse(null), snapshot);
+        }
+
+        return entity;
+    }
+
+    /**
+     * Checks whether an entity exists in the write-behind buffer, the cache or the storage.
+     *
+     * @param id The id of the entity.
+     * @return True if the entity exists.
+     */
+    private boolean checkExists(String id) {
+        if (Objects.nonNull(writeBehind) && writeBehind.get(id).isPresent()) {
+            return true;
+        }
+
+        var cache = this.cache;
+
+        if (Objects.nonNull(cache)) {
+            var cached = cache.get(id);
+            metrics.onCacheLookup(name, cached.isPresent());
+
+            if (cached.isPresent()) {
+                return cached.get().isPresent();
+            }
+        }
+
+        return storage.exists(id);
+    }
+
+    /**
+     * Reads all entities from the cache or the storage, without waiting for buffered entities.
+     *
+     * @return The entities, sorted by id.
+     */
+    private List<T> readAll() {
+        var cache = this.cache;
+
+        if (Objects.isNull(cache)) {
+            return List.copyOf(storage.readAll().values());
+        }
+
+        cache.getStaleIds().forEach(this::readById);
+
+        return cache.getAll()
+                .orElseGet(
+                        () -> {
+                            var snapshot = cache.snapshot();
+                            var entities = storage.readAll();
+                            cache.putAll(entities, snapshot);
+                            return List.copyOf(entities.values());
+                        });
+    }
+
+    /**
+     * Loads all entities, used to build secondary indexes.
+     *
+     * @return The entities by id.
+     */
+    private Map<String, T> findAllById() {
+        var result = new LinkedHashMap<String, T>();
+        readAll().forEach(entity -> result.put(getId.get(entity), entity));
+
+        // Buffered entities have already claimed their keys, see bufferEntity.
+        if (Objects.nonNull(writeBehind)) {
+            result.putAll(writeBehind.entries());
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads a page of the entities which match a predicate, ordered by id, see
+     * {@link #findPage(Predicate, String, int)}.
+     */
+    private Page<T> readPage(Predicate<T> predicate, String cursor, int limit) {
+        awaitWriteBehind();
+
+        var ids = storage.ids();
+        var start = 0;
+
+        if (Objects.nonNull(cursor)) {
+            var position = Collections.binarySearch(ids, decodeCursor(cursor));
+            start = position >= 0 ? position + 1 : -position - 1;
+        }
+
+        var items = new ArrayList<T>();
+        var scanned = 0L;
+
+        try {
+            for (var i = start; i < ids.size(); i++) {
+                var entity = readById(ids.get(i));
+                scanned++;
+
+                if (entity.isPresent() && predicate.test(entity.get())) {
+                    items.add(entity.get());
+
+                    if (items.size() == limit) {
+                        var next = i + 1 < ids.size() ? encodeCursor(ids.get(i)) : null;
+                        return Page.apply(items, next);
+                    }
+                }
+            }
+
+            return Page.apply(items, null);
+        } finally {
+            metrics.onScan(name, scanned, items.size());
+        }
+    }
+
+    /**
+     * Reads a page of the entities which match a predicate, ordered by a comparator, see
+     * {@link #findPage(Predicate, Comparator, String, int)}.
+     */
+    private Page<T> readPage(
+            Predicate<T> predicate, Comparator<T> comparator, String cursor, int limit) {
+        awaitWriteBehind();
+
+        // `readAll` returns the entities ordered by id, the stable sort keeps this order for equal
+        // entities.
+        var all = readAll();
+        var entities = all.stream().filter(predicate).sorted(comparator).toList();
+        var start = 0;
+
+        metrics.onScan(name, all.size(), entities.size());
+
+        if (Objects.nonNull(cursor)) {
+            var position = decodeCursor(cursor).split(":", 2);
+
+            if (position.length != 2 || !position[0].matches("\\d+")) {
+                throw new IllegalArgumentException(String.format("Invalid cursor `%s`.", cursor));
+            }
+
+            var offset = Integer.parseInt(position[0]);
+            var lastId = position[1];
+
+            // If the last entity of the previous page has been removed, its successor moved to
+            // its position.
+            start = Math.min(offset, entities.size());
+
+            for (var i = 0; i < entities.size(); i++) {
+                if (getId.get(entities.get(i)).equals(lastId)) {
+                    start = i + 1;
+                    break;
+                }
+            }
+        }
+
+        var end = Math.min(start + limit, entities.size());
+        var items = entities.subList(start, end);
+        var next =
+                end < entities.size()
+                        ? encodeCursor((end - 1) + ":" + getId.get(entities.get(end - 1)))
+                        : null;
+
+        return Page.apply(items, next);
+    }
+
+    private static void checkLimit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException(
+                    String.format("The limit of a page must be positive, but was %d.", limit));
+        }
+    }
+
+    private static String encodeCursor(String position) {
+        return Base64.getUrlEncoder()
+                .withoutPadding()
+                .encodeToString(position.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodeCursor(String cursor) {
+        try {
+            return new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalArgumentException(String.format("Invalid cursor `%s`.", cursor), ex);
+        }
+    }
+
+    /**
+     * Runs an operation and reports its duration to the metrics, if enabled.
+     *
+     * @param operation The measured operation.
+     * @param run       The operation.
+     * @param <R>       The type of the result.
+     * @return The result of the operation.
+     */
+    private <R> R measure(RepositoryMetrics.Operation operation, Function0<R> run) {
+        if (metrics == RepositoryMetrics.NONE) {
+            return run.get();
+        }
+
+        var start = System.nanoTime();
+
+        try {
+            return run.get();
+        } finally {
+            metrics.onOperation(name, operation, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Runs a write if the current version of an entity matches the expected version. The entity is locked within
+     * the JVM and, if supported by the storage, across processes while the version is checked and the write runs.
+     *
+     * @param id              The id of the entity.
+     * @param expectedVersion The expected version, {@code null} if the entity must not exist.
+     * @param write           The write.
+     * @param <R>             The result type of the write.
+     * @return The result of the write.
+     */
+    private <R> R withVersionCheck(String id, EntityVersion expectedVersion, Function0<R> write) {
+        awaitWriteBehind();
+
+        var lock = locks.get(id);
+
+        lock.lock();
+
+        try {
+            var storageLock = storage.lock(id);
+
+            try {
+                var actualVersion = storage.version(id).orElse(null);
+
+                if (!Objects.equals(expectedVersion, actualVersion)) {
+                    throw EntityVersionConflictException.apply(id, expectedVersion, actualVersion);
+                }
+
+                return write.get();
+            } finally {
+                storageLock.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Invalidates an entity which has been changed by another process and publishes the change. Cache and indexes
+     * are kept if the entity has not been changed since the repository has written it, as the event has been caused
+     * by the repository itself.
+     *
+     * @param id   The id of the entity.
+     * @param hint The kind of change as reported by the file system.
+     */
+    private void onChanged(String id, EntityChange.Type hint) {
+        var lock = locks.get(id);
+
+        lock.lock();
+
+        try {
+            var version = storage.version(id);
+
+            if (!version.equals(writtenVersions.get(id))) {
+                var cache = this.cache;
+
+                if (Objects.nonNull(cache)) {
+                    cache.invalidate(id);
+                }
+
+                indexes.values().forEach(index -> index.invalidate(id));
+            }
+
+            if (!hasSubscribers()) {
+                return;
+            }
+
+            var published = publishedVersions.get(id);
+
+            if (version.equals(published)) {
+                // The event has been caused by a change which has already been published.
+                return;
+            }
+
+            if (version.isEmpty()) {
+                publish(EntityChange.deleted(id), version);
+            } else {
+                var created =
+                        Objects.isNull(published)
+                                ? hint == EntityChange.Type.CREATED
+                                : published.isEmpty();
+
+                var entity = storage.read(id);
+
+                if (entity.isPresent()) {
+                    publish(
+                            created
+                                    ? EntityChange.created(id, entity.get())
+                                    : EntityChange.updated(id, entity.get()),
+                            version);
+                } else if (created) {
+                    // A new file may not be complete yet, it is published as created with the next
+                    // event.
+                    publishedVersions.put(id, Optional.empty());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Invalidates all entities if changes made by other processes have been lost.
+     */
+    private void onOverflow() {
+        var cache = this.cache;
+
+        if (Objects.nonNull(cache)) {
+            cache.invalidateAll();
+        }
+
+        writtenVersions.clear();
+        indexes.values().forEach(EntityIndex::invalidate);
+
+        if (hasSubscribers()) {
+            publishedVersions.clear();
+            publish(EntityChange.reset(), Optional.empty());
+        }
+    }
+
+    /**
+     * Stages a write of a transaction: The entity is written to a temporary file and the unique constraints of the
+     * indexes are checked. The entity file is not changed until {@link #applyStaged(String, Object, List)} is called.
+     *
+     * @param id     The id of the entity.
+     * @param entity The entity to save, {@code null} to delete the entity.
+     * @return The file operations which apply the write.
+     */
+    List<WriteAheadLog.Operation> stage(String id, T entity) {
+        if (!(storage instanceof FileEntityStorage<T> files)) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Transactions require the storage engine %s.",
+                            StorageEngine.FILE_PER_ENTITY));
+        }
+
+        if (Objects.isNull(entity)) {
+            return files.stageDelete(id);
+        }
+
+        if (!indexes.isEmpty()) {
+            indexes.values().forEach(index -> index.refresh(this::findAllById, this::readById));
+
+            synchronized (indexes) {
+                indexes.values().forEach(index -> index.validate(id, entity));
+            }
+        }
+
+        return files.stage(id, entity);
+    }
+
+    /**
+     * Checks the unique constraints of the indexes for a staged write again when the transaction is committed, and
+     * assigns the entity to its new keys, hence concurrent saves cannot claim them until the write is applied. The
+     * caller must hold the lock of the entity, see {@link #getLock(String)}.
+     *
+     * @param id     The id of the entity.
+     * @param entity The entity to save, {@code null} if the entity is deleted.
+     * @throws DuplicateIndexKeyException If a unique key has been assigned to another entity since staging.
+     */
+    void validateStaged(String id, T entity) {
+        if (Objects.nonNull(entity)) {
+            updateIndexes(id, entity);
+        }
+    }
+
+    /**
+     * Reverts {@link #validateStaged(String, Object)} if the transaction is not committed. The keys of the entity
+     * are read from the storage again with the next access of the indexes.
+     *
+     * @param id The id of the entity.
+     */
+    void discardStaged(String id) {
+        indexes.values().forEach(index -> index.invalidate(id));
+    }
+
+    /**
+     * Applies a staged write of a transaction and updates cache, indexes and subscribers. The caller must hold the
+     * lock of the entity, see {@link #getLock(String)}. Directories are not flushed.
+     *
+     * @param id         The id of the entity.
+     * @param entity     The saved entity, {@code null} if the entity is deleted.
+     * @param operations The file operations returned by {@link #stage(String, Object)}.
+     */
+    void applyStaged(String id, T entity, List<WriteAheadLog.Operation> operations) {
+        if (Objects.nonNull(writeBehind)) {
+            writeBehind.discard(id);
+        }
+
+        var cache = this.cache;
+        var snapshot = Objects.nonNull(cache) ? cache.snapshot() : 0L;
+        var existed = hasSubscribers() && storage.exists(id);
+
+        operations.forEach(WriteAheadLog::apply);
+
+        if (Objects.nonNull(cache)) {
+            cache.write(id, entity, snapshot);
+        }
+
+        indexes.values().forEach(index -> index.update(id, entity));
+        recordWrite(id);
+
+        if (!hasSubscribers()) {
+            return;
+        }
+
+        if (Objects.isNull(entity)) {
+            if (existed) {
+                publish(EntityChange.deleted(id), Optional.empty());
+            }
+        } else {
+            publish(
+                    existed ? EntityChange.updated(id, entity) : EntityChange.created(id, entity),
+                    storage.version(id));
+        }
+    }
+
+    /**
+     * Returns the lock which serializes writes of an entity within this repository.
+     *
+     * @param id The id of the entity.
+     * @return The lock.
+     */
+    ReentrantLock getLock(String id) {
+        return locks.get(id);
+    }
+
+    /**
+     * Returns the id of an entity.
+     *
+     * @param entity The entity.
+     * @return The id.
+     */
+    String getEntityId(T entity) {
+        return getId.get(entity);
+    }
+
+    /**
+     * Checks whether the change feed has subscribers. Repositories with subscribers are not evicted by
+     * {@link WorkspaceEntityFileSystemRepository}.
+     *
+     * @return True if changes are published.
+     */
+    boolean hasSubscribers() {
+        var publisher = this.publisher;
+        return Objects.nonNull(publisher) && publisher.hasSubscribers();
+    }
+
+    private synchronized SubmissionPublisher<EntityChange<T>> getPublisher() {
+        if (Objects.isNull(publisher)) {
+            publisher =
+                    new SubmissionPublisher<>(
+                            RepositoryExecutors.getExecutor(options),
+                            options.getChangeFeedBufferSize());
+        }
+
+        return publisher;
+    }
+
+    /**
+     * Publishes a change to all subscribers without blocking, changes are dropped for subscribers which are too
+     * far behind.
+     *
+     * @param change  The change.
+     * @param version The version of the entity after the change.
+     */
+    private void publish(EntityChange<T> change, Optional<EntityVersion> version) {
+        var publisher = this.publisher;
+
+        if (Objects.isNull(publisher)) {
+            return;
+        }
+
+        if (Objects.nonNull(change.getId())) {
+            publishedVersions.put(change.getId(), version);
+        }
+
+        publisher.offer(
+                change,
+                (subscriber, dropped) -> {
+                    log.warn(
+                            "Dropped change of entity `{}` for a subscriber which is too far"
+                                    + " behind.",
+                            dropped.getId());
+                    return false;
+                });
+    }
+
+    /**
+     * Validates the unique constraints of all indexes and assigns the entity to its new keys. The indexes are
+     * updated before the entity is written, hence concurrent saves cannot claim the same unique key.
+     * <p>
+     * The indexes are refreshed before the keys are checked and claimed, hence entities are read from the storage
+     * without holding the lock which serializes the checks of all entities.
+     *
+     * @param id     The id of the entity.
+     * @param entity The entity which will be saved.
+     */
+    private void updateIndexes(String id, T entity) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+
+        indexes.values().forEach(index -> index.refresh(this::findAllById, this::readById));
+
+        synchronized (indexes) {
+            indexes.values().forEach(index -> index.validate(id, entity));
+            indexes.values().forEach(index -> index.update(id, entity));
+        }
+    }
+
+    /**
+     * Records the version of an entity after the repository has written or deleted it, if the file watcher
+     * invalidates the cache or the indexes, see {@link #onChanged(String, EntityChange.Type)}. The caller must hold
+     * the lock of the entity.
+     *
+     * @param id The id of the entity.
+     */
+    private void recordWrite(String id) {
+        if (Objects.nonNull(cache) || !indexes.isEmpty()) {
+            writtenVersions.put(id, storage.version(id));
+        }
+    }
+
+    /**
+     * Waits until the entities which are buffered by write-behind have been written, hence the storage reflects all
+     * previous saves. Failures have already been logged and are reported by {@link #flush()} or {@link #close()}.
+     */
+    private void awaitWriteBehind() {
+        if (Objects.nonNull(writeBehind) && !writeBehind.isEmpty()) {
+            writeBehind.flushSilently().handle((result, ex) -> null).join();
+        }
+    }
+
+    /**
+     * Starts the file watcher if it is not running yet and the storage can be changed by other processes.
+     */
+    private synchronized void watch() {
+        if (Objects.isNull(watcher)) {
+            watcher = storage.watch(this::onChanged, this::onOverflow).orElse(null);
+        }
     }
 }
@@ -0,0 +1,162 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+import lombok.With;
+
+/**
+ * Optional settings for {@link FileSystemRepository} and {@link WorkspaceEntityFileSystemRepository}. Start with
+ * the defaults returned by {@link #apply()} and adjust single values with the {@code with...} methods.
+ */
+@Value
+@With
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class FileSystemRepositoryOptions {
+
+    /**
+     * If enabled, decoded entities are kept in memory. The cache is updated by {@code save} and {@code delete} and
+     * invalidated by a file watcher when files are changed by other processes.
+     */
+    boolean cacheEnabled;
+
+    /**
+     * The maximum number of files which are read or written concurrently by bulk operations like {@code findAll},
+     * {@code saveAll} and {@code deleteAll}. A value of {@code 1} processes the files sequentially on the calling
+     * thread.
+     */
+    int parallelism;
+
+    /**
+     * The executor which runs concurrent file operations. If {@code null}, a shared executor is used which runs
+     * the operations on virtual threads if the JDK supports them.
+     */
+    Executor executor;
+
+    /**
+     * Defines whether written files are flushed to disk before {@code save} and {@code delete} return.
+     */
+    WriteDurability durability;
+
+    /**
+     * The maximum number of workspace repositories which are kept open by {@link WorkspaceEntityFileSystemRepository}.
+     * If more workspaces are accessed, the least recently used repositories which are not in use are closed, which
+     * releases their caches and indexes. Defaults to 256.
+     */
+    int maxOpenWorkspaces;
+
+    /**
+     * Repositories of {@link WorkspaceEntityFileSystemRepository} which have not been accessed for this duration
+     * are closed. If {@code null}, repositories are not closed because of inactivity.
+     */
+    Duration workspaceIdleTimeout;
+
+    /**
+     * The storage engine of the repository. Engines other than {@link StorageEngine#FILE_PER_ENTITY} require the
+     * repository to be created with an {@link EntityCodec}.
+     */
+    StorageEngine storageEngine;
+
+    /**
+     * The size in bytes after which {@link StorageEngine#LOG_STRUCTURED} starts a new segment file.
+     */
+    long maxSegmentSize;
+
+    /**
+     * If enabled, entity files are memory-mapped and decoded with {@link EntityCodec#decode(java.nio.ByteBuffer)}
+     * instead of being copied through a stream. Only applies to repositories created with an {@link EntityCodec}
+     * and {@link StorageEngine#FILE_PER_ENTITY}.
+     */
+    boolean memoryMappedReads;
+
+    /**
+     * Files smaller than this size in bytes are read with a stream even if memory-mapped reads are enabled, as
+     * mapping small files costs more than copying them.
+     */
+    long memoryMapThreshold;
+
+    /**
+     * The maximum number of mappings of unchanged files which are kept for reuse.
+     */
+    int maxMappedFiles;
+
+    /**
+     * The maximum number of changes which are buffered per subscriber of {@link FileSystemRepository#changes()}.
+     * Changes are dropped for subscribers which fall further behind.
+     */
+    int changeFeedBufferSize;
+
+    /**
+     * The number of nested shard directories of the file-per-entity engine. Each entity file is stored in directories
+     * named by a hash of its id, which keeps directories small for many entities. {@code 0} stores all files in a
+     * single directory. Existing files can be moved with {@link FileSystemRepository#migrateToShardedLayout()}.
+     */
+    int shardDepth;
+
+    /**
+     * The number of hex digits of the hash per shard directory, each level fans out to {@code 16^shardWidth}
+     * directories. {@code shardDepth * shardWidth} must not exceed 8.
+     */
+    int shardWidth;
+
+    /**
+     * Enables write-behind if set: {@link FileSystemRepository#save(Object)} only buffers the entity and returns,
+     * buffered entities are written in batches on the executor at the latest after this delay. Repeated saves of the
+     * same entity within the delay are written once. {@code null} writes each entity on the calling thread.
+     */
+    Duration writeBehindDelay;
+
+    /**
+     * The number of buffered entities which are written as a batch without waiting for
+     * {@link #getWriteBehindDelay()}.
+     */
+    int writeBehindBatchSize;
+
+    /**
+     * The maximum number of operations of {@link FileSystemRepository#async()} which run at the same time on the
+     * executor. Further operations are queued without blocking the caller. Defaults to four times the number of
+     * available processors.
+     */
+    int maxInFlightAsyncOperations;
+
+    /**
+     * Receives latencies and other metrics of the repository operations, e.g. {@link InMemoryRepositoryMetrics}.
+     * {@link RepositoryMetrics#NONE} disables measuring.
+     */
+    RepositoryMetrics metrics;
+
+    /**
+     * Returns the default options. The defaults keep the plain behaviour of reading from and writing to the file
+     * system on each call.
+     *
+     * @return The default options.
+     */
+    public static FileSystemRepositoryOptions apply() {
+        return new FileSystemRepositoryOptions(
+                false,
+                1,
+                null,
+                WriteDurability.NONE,
+                256,
+                null,
+                StorageEngine.FILE_PER_ENTITY,
+                64L * 1024 * 1024,
+                false,
+                64L * 1024,
+                256,
+                Flow.defaultBufferSize(),
+                0,
+                2,
+                null,
+                1024,
+                4 * Runtime.getRuntime().availableProcessors(),
+                RepositoryMetrics.NONE);
+    }
+}
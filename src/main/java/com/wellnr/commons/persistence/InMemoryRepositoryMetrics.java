@@ -0,0 +1,187 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the metrics of repositories in memory, with a {@link LatencyHistogram} per repository and operation and
+ * counters for everything else. A single instance can be shared by all repositories of an application, the
+ * metrics are kept per repository directory.
+ */
+public final class InMemoryRepositoryMetrics implements RepositoryMetrics {
+
+    private final Map<String, Stats> repositories;
+
+    private InMemoryRepositoryMetrics() {
+        this.repositories = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Creates a new instance without any metrics.
+     *
+     * @return The new instance.
+     */
+    public static InMemoryRepositoryMetrics apply() {
+        return new InMemoryRepositoryMetrics();
+    }
+
+    @Override
+    public void onOperation(String repository, Operation operation, long durationNanos) {
+        getOrCreateStats(repository)
+                .latencies
+                .computeIfAbsent(operation, op -> new LatencyHistogram())
+                .record(durationNanos);
+    }
+
+    @Override
+    public void onScan(String repository, long scanned, long matched) {
+        var stats = getOrCreateStats(repository);
+        stats.scanned.add(scanned);
+        stats.matched.add(matched);
+    }
+
+    @Override
+    public void onReadFailure(String repository, String id) {
+        getOrCreateStats(repository).readFailures.increment();
+    }
+
+    @Override
+    public void onBytesRead(String repository, long bytes) {
+        getOrCreateStats(repository).bytesRead.add(bytes);
+    }
+
+    @Override
+    public void onBytesWritten(String repository, long bytes) {
+        getOrCreateStats(repository).bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void onCacheLookup(String repository, boolean hit) {
+        var stats = getOrCreateStats(repository);
+
+        if (hit) {
+            stats.cacheHits.increment();
+        } else {
+            stats.cacheMisses.increment();
+        }
+    }
+
+    /**
+     * Lists the directories of the repositories which have reported metrics.
+     *
+     * @return The directories.
+     */
+    public Set<String> getRepositories() {
+        return Set.copyOf(repositories.keySet());
+    }
+
+    /**
+     * Returns the metrics of a repository.
+     *
+     * @param repository The directory of the repository.
+     * @return The metrics, or empty if the repository has not reported any metrics.
+     */
+    public Optional<Stats> getStats(String repository) {
+        return Optional.ofNullable(repositories.get(repository));
+    }
+
+    /**
+     * Removes the metrics of all repositories.
+     */
+    public void reset() {
+        repositories.clear();
+    }
+
+    private Stats getOrCreateStats(String repository) {
+        return repositories.computeIfAbsent(repository, r -> new Stats());
+    }
+
+    /**
+     * The metrics of a single repository. Values are updated while they are read.
+     */
+    public static final class Stats {
+
+        private final Map<Operation, LatencyHistogram> latencies;
+
+        private final LongAdder scanned;
+
+        private final LongAdder matched;
+
+        private final LongAdder readFailures;
+
+        private final LongAdder bytesRead;
+
+        private final LongAdder bytesWritten;
+
+        private final LongAdder cacheHits;
+
+        private final LongAdder cacheMisses;
+
+        private Stats() {
+            this.latencies = new ConcurrentHashMap<>();
+            this.scanned = new LongAdder();
+            this.matched = new LongAdder();
+            this.readFailures = new LongAdder();
+            this.bytesRead = new LongAdder();
+            this.bytesWritten = new LongAdder();
+            this.cacheHits = new LongAdder();
+            this.cacheMisses = new LongAdder();
+        }
+
+        /**
+         * Returns the latencies of an operation.
+         *
+         * @param operation The operation.
+         * @return The histogram of the latencies, or empty if the operation has not been called.
+         */
+        public Optional<LatencyHistogram> getLatencies(Operation operation) {
+            return Optional.ofNullable(latencies.get(operation));
+        }
+
+        public long getScanned() {
+            return scanned.sum();
+        }
+
+        public long getMatched() {
+            return matched.sum();
+        }
+
+        public long getReadFailures() {
+            return readFailures.sum();
+        }
+
+        public long getBytesRead() {
+            return bytesRead.sum();
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten.sum();
+        }
+
+        public long getCacheHits() {
+            return cacheHits.sum();
+        }
+
+        public long getCacheMisses() {
+            return cacheMisses.sum();
+        }
+
+        /**
+         * Returns the share of cache lookups which have been answered by the cache.
+         *
+         * @return The ratio between {@code 0} and {@code 1}, {@code 0} if the cache has not been used.
+         */
+        public double getCacheHitRatio() {
+            var hits = getCacheHits();
+            var lookups = hits + getCacheMisses();
+            return lookups == 0 ? 0 : (double) hits / lookups;
+        }
+    }
+}
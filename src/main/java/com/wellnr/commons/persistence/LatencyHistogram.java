@@ -0,0 +1,158 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A thread-safe histogram of durations in nanoseconds with a fixed memory footprint. Values are counted in
+ * log-linear buckets: values below {@code 128} are counted exactly, larger values in {@code 64} buckets per power of
+ * two, hence percentiles have a relative error below 1.6%. Values above about 68 seconds are counted in the highest
+ * bucket. Recording does not allocate and does not lock.
+ */
+public final class LatencyHistogram {
+
+    private static final int LINEAR_BUCKETS = 128;
+
+    private static final int SUB_BUCKET_BITS = 6;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The exponent of the highest power of two which is tracked, 2^36 nanoseconds are about 68 seconds.
+     */
+    private static final int MAX_EXPONENT = 36;
+
+    private final AtomicLongArray counts;
+
+    private final LongAdder count;
+
+    private final LongAdder sum;
+
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(getIndex(Long.MAX_VALUE) + 1);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a value. Negative values are recorded as {@code 0}.
+     *
+     * @param value The value in nanoseconds.
+     */
+    public void record(long value) {
+        var recorded = Math.max(value, 0);
+
+        counts.incrementAndGet(getIndex(recorded));
+        count.increment();
+        sum.add(recorded);
+        max.accumulateAndGet(recorded, Math::max);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return The number of values.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the highest recorded value.
+     *
+     * @return The value, {@code 0} if no value has been recorded.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values.
+     *
+     * @return The mean, {@code 0} if no value has been recorded.
+     */
+    public double getMean() {
+        var count = getCount();
+        return count == 0 ? 0 : (double) sum.sum() / count;
+    }
+
+    /**
+     * Returns the value at a percentile, e.g. {@code 99.0} for the value which is greater than or equal to 99% of
+     * the recorded values. The result is the upper bound of the bucket of the value.
+     *
+     * @param percentile The percentile between {@code 0} and {@code 100}.
+     * @return The value, {@code 0} if no value has been recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException(
+                    String.format("Percentile must be between 0 and 100, but was %s.", percentile));
+        }
+
+        var total = 0L;
+
+        for (var i = 0; i < counts.length(); i++) {
+            total += counts.get(i);
+        }
+
+        var target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        var current = 0L;
+
+        for (var i = 0; i < counts.length(); i++) {
+            current += counts.get(i);
+
+            if (current >= target) {
+                return Math.min(getUpperBound(i), getMax());
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Removes all recorded values. Values which are recorded concurrently may be kept partially.
+     */
+    public void reset() {
+        for (var i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    private static int getIndex(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+
+        var exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        var subBucket =
+                exponent == MAX_EXPONENT && value >= 1L << (MAX_EXPONENT + 1)
+                        ? SUB_BUCKETS - 1
+                        : (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+
+        return LINEAR_BUCKETS + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getUpperBound(int index) {
+        if (index < LINEAR_BUCKETS) {
+            return index;
+        }
+
+        var exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS + 1;
+        var subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+        var shift = exponent - SUB_BUCKET_BITS;
+
+        return ((long) (subBucket + 1) << shift) - 1;
+    }
+}
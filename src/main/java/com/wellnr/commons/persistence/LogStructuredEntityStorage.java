@@ -0,0 +1,931 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.Operators;
+import com.wellnr.commons.functions.Procedure0;
+import com.wellnr.commons.functions.Procedure1;
+import com.wellnr.commons.functions.Procedure2;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Stores entities as records which are appended to segment files {@code <sequence>.<entity-name>.log}. An in-memory
+ * index maps each id to the location of its latest record; it is rebuilt by scanning the segments when the storage
+ * is opened.
+ * <p>
+ * Each record consists of a type (put or delete), the id, the encoded entity and a CRC32 checksum. A torn record at
+ * the end of the last segment, e.g. after a crash, is truncated during recovery. When a segment reaches the maximum
+ * size a new segment is started and sealed segments with less than half of live data are compacted in the
+ * background by copying their live records to the active segment.
+ * <p>
+ * Instances are shared per directory within the JVM and reference counted, a lock file prevents other processes
+ * from opening the same segments. All repositories of a directory must use the same
+ * {@link FileSystemRepositoryOptions#getMaxSegmentSize()} and {@link FileSystemRepositoryOptions#getDurability()};
+ * the executor, parallelism and metrics of the repository which opened the instance first apply to all of them.
+ *
+ * @param <T> the type of the stored entities.
+ */
+@Slf4j
+final class LogStructuredEntityStorage<T> implements EntityStorage<T> {
+
+    private static final byte PUT = 1;
+
+    private static final byte DELETE = 2;
+
+    /**
+     * The number of bytes of a record in addition to id and payload: type, two length fields and the checksum.
+     */
+    private static final int RECORD_OVERHEAD = 1 + 4 + 4 + 4;
+
+    /**
+     * Sealed segments with a lower ratio of live bytes are compacted.
+     */
+    private static final double COMPACTION_THRESHOLD = 0.5;
+
+    private static final Map<Path, LogStructuredEntityStorage<?>> instances = new HashMap<>();
+
+    private final Path directory;
+
+    private final EntityCodec<T> codec;
+
+    private final String entityName;
+
+    private final FileSystemRepositoryOptions options;
+
+    /**
+     * The location of the latest record of each entity, sorted by id.
+     */
+    private final ConcurrentSkipListMap<String, Location> index;
+
+    /**
+     * All segments, sorted by sequence. The last segment is the active segment.
+     */
+    private final List<Segment> segments;
+
+    /**
+     * Serializes appends to the active segment.
+     */
+    private final ReentrantLock appendLock;
+
+    private final AtomicBoolean compacting;
+
+    /**
+     * The last assigned entity version.
+     */
+    private final AtomicLong versions;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private volatile boolean closed;
+
+    /**
+     * The number of repositories which use this instance, guarded by {@link #instances}.
+     */
+    private int references;
+
+    private LogStructuredEntityStorage(
+            Path directory,
+            EntityCodec<T> codec,
+            String entityName,
+            FileSystemRepositoryOptions options) {
+
+        this.directory = directory;
+        this.codec = codec;
+        this.entityName = entityName;
+        this.options = options;
+        this.index = new ConcurrentSkipListMap<>();
+        this.segments = new CopyOnWriteArrayList<>();
+        this.appendLock = new ReentrantLock();
+        this.compacting = new AtomicBoolean(false);
+        this.versions = new AtomicLong();
+        this.closed = false;
+        this.references = 0;
+
+        Operators.suppressExceptions(
+                () -> {
+                    Files.createDirectories(directory);
+                });
+
+        this.lockChannel =
+                Operators.suppressExceptions(
+                        () ->
+                                FileChannel.open(
+                                        directory.resolve("." + entityName + ".lock"),
+                                        StandardOpenOption.CREATE,
+                                        StandardOpenOption.WRITE));
+        this.lock = Operators.suppressExceptions(() -> lockChannel.tryLock());
+
+        if (Objects.isNull(lock)) {
+            Operators.suppressExceptions(lockChannel::close);
+            throw new IllegalStateException(
+                    String.format(
+                            "The segments in `%s` are already in use by another process.",
+                            directory));
+        }
+
+        recover();
+    }
+
+    /**
+     * Opens the storage of a directory. Repositories of the same directory within the JVM share one instance, which
+     * is released when all of them have been closed. The segment size and durability must match the options of the
+     * open instance.
+     *
+     * @param directory  The directory of the segments.
+     * @param codec      The codec to encode entities.
+     * @param entityName The name of the entity type, used as part of the segment file names.
+     * @param options    The options of the repository.
+     * @param <T>        The type of the entities.
+     * @return The storage.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> LogStructuredEntityStorage<T> open(
+            Path directory,
+            EntityCodec<T> codec,
+            String entityName,
+            FileSystemRepositoryOptions options) {
+
+        var key = directory.toAbsolutePath().normalize().resolve(entityName);
+
+        synchronized (instances) {
+            var instance =
+                    (LogStructuredEntityStorage<T>)
+                            instances.computeIfAbsent(
+                                    key,
+                                    k ->
+                                            new LogStructuredEntityStorage<>(
+                                                    directory, codec, entityName, options));
+
+            if (instance.options.getMaxSegmentSize() != options.getMaxSegmentSize()
+                    || instance.options.getDurability() != options.getDurability()) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "The segments in `%s` are already open with a maximum segment size"
+                                    + " of %d and durability %s, which differ from the options of"
+                                    + " the repository (%d, %s).",
+                                directory,
+                                instance.options.getMaxSegmentSize(),
+                                instance.options.getDurability(),
+                                options.getMaxSegmentSize(),
+                                options.getDurability()));
+            }
+
+            instance.references++;
+            return instance;
+        }
+    }
+
+    @Override
+    public Optional<T> read(String id) {
+        return readBytes(id)
+                .flatMap(
+                        payload ->
+                                Operators.ignoreExceptionsToOptional(
+                                        () -> codec.decode(new ByteArrayInputStream(payload)),
+                                        ex -> {
+                                            log.warn(
+                                                    "An exception occurred while reading entity"
+                                                            + " `{}`.",
+                                                    id,
+                                                    ex);
+                                            options.getMetrics()
+                                                    .onReadFailure(directory.toString(), id);
+                                        }));
+    }
+
+    @Override
+    public Optional<byte[]> readBytes(String id) {
+        checkOpen();
+
+        // Segments may be removed by a concurrent compaction, the record is read again from its new
+        // location.
+        for (var attempt = 0; attempt < 3; attempt++) {
+            var location = index.get(id);
+
+            if (Objects.isNull(location)) {
+                return Optional.empty();
+            }
+
+            try {
+                var payload = readPayload(location);
+
+                if (options.getMetrics() != RepositoryMetrics.NONE) {
+                    options.getMetrics().onBytesRead(directory.toString(), payload.length);
+                }
+
+                return Optional.of(payload);
+            } catch (ClosedChannelException ex) {
+                log.debug("Segment of entity `{}` has been closed, retrying.", id, ex);
+            } catch (IOException ex) {
+                log.warn("An exception occurred while reading entity `{}`.", id, ex);
+                options.getMetrics().onReadFailure(directory.toString(), id);
+                return Optional.empty();
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    @Override
+    public Map<String, T> readAll() {
+        checkOpen();
+
+        var ids = List.copyOf(index.keySet());
+        var entities =
+                RepositoryExecutors.map(
+                        ids,
+                        this::read,
+                        options.getParallelism(),
+                        RepositoryExecutors.getExecutor(options));
+
+        var result = new LinkedHashMap<String, T>();
+
+        for (var i = 0; i < ids.size(); i++) {
+            var id = ids.get(i);
+            entities.get(i).ifPresent(entity -> result.put(id, entity));
+        }
+
+        return result;
+    }
+
+    @Override
+    public List<String> ids() {
+        checkOpen();
+        return List.copyOf(index.keySet());
+    }
+
+    @Override
+    public Stream<String> streamIds() {
+        checkOpen();
+        return index.keySet().stream();
+    }
+
+    @Override
+    public Stream<T> stream() {
+        checkOpen();
+
+        return index.keySet().stream()
+                .map(this::read)
+                .filter(Optional::isPresent)
+                .map(Optional::get);
+    }
+
+    @Override
+    public boolean exists(String id) {
+        checkOpen();
+        return index.containsKey(id);
+    }
+
+    @Override
+    public Optional<EntityVersion> version(String id) {
+        checkOpen();
+
+        return Optional.ofNullable(index.get(id))
+                .map(location -> EntityVersion.apply(Long.toString(location.version())));
+    }
+
+    /**
+     * Returns a no-op lock, as the segments cannot be used by other processes.
+     */
+    @Override
+    public Lock lock(String id) {
+        return () -> {};
+    }
+
+    @Override
+    public void write(String id, T entity, boolean batch) {
+        checkOpen();
+
+        var output = new ByteArrayOutputStream();
+        Operators.suppressExceptions(
+                () -> codec.encode(entity, output),
+                "An exception occurred while encoding entity `" + id + "`.");
+
+        writeBytes(id, output.toByteArray(), batch);
+    }
+
+    @Override
+    public void writeBytes(String id, byte[] payload, boolean batch) {
+        checkOpen();
+
+        var record = encodeRecord(PUT, id, payload);
+
+        appendLock.lock();
+
+        try {
+            var location = append(record, id, payload.length, versions.incrementAndGet());
+            var previous = index.put(id, location);
+
+            location.segment().liveBytes.addAndGet(location.length());
+
+            if (Objects.nonNull(previous)) {
+                previous.segment().liveBytes.addAndGet(-previous.length());
+            }
+
+            if (!batch) {
+                flush();
+            }
+        } finally {
+            appendLock.unlock();
+        }
+
+        if (options.getMetrics() != RepositoryMetrics.NONE) {
+            options.getMetrics().onBytesWritten(directory.toString(), payload.length);
+        }
+    }
+
+    @Override
+    public boolean delete(String id, boolean batch) {
+        checkOpen();
+        appendLock.lock();
+
+        try {
+            if (!index.containsKey(id)) {
+                return false;
+            }
+
+            append(encodeRecord(DELETE, id, new byte[0]), id, 0, 0);
+
+            var previous = index.remove(id);
+            previous.segment().liveBytes.addAndGet(-previous.length());
+
+            if (!batch) {
+                flush();
+            }
+
+            return true;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public void sync() {
+        checkOpen();
+        appendLock.lock();
+
+        try {
+            flush();
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    @Override
+    public String getFormat() {
+        return codec.getFileExtension();
+    }
+
+    @Override
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public Optional<DirectoryWatcher.Registration> watch(
+            Procedure2<String, EntityChange.Type> onChange, Procedure0 onOverflow) {
+        return Optional.empty();
+    }
+
+    @Override
+    public void close() {
+        synchronized (instances) {
+            references--;
+
+            if (references > 0 || closed) {
+                return;
+            }
+
+            instances.remove(directory.toAbsolutePath().normalize().resolve(entityName));
+        }
+
+        appendLock.lock();
+
+        try {
+            closed = true;
+            Operators.ignoreExceptions(this::flush);
+            segments.forEach(Segment::close);
+            Operators.ignoreExceptions(lock::release);
+            Operators.ignoreExceptions(lockChannel::close);
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    /**
+     * Compacts sealed segments with less than {@link #COMPACTION_THRESHOLD} live bytes. Only one compaction runs at
+     * a time.
+     */
+    void compact() {
+        if (closed || !compacting.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            for (var segment : List.copyOf(segments)) {
+                if (segment == getActiveSegment() || closed) {
+                    continue;
+                }
+
+                var live = segment.liveBytes.get();
+
+                if (live == 0 || live < segment.size * COMPACTION_THRESHOLD) {
+                    compact(segment);
+                }
+            }
+        } catch (Exception ex) {
+            log.warn("An exception occurred while compacting segments in `{}`.", directory, ex);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Copies the live records of a sealed segment to the active segment and deletes the segment. Tombstones are
+     * only kept if an older segment still contains a record of the deleted entity, which would be restored by
+     * recovery otherwise.
+     *
+     * @param segment The segment to compact.
+     */
+    private void compact(Segment segment) throws IOException {
+        var tombstones = new HashSet<String>();
+
+        scan(
+                segment,
+                record -> {
+                    if (record.type() == DELETE) {
+                        tombstones.add(record.id());
+                    }
+                });
+
+        var required = findRecordsInOlderSegments(segment, tombstones);
+
+        scan(
+                segment,
+                record -> {
+                    appendLock.lock();
+
+                    try {
+                        if (record.type() == PUT) {
+                            var current = index.get(record.id());
+
+                            if (Objects.nonNull(current)
+                                    && current.segment() == segment
+                                    && current.offset() == record.offset()) {
+                                var location =
+                                        append(
+                                                encodeRecord(PUT, record.id(), record.payload()),
+                                                record.id(),
+                                                record.payload().length,
+                                                current.version());
+
+                                index.put(record.id(), location);
+                                location.segment().liveBytes.addAndGet(location.length());
+                                segment.liveBytes.addAndGet(-current.length());
+                            }
+                        } else if (required.contains(record.id())
+                                && !index.containsKey(record.id())) {
+                            append(
+                                    encodeRecord(DELETE, record.id(), new byte[0]),
+                                    record.id(),
+                                    0,
+                                    0);
+                        }
+                    } finally {
+                        appendLock.unlock();
+                    }
+                });
+
+        appendLock.lock();
+
+        try {
+            flush();
+            segments.remove(segment);
+            segment.delete();
+
+            if (options.getDurability() == WriteDurability.SYNC_FILE_AND_DIRECTORY) {
+                AtomicFiles.syncDirectory(directory);
+            }
+        } finally {
+            appendLock.unlock();
+        }
+
+        log.debug("Compacted segment `{}`.", segment.file);
+    }
+
+    /**
+     * Finds the ids which have put records in segments older than a segment. Sealed segments are not changed, hence
+     * this does not need to hold {@link #appendLock}.
+     *
+     * @param segment The segment.
+     * @param ids     The ids to look for.
+     * @return The ids which have put records in older segments.
+     */
+    private Set<String> findRecordsInOlderSegments(Segment segment, Set<String> ids)
+            throws IOException {
+        var found = new HashSet<String>();
+
+        if (ids.isEmpty()) {
+            return found;
+        }
+
+        for (var older : List.copyOf(segments)) {
+            if (older.sequence >= segment.sequence) {
+                continue;
+            }
+
+            scan(
+                    older,
+                    record -> {
+                        if (record.type() == PUT && ids.contains(record.id())) {
+                            found.add(record.id());
+                        }
+                    });
+        }
+
+        return found;
+    }
+
+    /**
+     * Appends a record to the active segment, a new segment is started if the active segment is full. Must be
+     * called while holding {@link #appendLock}.
+     *
+     * @param record        The encoded record.
+     * @param id            The id of the entity.
+     * @param payloadLength The length of the encoded entity within the record.
+     * @param version       The version of the entity.
+     * @return The location of the record.
+     */
+    private Location append(byte[] record, String id, int payloadLength, long version) {
+        var active = getActiveSegment();
+
+        if (active.size > 0 && active.size + record.length > options.getMaxSegmentSize()) {
+            active = rollover();
+        }
+
+        var offset = active.size;
+        var segment = active;
+
+        Operators.suppressExceptions(
+                () -> {
+                    var buffer = ByteBuffer.wrap(record);
+                    var position = offset;
+
+                    while (buffer.hasRemaining()) {
+                        position += segment.channel().write(buffer, position);
+                    }
+                },
+                "An exception occurred while writing entity `" + id + "`.");
+
+        active.size += record.length;
+
+        return new Location(
+                active,
+                offset,
+                record.length,
+                offset + record.length - 4 - payloadLength,
+                payloadLength,
+                version);
+    }
+
+    /**
+     * Seals the active segment and starts a new one. Must be called while holding {@link #appendLock}.
+     *
+     * @return The new active segment.
+     */
+    private Segment rollover() {
+        var sealed = getActiveSegment();
+
+        flush();
+
+        var segment = new Segment(sealed.sequence + 1, getSegmentPath(sealed.sequence + 1));
+        segments.add(segment);
+
+        if (options.getDurability() == WriteDurability.SYNC_FILE_AND_DIRECTORY) {
+            AtomicFiles.syncDirectory(directory);
+        }
+
+        RepositoryExecutors.getExecutor(options).execute(this::compact);
+        return segment;
+    }
+
+    /**
+     * Flushes the active segment to disk if required by the durability setting. Must be called while holding
+     * {@link #appendLock}.
+     */
+    private void flush() {
+        if (options.getDurability() != WriteDurability.NONE) {
+            Operators.suppressExceptions(() -> getActiveSegment().channel().force(false));
+        }
+    }
+
+    /**
+     * Opens all segments and rebuilds the index.
+     */
+    private void recover() {
+        var pattern = Pattern.compile("^(\\d{16})\\." + Pattern.quote(entityName) + "\\.log$");
+        var files = new ArrayList<Segment>();
+
+        try (var list = Operators.suppressExceptions(() -> Files.list(directory))) {
+            list.forEach(
+                    file -> {
+                        var matcher = pattern.matcher(file.getFileName().toString());
+
+                        if (matcher.matches()) {
+                            files.add(new Segment(Long.parseLong(matcher.group(1)), file));
+                        }
+                    });
+        }
+
+        files.sort(Comparator.comparingLong(segment -> segment.sequence));
+
+        for (var i = 0; i < files.size(); i++) {
+            var segment = files.get(i);
+            var last = i == files.size() - 1;
+
+            var end =
+                    Operators.suppressExceptions(
+                            () ->
+                                    scan(
+                                            segment,
+                                            record -> {
+                                                var location =
+                                                        new Location(
+                                                                segment,
+                                                                record.offset(),
+                                                                record.length(),
+                                                                record.offset()
+                                                                        + record.length()
+                                                                        - 4
+                                                                        - record.payload().length,
+                                                                record.payload().length,
+                                                                versions.incrementAndGet());
+
+                                                var previous =
+                                                        record.type() == PUT
+                                                                ? index.put(record.id(), location)
+                                                                : index.remove(record.id());
+
+                                                if (record.type() == PUT) {
+                                                    segment.liveBytes.addAndGet(record.length());
+                                                }
+
+                                                if (Objects.nonNull(previous)) {
+                                                    previous.segment()
+                                                            .liveBytes
+                                                            .addAndGet(-previous.length());
+                                                }
+                                            }));
+
+            var fileSize = Operators.suppressExceptions(() -> Files.size(segment.file));
+            segment.size = end;
+
+            if (end < fileSize) {
+                log.warn(
+                        "Segment `{}` contains an incomplete or corrupt record at offset {}.",
+                        segment.file,
+                        end);
+
+                if (last) {
+                    Operators.suppressExceptions(() -> segment.channel().truncate(end));
+                }
+            }
+
+            segments.add(segment);
+        }
+
+        if (segments.isEmpty()) {
+            segments.add(new Segment(1, getSegmentPath(1)));
+        }
+    }
+
+    /**
+     * Reads the valid records of a segment sequentially.
+     *
+     * @param segment The segment to read.
+     * @param handler Called for each valid record.
+     * @return The offset after the last valid record.
+     */
+    private long scan(Segment segment, Procedure1<Record> handler) throws IOException {
+        var offset = 0L;
+
+        try (var input =
+                new DataInputStream(
+                        new BufferedInputStream(Files.newInputStream(segment.file), 1 << 16))) {
+            while (true) {
+                var type = input.read();
+
+                if (type < 0) {
+                    return offset;
+                }
+
+                var idLength = input.readInt();
+
+                if ((type != PUT && type != DELETE) || idLength < 0 || idLength > 1 << 16) {
+                    return offset;
+                }
+
+                var id = input.readNBytes(idLength);
+                var payloadLength = input.readInt();
+
+                if (id.length < idLength || payloadLength < 0) {
+                    return offset;
+                }
+
+                var payload = input.readNBytes(payloadLength);
+
+                if (payload.length < payloadLength) {
+                    return offset;
+                }
+
+                var checksum = input.readInt();
+                var idString = new String(id, StandardCharsets.UTF_8);
+                var record = encodeRecord((byte) type, idString, payload);
+
+                if (ByteBuffer.wrap(record, record.length - 4, 4).getInt() != checksum) {
+                    return offset;
+                }
+
+                handler.run(new Record((byte) type, idString, payload, offset, record.length));
+                offset += record.length;
+            }
+        } catch (EOFException ex) {
+            return offset;
+        }
+    }
+
+    private byte[] readPayload(Location location) throws IOException {
+        var buffer = ByteBuffer.allocate(location.payloadLength());
+        var channel = location.segment().channel();
+        var position = location.payloadOffset();
+
+        while (buffer.hasRemaining()) {
+            var read = channel.read(buffer, position);
+
+            if (read < 0) {
+                throw new EOFException("Unexpected end of segment " + location.segment().file);
+            }
+
+            position += read;
+        }
+
+        return buffer.array();
+    }
+
+    private Segment getActiveSegment() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private Path getSegmentPath(long sequence) {
+        return directory.resolve(String.format("%016d.%s.log", sequence, entityName));
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException(
+                    String.format("The segments in `%s` have been closed.", directory));
+        }
+    }
+
+    /**
+     * Encodes a record: type, id length, id, payload length, payload and the CRC32 of all preceding bytes.
+     *
+     * @param type    The type of the record.
+     * @param id      The id of the entity.
+     * @param payload The encoded entity.
+     * @return The record.
+     */
+    private static byte[] encodeRecord(byte type, String id, byte[] payload) {
+        var idBytes = id.getBytes(StandardCharsets.UTF_8);
+        var buffer = ByteBuffer.allocate(RECORD_OVERHEAD + idBytes.length + payload.length);
+
+        buffer.put(type);
+        buffer.putInt(idBytes.length);
+        buffer.put(idBytes);
+        buffer.putInt(payload.length);
+        buffer.put(payload);
+
+        var crc = new CRC32();
+        crc.update(buffer.array(), 0, buffer.position());
+        buffer.putInt((int) crc.getValue());
+
+        return buffer.array();
+    }
+
+    /**
+     * A record read from a segment.
+     */
+    private record Record(byte type, String id, byte[] payload, long offset, int length) {}
+
+    /**
+     * The location of a record within a segment and the version of the entity, which is kept by compaction.
+     */
+    private record Location(
+            Segment segment,
+            long offset,
+            int length,
+            long payloadOffset,
+            int payloadLength,
+            long version) {}
+
+    private static final class Segment {
+
+        private final long sequence;
+
+        private final Path file;
+
+        /**
+         * The number of bytes of records which are referenced by the index.
+         */
+        private final AtomicLong liveBytes;
+
+        /**
+         * The number of bytes of valid records, the offset of the next record.
+         */
+        private volatile long size;
+
+        private FileChannel channel;
+
+        private boolean deleted;
+
+        private Segment(long sequence, Path file) {
+            this.sequence = sequence;
+            this.file = file;
+            this.liveBytes = new AtomicLong();
+            this.size = 0;
+        }
+
+        /**
+         * Returns the channel of the segment. The channel is reopened if it has been closed, e.g. because a reading
+         * thread has been interrupted.
+         *
+         * @return The channel.
+         * @throws ClosedChannelException If the segment has been deleted or closed.
+         */
+        private synchronized FileChannel channel() throws IOException {
+            if (deleted) {
+                throw new ClosedChannelException();
+            }
+
+            if (Objects.isNull(channel) || !channel.isOpen()) {
+                channel =
+                        FileChannel.open(
+                                file,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.READ,
+                                StandardOpenOption.WRITE);
+            }
+
+            return channel;
+        }
+
+        private synchronized void close() {
+            deleted = true;
+
+            if (Objects.nonNull(channel)) {
+                Operators.ignoreExceptions(channel::close);
+            }
+        }
+
+        private synchronized void delete() {
+            close();
+            Operators.ignoreExceptions(() -> Files.deleteIfExists(file));
+        }
+    }
+}
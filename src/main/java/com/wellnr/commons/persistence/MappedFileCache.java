@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Maps files into memory and keeps the mappings of recently read files. A mapping is reused as long as file key,
+ * modification time and size of the file are unchanged. As entity files are replaced by renaming a new file, a
+ * changed file gets a new mapping while readers of the old mapping still see the previous content.
+ * <p>
+ * Mappings cannot be released explicitly, the memory (and the disk space of deleted files) is released when the
+ * buffers are garbage collected. Files must not be truncated in place by other processes while they are mapped.
+ */
+final class MappedFileCache {
+
+    private final Map<Path, Mapping> mappings;
+
+    /**
+     * Creates a new cache.
+     *
+     * @param maxEntries The maximum number of mappings which are kept, least recently used mappings are dropped.
+     */
+    MappedFileCache(int maxEntries) {
+        this.mappings =
+                new LinkedHashMap<>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<Path, Mapping> eldest) {
+                        return size() > maxEntries;
+                    }
+                };
+    }
+
+    /**
+     * Returns the content of a file as a read-only buffer, backed by a memory mapping.
+     *
+     * @param file    The file to map.
+     * @param minSize Files smaller than this size are not mapped, as mapping small files is slower than reading them.
+     * @return The buffer, positioned at the start of the file, or empty if the file is smaller than {@code minSize}.
+     * @throws IOException If the file cannot be mapped.
+     */
+    Optional<ByteBuffer> map(Path file, long minSize) throws IOException {
+        var attributes = readAttributes(file);
+
+        if (attributes.size() < minSize) {
+            return Optional.empty();
+        }
+
+        synchronized (mappings) {
+            var mapping = mappings.get(file);
+
+            if (Objects.nonNull(mapping) && mapping.matches(attributes)) {
+                return Optional.of(mapping.buffer().asReadOnlyBuffer());
+            }
+        }
+
+        MappedByteBuffer buffer;
+
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        // The file may have been replaced while it was opened, the mapping is only reused if it is
+        // unchanged.
+        var current = readAttributes(file);
+        var mapping = Mapping.apply(attributes, buffer);
+
+        if (mapping.matches(current) && buffer.capacity() == attributes.size()) {
+            synchronized (mappings) {
+                mappings.put(file, mapping);
+            }
+        }
+
+        return Optional.of(buffer.asReadOnlyBuffer());
+    }
+
+    private BasicFileAttributes readAttributes(Path file) throws IOException {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            synchronized (mappings) {
+                mappings.remove(file);
+            }
+
+            throw ex;
+        }
+    }
+
+    private record Mapping(
+            Object fileKey, FileTime lastModified, long size, MappedByteBuffer buffer) {
+
+        static Mapping apply(BasicFileAttributes attributes, MappedByteBuffer buffer) {
+            return new Mapping(
+                    attributes.fileKey(), attributes.lastModifiedTime(), attributes.size(), buffer);
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey())
+                    && lastModified.equals(attributes.lastModifiedTime())
+                    && size == attributes.size();
+        }
+    }
+}
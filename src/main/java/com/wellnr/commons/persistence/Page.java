@@ -0,0 +1,63 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * A page of entities returned by {@link FileSystemRepository#findPage(java.util.function.Predicate, String, int)}.
+ *
+ * @param <T> the type of the entities.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class Page<T> {
+
+    /**
+     * The entities of the page.
+     */
+    List<T> items;
+
+    /**
+     * The opaque cursor to request the next page, {@code null} if this is the last page.
+     */
+    String nextCursor;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param items      The entities of the page.
+     * @param nextCursor The cursor of the next page, {@code null} if this is the last page.
+     * @param <T>        The type of the entities.
+     * @return The new instance.
+     */
+    public static <T> Page<T> apply(List<T> items, String nextCursor) {
+        return new Page<>(List.copyOf(items), nextCursor);
+    }
+
+    /**
+     * Returns the cursor of the next page.
+     *
+     * @return The cursor, or empty if this is the last page.
+     */
+    public Optional<String> getNextCursor() {
+        return Optional.ofNullable(nextCursor);
+    }
+
+    /**
+     * Checks whether more entities may follow. The next page might be empty if the remaining entities do not match
+     * the predicate of the query.
+     *
+     * @return True if there is a next page.
+     */
+    public boolean hasNext() {
+        return Objects.nonNull(nextCursor);
+    }
+}
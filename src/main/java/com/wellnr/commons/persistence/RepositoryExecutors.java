@@ -0,0 +1,267 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.Operators;
+import com.wellnr.commons.functions.Function1;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Executors and helpers to run I/O of repositories concurrently.
+ */
+final class RepositoryExecutors {
+
+    private static ExecutorService defaultExecutor;
+
+    private RepositoryExecutors() {}
+
+    /**
+     * Returns the executor which is used if no executor is configured. On JDK 21 and newer each task runs on its
+     * own virtual thread, on older JDKs a shared pool of daemon threads is used.
+     *
+     * @return The shared default executor.
+     */
+    static synchronized ExecutorService getDefault() {
+        if (Objects.isNull(defaultExecutor)) {
+            defaultExecutor =
+                    Operators.ignoreExceptionsToOptional(
+                                    () ->
+                                            (ExecutorService)
+                                                    Executors.class
+                                                            .getMethod(
+                                                                    "newVirtualThreadPerTaskExecutor")
+                                                            .invoke(null))
+                            .orElseGet(
+                                    () ->
+                                            Executors.newCachedThreadPool(
+                                                    runnable -> {
+                                                        var thread = new Thread(runnable);
+                                                        thread.setName("wellnr-repository-io");
+                                                        thread.setDaemon(true);
+                                                        return thread;
+                                                    }));
+        }
+
+        return defaultExecutor;
+    }
+
+    /**
+     * Returns the executor configured in the options, or the default executor.
+     *
+     * @param options The options of a repository.
+     * @return The executor to use.
+     */
+    static Executor getExecutor(FileSystemRepositoryOptions options) {
+        return Objects.requireNonNullElseGet(
+                options.getExecutor(), RepositoryExecutors::getDefault);
+    }
+
+    /**
+     * Applies a function to all items with at most {@code parallelism} concurrent calls. The result has the same
+     * order as the input, independent of the order in which the items have been processed.
+     * <p>
+     * The calling thread processes items as well and only waits for items which are in progress on other threads.
+     * Hence nested calls from tasks which run on the same bounded executor complete on the calling threads, even if
+     * no thread of the executor is available.
+     *
+     * @param items       The items to process.
+     * @param mapper      The function to apply.
+     * @param parallelism The maximum number of concurrent calls.
+     * @param executor    The executor to run the calls.
+     * @param <I>         The type of the items.
+     * @param <O>         The type of the results.
+     * @return The results in the order of the items.
+     */
+    @SuppressWarnings("unchecked")
+    static <I, O> List<O> map(
+            List<I> items, Function1<I, O> mapper, int parallelism, Executor executor) {
+        if (parallelism <= 1 || items.size() <= 1) {
+            var result = new ArrayList<O>(items.size());
+            items.forEach(item -> result.add(mapper.get(item)));
+            return result;
+        }
+
+        var results = new Object[items.size()];
+        var next = new AtomicInteger();
+        var finished = new AtomicInteger();
+        var failure = new AtomicReference<Throwable>();
+        var done = new CompletableFuture<Void>();
+
+        Runnable worker =
+                () -> {
+                    int idx;
+                    while ((idx = next.getAndIncrement()) < items.size()) {
+                        try {
+                            if (Objects.isNull(failure.get())) {
+                                results[idx] = mapper.apply(items.get(idx));
+                            }
+                        } catch (Throwable ex) {
+                            failure.compareAndSet(null, ex);
+                        } finally {
+                            if (finished.incrementAndGet() == items.size()) {
+                                done.complete(null);
+                            }
+                        }
+                    }
+                };
+
+        var helpers = new ArrayList<CompletableFuture<Void>>();
+
+        for (var i = 1; i < Math.min(parallelism, items.size()); i++) {
+            helpers.add(CompletableFuture.runAsync(worker, executor));
+        }
+
+        worker.run();
+        done.join();
+
+        // Helpers which have not been started yet have nothing left to do.
+        helpers.forEach(helper -> helper.cancel(false));
+
+        if (Objects.nonNull(failure.get())) {
+            return Operators.wrapAndThrow(failure.get());
+        }
+
+        return (List<O>) Arrays.asList(results);
+    }
+
+    /**
+     * Applies a function to all items while the returned stream is consumed. At most {@code parallelism} calls run
+     * ahead of the consumer, hence the memory usage is bounded by the results of these calls. The stream has the
+     * same order as the input. Closing the stream cancels calls which have not been started yet. If the next call
+     * has not been started by the executor when the consumer requires its result, it runs on the consumer's thread.
+     *
+     * @param items       The items to process.
+     * @param mapper      The function to apply.
+     * @param parallelism The maximum number of concurrent calls.
+     * @param executor    The executor to run the calls.
+     * @param <I>         The type of the items.
+     * @param <O>         The type of the results.
+     * @return The lazy stream of results in the order of the items.
+     */
+    static <I, O> Stream<O> mapLazily(
+            List<I> items, Function1<I, O> mapper, int parallelism, Executor executor) {
+        if (parallelism <= 1) {
+            return items.stream().map(mapper::get);
+        }
+
+        var pending = new ArrayDeque<Call<I, O>>();
+        var next = new AtomicInteger();
+
+        Runnable submit =
+                () -> {
+                    synchronized (pending) {
+                        while (pending.size() < parallelism && next.get() < items.size()) {
+                            var call = new Call<>(items.get(next.getAndIncrement()), mapper);
+                            pending.add(call);
+                            executor.execute(call::runIfNotStarted);
+                        }
+                    }
+                };
+
+        var iterator =
+                new Iterator<O>() {
+                    @Override
+                    public boolean hasNext() {
+                        synchronized (pending) {
+                            return !pending.isEmpty() || next.get() < items.size();
+                        }
+                    }
+
+                    @Override
+                    public O next() {
+                        submit.run();
+
+                        Call<I, O> call;
+
+                        synchronized (pending) {
+                            call = pending.poll();
+                        }
+
+                        if (Objects.isNull(call)) {
+                            throw new NoSuchElementException();
+                        }
+
+                        submit.run();
+                        call.runIfNotStarted();
+
+                        try {
+                            return call.result.join();
+                        } catch (CompletionException ex) {
+                            return Operators.wrapAndThrow(ex.getCause());
+                        }
+                    }
+                };
+
+        return StreamSupport.stream(
+                        Spliterators.spliterator(iterator, items.size(), Spliterator.ORDERED),
+                        false)
+                .onClose(
+                        () -> {
+                            synchronized (pending) {
+                                pending.forEach(Call::cancel);
+                                pending.clear();
+                                next.set(items.size());
+                            }
+                        });
+    }
+
+    /**
+     * A call of {@link #mapLazily(List, Function1, int, Executor)}, which runs either on the executor or on the
+     * consumer's thread, whichever starts it first.
+     */
+    private static final class Call<I, O> {
+
+        private final I item;
+
+        private final Function1<I, O> mapper;
+
+        private final AtomicBoolean started;
+
+        private final CompletableFuture<O> result;
+
+        private Call(I item, Function1<I, O> mapper) {
+            this.item = item;
+            this.mapper = mapper;
+            this.started = new AtomicBoolean();
+            this.result = new CompletableFuture<>();
+        }
+
+        private void runIfNotStarted() {
+            if (!started.compareAndSet(false, true)) {
+                return;
+            }
+
+            try {
+                result.complete(mapper.apply(item));
+            } catch (Throwable ex) {
+                result.completeExceptionally(ex);
+            }
+        }
+
+        private void cancel() {
+            if (started.compareAndSet(false, true)) {
+                result.cancel(false);
+            }
+        }
+    }
+}
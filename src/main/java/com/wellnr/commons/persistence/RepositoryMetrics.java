@@ -0,0 +1,90 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+/**
+ * Receives metrics of {@link FileSystemRepository} operations, see
+ * {@link FileSystemRepositoryOptions#getMetrics()}. All methods are called synchronously on the thread which runs
+ * the operation, hence implementations must be thread-safe and fast. {@link InMemoryRepositoryMetrics} collects the
+ * metrics in memory.
+ * <p>
+ * Each call carries the directory of the repository, which identifies the repository and, for
+ * {@link WorkspaceEntityFileSystemRepository}, the workspace.
+ */
+public interface RepositoryMetrics {
+
+    /**
+     * Ignores all metrics. Repositories skip measuring if this instance is configured.
+     */
+    RepositoryMetrics NONE = new RepositoryMetrics() {};
+
+    /**
+     * Called when an operation has completed, successfully or not.
+     *
+     * @param repository    The directory of the repository.
+     * @param operation     The operation.
+     * @param durationNanos The duration of the operation in nanoseconds.
+     */
+    default void onOperation(String repository, Operation operation, long durationNanos) {}
+
+    /**
+     * Called when a query which filters entities with a predicate has completed.
+     *
+     * @param repository The directory of the repository.
+     * @param scanned    The number of entities which have been read.
+     * @param matched    The number of entities which matched the predicate.
+     */
+    default void onScan(String repository, long scanned, long matched) {}
+
+    /**
+     * Called when an entity could not be read or decoded and has been skipped.
+     *
+     * @param repository The directory of the repository.
+     * @param id         The id of the entity.
+     */
+    default void onReadFailure(String repository, String id) {}
+
+    /**
+     * Called when an entity has been read from disk.
+     *
+     * @param repository The directory of the repository.
+     * @param bytes      The size of the encoded entity.
+     */
+    default void onBytesRead(String repository, long bytes) {}
+
+    /**
+     * Called when an entity has been written to disk.
+     *
+     * @param repository The directory of the repository.
+     * @param bytes      The size of the encoded entity.
+     */
+    default void onBytesWritten(String repository, long bytes) {}
+
+    /**
+     * Called when a single entity has been looked up in the cache, if caching is enabled.
+     *
+     * @param repository The directory of the repository.
+     * @param hit        Whether the cache could answer the lookup.
+     */
+    default void onCacheLookup(String repository, boolean hit) {}
+
+    /**
+     * The measured operations of a repository.
+     */
+    enum Operation {
+        COUNT,
+        DELETE,
+        DELETE_ALL,
+        EXISTS_BY_ID,
+        FIND_ALL,
+        FIND_ALL_BY,
+        FIND_BY_ID,
+        FIND_BY_INDEX,
+        FIND_PAGE,
+        LIST_IDS,
+        SAVE,
+        SAVE_ALL
+    }
+}
@@ -0,0 +1,379 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.Operators;
+import com.wellnr.commons.functions.Procedure1;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Packs all entities of a storage into a single stream and restores them. A snapshot contains the encoded entities
+ * as stored, hence it can only be imported into storages with the same format, see
+ * {@link EntityStorage#getFormat()}.
+ * <p>
+ * Layout: A header {@code [magic][version][compressed]} is followed by the body, which is compressed with GZIP if
+ * enabled. The body contains the format, the records {@code [1][id][length][content]}, an end marker {@code [0]},
+ * the index {@code [count]([id][offset][length])*} with the offset of each record within the body, the offset of
+ * the index and finally the CRC32 checksum of all preceding bytes of the body.
+ * <p>
+ * Snapshots are verified completely before the first entity is imported, hence truncated or corrupted snapshots do
+ * not change the storage.
+ */
+final class Snapshots {
+
+    private static final int MAGIC = 0x57534E50;
+
+    private static final int FORMAT_VERSION = 2;
+
+    /**
+     * The size of the header {@code [magic][version][compressed]} in bytes.
+     */
+    private static final int HEADER_SIZE = 9;
+
+    private static final byte RECORD = 1;
+
+    private static final byte END = 0;
+
+    private Snapshots() {}
+
+    /**
+     * Writes all entities of a storage to a stream. The stream is not closed.
+     *
+     * @param storage  The storage.
+     * @param output   The stream to write to.
+     * @param compress Whether the body is compressed with GZIP.
+     * @return The number of written entities.
+     */
+    static long write(EntityStorage<?> storage, OutputStream output, boolean compress) {
+        try {
+            var header = new DataOutputStream(output);
+            header.writeInt(MAGIC);
+            header.writeInt(FORMAT_VERSION);
+            header.writeBoolean(compress);
+            header.flush();
+
+            var compressed =
+                    compress
+                            ? new GZIPOutputStream(new NonClosingOutputStream(output), 8192)
+                            : null;
+            var counter =
+                    new CountingOutputStream(
+                            new BufferedOutputStream(
+                                    Objects.requireNonNullElse(compressed, output), 8192));
+            var checksum = new CRC32();
+            var body = new DataOutputStream(new CheckedOutputStream(counter, checksum));
+            var index = new ArrayList<IndexEntry>();
+
+            body.writeUTF(storage.getFormat());
+
+            for (var id : storage.ids()) {
+                // Entities which have been deleted since the ids have been listed are skipped.
+                var content = storage.readBytes(id);
+
+                if (content.isEmpty()) {
+                    continue;
+                }
+
+                body.flush();
+                index.add(new IndexEntry(id, counter.count, content.get().length));
+
+                body.writeByte(RECORD);
+                body.writeUTF(id);
+                body.writeInt(content.get().length);
+                body.write(content.get());
+            }
+
+            body.writeByte(END);
+            body.flush();
+
+            var indexOffset = counter.count;
+            body.writeInt(index.size());
+
+            for (var entry : index) {
+                body.writeUTF(entry.id());
+                body.writeLong(entry.offset());
+                body.writeInt(entry.length());
+            }
+
+            body.writeLong(indexOffset);
+            body.flush();
+
+            var trailer = new DataOutputStream(counter);
+            trailer.writeLong(checksum.getValue());
+            trailer.flush();
+
+            if (Objects.nonNull(compressed)) {
+                compressed.finish();
+            }
+
+            output.flush();
+            return index.size();
+        } catch (IOException ex) {
+            return Operators.wrapAndThrow(ex);
+        }
+    }
+
+    /**
+     * Reads the entities of a snapshot and passes them in batches to a procedure. The stream is copied to a temporary
+     * file and verified before the first batch is passed. The stream is not closed.
+     *
+     * @param input     The stream to read from.
+     * @param storage   The target storage, its format must match the format of the snapshot.
+     * @param batchSize The maximum number of entities per batch.
+     * @param write     The procedure which writes a batch of entities.
+     * @return The number of read entities.
+     * @throws IllegalArgumentException If the snapshot is incomplete, corrupted or contains invalid ids.
+     */
+    static long read(
+            InputStream input,
+            EntityStorage<?> storage,
+            int batchSize,
+            Procedure1<List<Entry>> write) {
+        Path spool = null;
+
+        try {
+            spool = Files.createTempFile("snapshot-", ".tmp");
+
+            try (var output = Files.newOutputStream(spool)) {
+                input.transferTo(output);
+            }
+
+            var size = Files.size(spool);
+
+            try (var verify = Files.newInputStream(spool)) {
+                scan(verify, size, storage, batchSize, null);
+            }
+
+            try (var entries = Files.newInputStream(spool)) {
+                return scan(entries, size, storage, batchSize, write);
+            }
+        } catch (EOFException ex) {
+            throw new IllegalArgumentException("The snapshot is incomplete.", ex);
+        } catch (ZipException ex) {
+            throw new IllegalArgumentException("The snapshot is corrupted.", ex);
+        } catch (Exception ex) {
+            return Operators.wrapAndThrow(ex);
+        } finally {
+            var file = spool;
+
+            if (Objects.nonNull(file)) {
+                Operators.ignoreExceptions(() -> Files.deleteIfExists(file));
+            }
+        }
+    }
+
+    /**
+     * Reads and verifies a snapshot.
+     *
+     * @param input     The stream to read from.
+     * @param size      The size of the snapshot in bytes.
+     * @param storage   The target storage.
+     * @param batchSize The maximum number of entities per batch.
+     * @param write     The procedure which writes a batch of entities, {@code null} to verify the snapshot only.
+     * @return The number of read entities.
+     */
+    private static long scan(
+            InputStream input,
+            long size,
+            EntityStorage<?> storage,
+            int batchSize,
+            Procedure1<List<Entry>> write)
+            throws Exception {
+        var header = new DataInputStream(input);
+
+        if (header.readInt() != MAGIC) {
+            throw new IllegalArgumentException("The stream does not contain a snapshot.");
+        }
+
+        var version = header.readInt();
+
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException(
+                    String.format("Unsupported snapshot version %d.", version));
+        }
+
+        var compressed = header.readBoolean();
+        var buffered =
+                new BufferedInputStream(
+                        compressed ? new GZIPInputStream(input, 8192) : input, 8192);
+        var counter = new CountingInputStream(buffered);
+        var checksum = new CRC32();
+        var body = new DataInputStream(new CheckedInputStream(counter, checksum));
+        var snapshotFormat = body.readUTF();
+
+        if (!snapshotFormat.equals(storage.getFormat())) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "The snapshot contains entities in format `%s`, but the repository uses"
+                                    + " format `%s`.",
+                            snapshotFormat, storage.getFormat()));
+        }
+
+        var ids = new ArrayList<String>();
+        var lengths = new ArrayList<Integer>();
+        var batch = new ArrayList<Entry>();
+
+        while (body.readByte() == RECORD) {
+            var id = body.readUTF();
+            var length = body.readInt();
+
+            // Compressed records may be larger than the snapshot, they are read in chunks to
+            // detect missing bytes before the whole length is allocated.
+            var remaining = compressed ? Long.MAX_VALUE : size - HEADER_SIZE - counter.count;
+
+            if (length < 0 || length > remaining) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "The snapshot contains entity `%s` with invalid length %d.",
+                                id, length));
+            }
+
+            var content = body.readNBytes(length);
+
+            if (content.length != length) {
+                throw new EOFException();
+            }
+
+            storage.validateId(id);
+
+            ids.add(id);
+            lengths.add(content.length);
+
+            if (Objects.isNull(write)) {
+                continue;
+            }
+
+            batch.add(new Entry(id, content));
+
+            if (batch.size() >= batchSize) {
+                write.apply(List.copyOf(batch));
+                batch.clear();
+            }
+        }
+
+        if (!batch.isEmpty()) {
+            write.apply(List.copyOf(batch));
+        }
+
+        // The index is not required to restore the entities sequentially, it is used to detect
+        // incomplete snapshots.
+        var count = body.readInt();
+
+        if (count != ids.size()) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "The snapshot index lists %d entities, but %d have been read.",
+                            count, ids.size()));
+        }
+
+        for (var i = 0; i < count; i++) {
+            var id = body.readUTF();
+            body.readLong();
+
+            if (!id.equals(ids.get(i)) || body.readInt() != lengths.get(i)) {
+                throw new IllegalArgumentException(
+                        "The snapshot index does not match its entities.");
+            }
+        }
+
+        body.readLong();
+
+        var expected = checksum.getValue();
+
+        if (new DataInputStream(buffered).readLong() != expected) {
+            throw new IllegalArgumentException("The checksum of the snapshot does not match.");
+        }
+
+        return ids.size();
+    }
+
+    /**
+     * An encoded entity of a snapshot.
+     *
+     * @param id      The id of the entity.
+     * @param content The encoded entity.
+     */
+    record Entry(String id, byte[] content) {}
+
+    private record IndexEntry(String id, long offset, int length) {}
+
+    /**
+     * Counts the bytes read from the body to check the lengths of records.
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            var b = in.read();
+
+            if (b >= 0) {
+                count++;
+            }
+
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            var read = in.read(b, off, len);
+
+            if (read > 0) {
+                count += read;
+            }
+
+            return read;
+        }
+    }
+
+    /**
+     * Counts the bytes written to the body to compute the offsets of the index.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        private CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
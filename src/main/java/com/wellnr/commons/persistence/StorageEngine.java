@@ -0,0 +1,25 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+/**
+ * The storage engines which can be used by {@link FileSystemRepository}.
+ */
+public enum StorageEngine {
+
+    /**
+     * Each entity is stored in its own file. The files can be read and changed by other processes.
+     */
+    FILE_PER_ENTITY,
+
+    /**
+     * Entities are appended to segment files and located by an in-memory index of their offsets. Segments with
+     * mostly outdated records are compacted in the background. Saves are sequential appends and loading all
+     * entities reads a few large files instead of many small ones.
+     * <p>
+     * The engine requires an {@link EntityCodec}. The segments must only be accessed by a single process.
+     */
+    LOG_STRUCTURED
+}
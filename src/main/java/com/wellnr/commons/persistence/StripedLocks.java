@@ -0,0 +1,41 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed set of locks which are assigned to keys by their hash. Operations on the same key are serialized, while
+ * operations on different keys usually run in parallel.
+ */
+final class StripedLocks {
+
+    private final ReentrantLock[] locks;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param stripes The number of locks, rounded up to the next power of two.
+     */
+    StripedLocks(int stripes) {
+        var size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.locks = new ReentrantLock[size];
+
+        for (var i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Returns the lock of a key.
+     *
+     * @param key The key.
+     * @return The lock assigned to the key.
+     */
+    ReentrantLock get(String key) {
+        var hash = key.hashCode();
+        return locks[(hash ^ (hash >>> 16)) & (locks.length - 1)];
+    }
+}
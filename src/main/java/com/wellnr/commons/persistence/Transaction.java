@@ -0,0 +1,264 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Saves and deletes entities of one or more repositories atomically. Writes are collected until
+ * {@link #commit()}, which
+ * <ol>
+ *     <li>writes the entities to temporary files next to their entity files and checks unique index keys,</li>
+ *     <li>checks the unique index keys again while the affected entities are locked,</li>
+ *     <li>records the renames and deletes in the write-ahead log, which is the point of commit,</li>
+ *     <li>applies the renames and deletes while the affected entities are locked,</li>
+ *     <li>and removes the log entry.</li>
+ * </ol>
+ * If the process crashes after the log has been written, the transaction is completed by
+ * {@link Transactions#apply(Path)} on the next start. If it crashes before, no entity has been changed.
+ * <p>
+ * Readers which do not lock may observe a transaction while it is applied. Transactions are not isolated from each
+ * other while their writes are collected; the last commit wins.
+ */
+public final class Transaction implements AutoCloseable {
+
+    /**
+     * Serializes the application of transactions, which lock multiple entities at the same time. Plain writes only
+     * lock a single entity, hence they cannot deadlock with transactions.
+     */
+    private static final ReentrantLock COMMIT_LOCK = new ReentrantLock();
+
+    /**
+     * The directory of the write-ahead log.
+     */
+    private final Path directory;
+
+    private final List<Write<?>> writes;
+
+    /**
+     * Leases of the workspace repositories of the writes, which keep the repositories open until the transaction
+     * is completed.
+     */
+    private final List<WorkspaceRepositoryPool.Lease<?>> leases;
+
+    private boolean completed;
+
+    Transaction(Path directory) {
+        this.directory = directory;
+        this.writes = new ArrayList<>();
+        this.leases = new ArrayList<>();
+        this.completed = false;
+    }
+
+    /**
+     * Saves an entity when the transaction is committed.
+     *
+     * @param repository The repository of the entity.
+     * @param entity     The entity.
+     * @param <T>        The type of the entity.
+     * @return This transaction.
+     */
+    public synchronized <T> Transaction save(FileSystemRepository<T> repository, T entity) {
+        checkOpen();
+        writes.add(new Write<>(repository, repository.getEntityId(entity), entity));
+        return this;
+    }
+
+    /**
+     * Saves an entity within a workspace when the transaction is committed.
+     *
+     * @param repository  The repository of the entity.
+     * @param workspaceId The id of the workspace.
+     * @param entity      The entity.
+     * @param <T>         The type of the entity.
+     * @return This transaction.
+     */
+    public <T> Transaction save(
+            WorkspaceEntityFileSystemRepository<T> repository, String workspaceId, T entity) {
+        return save(lease(repository, workspaceId), entity);
+    }
+
+    /**
+     * Deletes an entity when the transaction is committed.
+     *
+     * @param repository The repository of the entity.
+     * @param id         The id of the entity.
+     * @param <T>        The type of the entity.
+     * @return This transaction.
+     */
+    public synchronized <T> Transaction delete(FileSystemRepository<T> repository, String id) {
+        checkOpen();
+        writes.add(new Write<>(repository, id, null));
+        return this;
+    }
+
+    /**
+     * Deletes an entity within a workspace when the transaction is committed.
+     *
+     * @param repository  The repository of the entity.
+     * @param workspaceId The id of the workspace.
+     * @param id          The id of the entity.
+     * @param <T>         The type of the entity.
+     * @return This transaction.
+     */
+    public <T> Transaction delete(
+            WorkspaceEntityFileSystemRepository<T> repository, String workspaceId, String id) {
+        return delete(lease(repository, workspaceId), id);
+    }
+
+    /**
+     * Applies all writes of the transaction atomically. If staging fails, e.g. because of a unique index key, no
+     * entity is changed. If applying fails after the log has been written, the transaction is completed by
+     * {@link Transactions#apply(Path)}.
+     */
+    public synchronized void commit() {
+        checkOpen();
+        completed = true;
+
+        try {
+            apply();
+        } finally {
+            releaseLeases();
+        }
+    }
+
+    /**
+     * Discards the transaction if it has not been committed.
+     */
+    @Override
+    public synchronized void close() {
+        completed = true;
+        releaseLeases();
+    }
+
+    private void apply() {
+        if (writes.isEmpty()) {
+            return;
+        }
+
+        var operations = new ArrayList<WriteAheadLog.Operation>();
+
+        try {
+            for (var write : writes) {
+                write.stage();
+                operations.addAll(write.operations);
+            }
+        } catch (RuntimeException ex) {
+            writes.stream()
+                    .map(write -> write.operations)
+                    .filter(Objects::nonNull)
+                    .forEach(WriteAheadLog::discard);
+            throw ex;
+        }
+
+        COMMIT_LOCK.lock();
+
+        var locked = new ArrayList<ReentrantLock>();
+
+        try {
+            for (var write : writes) {
+                var lock = write.getLock();
+                lock.lock();
+                locked.add(lock);
+            }
+
+            Path log;
+
+            // Unique keys may have been claimed by concurrent saves or by other writes of this
+            // transaction since staging, hence they are checked again while all entities are
+            // locked.
+            try {
+                writes.forEach(Write::validate);
+                log = WriteAheadLog.write(directory, operations);
+            } catch (RuntimeException ex) {
+                WriteAheadLog.discard(operations);
+                writes.forEach(Write::discard);
+                throw ex;
+            }
+
+            writes.forEach(Write::apply);
+            WriteAheadLog.sync(operations);
+            WriteAheadLog.complete(log);
+        } finally {
+            for (var i = locked.size() - 1; i >= 0; i--) {
+                locked.get(i).unlock();
+            }
+
+            COMMIT_LOCK.unlock();
+        }
+    }
+
+    private synchronized <T> FileSystemRepository<T> lease(
+            WorkspaceEntityFileSystemRepository<T> repository, String workspaceId) {
+        checkOpen();
+
+        var lease = repository.acquire(workspaceId);
+        leases.add(lease);
+        return lease.getRepository();
+    }
+
+    private void releaseLeases() {
+        leases.forEach(WorkspaceRepositoryPool.Lease::close);
+        leases.clear();
+    }
+
+    private void checkOpen() {
+        if (completed) {
+            throw new IllegalStateException("The transaction has already been completed.");
+        }
+    }
+
+    /**
+     * A save or delete of a transaction.
+     *
+     * @param <T> The type of the entity.
+     */
+    private static final class Write<T> {
+
+        private final FileSystemRepository<T> repository;
+
+        private final String id;
+
+        /**
+         * The entity to save, {@code null} if the entity is deleted.
+         */
+        private final T entity;
+
+        /**
+         * The file operations which apply the write, {@code null} until the write has been staged.
+         */
+        private List<WriteAheadLog.Operation> operations;
+
+        private Write(FileSystemRepository<T> repository, String id, T entity) {
+            this.repository = repository;
+            this.id = id;
+            this.entity = entity;
+        }
+
+        private void stage() {
+            operations = repository.stage(id, entity);
+        }
+
+        private ReentrantLock getLock() {
+            return repository.getLock(id);
+        }
+
+        private void validate() {
+            repository.validateStaged(id, entity);
+        }
+
+        private void discard() {
+            repository.discardStaged(id);
+        }
+
+        private void apply() {
+            repository.applyStaged(id, entity, operations);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.Operators;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Creates transactions which save and delete entities of one or more repositories atomically, see
+ * {@link Transaction}. Committed transactions are recorded in a write-ahead log within a directory, transactions
+ * which have not been applied completely because of a crash are replayed when the instance is created.
+ * <p>
+ * Create the instance on startup, before repositories of the affected directories are used. Transactions are
+ * supported by {@link StorageEngine#FILE_PER_ENTITY} and must only be used by a single process per directory.
+ */
+public final class Transactions {
+
+    /**
+     * The directory of the write-ahead log.
+     */
+    private final Path directory;
+
+    private Transactions(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Creates a new instance and replays transactions which have been committed but not applied completely.
+     *
+     * @param directory The directory of the write-ahead log.
+     * @return The new instance.
+     */
+    public static Transactions apply(Path directory) {
+        Operators.suppressExceptions(
+                () -> {
+                    Files.createDirectories(directory);
+                });
+
+        WriteAheadLog.recover(directory);
+        return new Transactions(directory);
+    }
+
+    /**
+     * Starts a new transaction.
+     *
+     * @return The transaction.
+     */
+    public Transaction begin() {
+        return new Transaction(directory);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * An entity together with the version it has been read with.
+ *
+ * @param <T> the type of the entity.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class VersionedEntity<T> {
+
+    T entity;
+
+    EntityVersion version;
+
+    /**
+     * Creates a new instance.
+     *
+     * @param entity  The entity.
+     * @param version The version of the entity.
+     * @param <T>     The type of the entity.
+     * @return The new instance.
+     */
+    public static <T> VersionedEntity<T> apply(T entity, EntityVersion version) {
+        return new VersionedEntity<>(entity, version);
+    }
+}
@@ -4,14 +4,27 @@
  */
 package com.wellnr.commons.persistence;
 
+import com.wellnr.commons.Operators;
 import com.wellnr.commons.StringOperators;
 import com.wellnr.commons.functions.Function1;
+import com.wellnr.commons.functions.Procedure1;
 import com.wellnr.commons.functions.Procedure2;
+import com.wellnr.commons.markup.Result;
+import com.wellnr.commons.markup.Tuple2;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Predicate;
 import java.util.stream.Stream;
 import lombok.extern.slf4j.Slf4j;
@@ -22,7 +35,7 @@ import lombok.extern.slf4j.Slf4j;
  * @param <T> the type of the entity managed by the repository.
  */
 @Slf4j
-public class WorkspaceEntityFileSystemRepository<T> {
+public class WorkspaceEntityFileSystemRepository<T> implements AutoCloseable {
 
     /**
      * The function that returns the id of an entity.
@@ -44,6 +57,11 @@ public class WorkspaceEntityFileSystemRepository<T> {
      */
     private final Procedure2<Path, T> writeValue;
 
+    /**
+     * The codec to encode entities, {@code null} if entities are written with {@link #writeValue}.
+     */
+    private final EntityCodec<T> codec;
+
     /**
      * The name of the entity type. This value is used to create file-name extensions.
      */
@@ -55,9 +73,36 @@ public class WorkspaceEntityFileSystemRepository<T> {
     private final String directoryName;
 
     /**
-     * Repositories mapped for each workspace.
+     * Optional settings which are passed to the repository of each workspace.
      */
-    private final Map<String, FileSystemRepository<T>> repositories;
+    private final FileSystemRepositoryOptions options;
+
+    /**
+     * Secondary indexes which are registered at the repository of each workspace.
+     */
+    private final List<Procedure1<FileSystemRepository<T>>> indexes;
+
+    /**
+     * Excludes the registration of indexes while repositories are created, see {@link #createRepository(String)}.
+     */
+    private final ReadWriteLock indexesLock;
+
+    /**
+     * Listeners which are called when the repository of a workspace is evicted from {@link #repositories}.
+     */
+    private final List<Procedure1<String>> evictionListeners;
+
+    /**
+     * Repositories of recently used workspaces. Lookups are lock-free, each repository is created only once as long
+     * as it is part of the pool. Each operation leases the repository, hence it is not closed by eviction while it is
+     * in use.
+     */
+    private final WorkspaceRepositoryPool<T> repositories;
+
+    /**
+     * The non-blocking facade, {@code null} until it is requested with {@link #async()}.
+     */
+    private AsyncWorkspaceEntityFileSystemRepository<T> async;
 
     /**
      * Creates a new file system repository.
@@ -69,6 +114,7 @@ public class WorkspaceEntityFileSystemRepository<T> {
      * @param writeValue       The function that writes an entity to a file.
      * @param entityName       The name of the entity type. This value is used to create file-name extensions.
      * @param directoryName    The name of the directory where the entities are stored (within working directory).
+     * @param options          Optional settings which are passed to the repository of each workspace.
      */
     public WorkspaceEntityFileSystemRepository(
             Class<T> entityClass,
@@ -77,15 +123,98 @@ public class WorkspaceEntityFileSystemRepository<T> {
             Function1<Path, T> readValue,
             Procedure2<Path, T> writeValue,
             String entityName,
-            String directoryName) {
+            String directoryName,
+            FileSystemRepositoryOptions options) {
+        this(
+                getId,
+                workingDirectory,
+                readValue,
+                writeValue,
+                null,
+                entityName,
+                directoryName,
+                options);
+    }
+
+    /**
+     * Creates a new file system repository which encodes entities with a codec. Codecs are supported by all
+     * storage engines, see {@link FileSystemRepositoryOptions#getStorageEngine()}.
+     *
+     * @param entityClass      the type of the entity managed by the repository.
+     * @param getId            the function that returns the id of an entity.
+     * @param workingDirectory The working directory where the entities are stored.
+     * @param codec            The codec to encode and decode entities.
+     * @param entityName       The name of the entity type. This value is used to create file-name extensions.
+     * @param directoryName    The name of the directory where the entities are stored (within working directory).
+     * @param options          Optional settings which are passed to the repository of each workspace.
+     */
+    public WorkspaceEntityFileSystemRepository(
+            Class<T> entityClass,
+            Function1<T, String> getId,
+            Path workingDirectory,
+            EntityCodec<T> codec,
+            String entityName,
+            String directoryName,
+            FileSystemRepositoryOptions options) {
+        this(getId, workingDirectory, null, null, codec, entityName, directoryName, options);
+    }
+
+    private WorkspaceEntityFileSystemRepository(
+            Function1<T, String> getId,
+            Path workingDirectory,
+            Function1<Path, T> readValue,
+            Procedure2<Path, T> writeValue,
+            EntityCodec<T> codec,
+            String entityName,
+            String directoryName,
+            FileSystemRepositoryOptions options) {
 
         this.getId = getId;
         this.workingDirectory = workingDirectory.resolve("workspaces");
         this.readValue = readValue;
         this.writeValue = writeValue;
+        this.codec = codec;
         this.entityName = entityName;
         this.directoryName = directoryName;
-        this.repositories = new HashMap<>();
+        this.options = options;
+        this.indexes = new CopyOnWriteArrayList<>();
+        this.indexesLock = new ReentrantReadWriteLock();
+        this.evictionListeners = new CopyOnWriteArrayList<>();
+        this.repositories =
+                new WorkspaceRepositoryPool<>(
+                        options.getMaxOpenWorkspaces(),
+                        options.getWorkspaceIdleTimeout(),
+                        this::onEvicted);
+    }
+
+    /**
+     * Creates a new file system repository.
+     *
+     * @param entityClass      the type of the entity managed by the repository.
+     * @param getId            the function that returns the id of an entity.
+     * @param workingDirectory The working directory where the entities are stored.
+     * @param readValue        The function that reads an entity from a file.
+     * @param writeValue       The function that writes an entity to a file.
+     * @param entityName       The name of the entity type. This value is used to create file-name extensions.
+     * @param directoryName    The name of the directory where the entities are stored (within working directory).
+     */
+    public WorkspaceEntityFileSystemRepository(
+            Class<T> entityClass,
+            Function1<T, String> getId,
+            Path workingDirectory,
+            Function1<Path, T> readValue,
+            Procedure2<Path, T> writeValue,
+            String entityName,
+            String directoryName) {
+        this(
+                entityClass,
+                getId,
+                workingDirectory,
+                readValue,
+                writeValue,
+                entityName,
+                directoryName,
+                FileSystemRepositoryOptions.apply());
     }
 
     /**
@@ -139,52 +268,374 @@ public class WorkspaceEntityFileSystemRepository<T> {
                 StringOperators.camelCaseToKebabCase(entityClass.getSimpleName()));
     }
 
+    /**
+     * Registers a listener which is called with the workspace id when the repository of a workspace is closed
+     * because of {@link FileSystemRepositoryOptions#getMaxOpenWorkspaces()} or
+     * {@link FileSystemRepositoryOptions#getWorkspaceIdleTimeout()}. It can be used to release other resources which
+     * are held per workspace.
+     *
+     * @param listener The listener.
+     */
+    public void addEvictionListener(Procedure1<String> listener) {
+        evictionListeners.add(listener);
+    }
+
+    /**
+     * Returns a non-blocking facade of the repository, which runs the operations on the executor configured in the
+     * options.
+     *
+     * @return The facade.
+     */
+    public synchronized AsyncWorkspaceEntityFileSystemRepository<T> async() {
+        if (Objects.isNull(async)) {
+            async =
+                    new AsyncWorkspaceEntityFileSystemRepository<>(
+                            this,
+                            new BoundedExecutor(
+                                    RepositoryExecutors.getExecutor(options),
+                                    options.getMaxInFlightAsyncOperations()));
+        }
+
+        return async;
+    }
+
+    /**
+     * Closes the repositories of all workspaces.
+     */
+    @Override
+    public void close() {
+        repositories.clear();
+    }
+
+    /**
+     * Returns a publisher of all changes of entities within a workspace, see {@link FileSystemRepository#changes()}.
+     * The repository of the workspace is not evicted while it has subscribers.
+     *
+     * @param workspaceId The id of the workspace.
+     * @return The publisher of changes.
+     */
+    public Flow.Publisher<EntityChange<T>> changes(String workspaceId) {
+        return subscriber ->
+                runWithRepository(
+                        workspaceId, repository -> repository.changes().subscribe(subscriber));
+    }
+
+    public long count(String workspaceId) {
+        return withRepository(workspaceId, repository -> repository.count());
+    }
+
     public void delete(String workspaceId, String id) {
-        getRepository(workspaceId).delete(id);
+        runWithRepository(workspaceId, repository -> repository.delete(id));
     }
 
     public void delete(String workspaceId, T entity) {
-        getRepository(workspaceId);
+        runWithRepository(workspaceId, repository -> repository.delete(entity));
+    }
+
+    public void delete(String workspaceId, String id, EntityVersion expectedVersion) {
+        runWithRepository(workspaceId, repository -> repository.delete(id, expectedVersion));
+    }
+
+    public List<Result<String>> deleteAll(String workspaceId, Collection<String> ids) {
+        return withRepository(workspaceId, repository -> repository.deleteAll(ids));
     }
 
     public List<T> findAll(String workspaceId) {
-        return getRepository(workspaceId).findAll();
+        return withRepository(workspaceId, repository -> repository.findAll());
+    }
+
+    /**
+     * Finds all entities which match a predicate in all workspaces, see {@link #listWorkspaces()}. The workspaces
+     * are scanned concurrently as configured with {@link FileSystemRepositoryOptions#getParallelism()}.
+     *
+     * @param predicate The predicate to filter the entities.
+     * @return The workspace id and the entity of each match, ordered by workspace id and entity id.
+     */
+    public List<Tuple2<String, T>> findAllAcrossWorkspaces(Predicate<T> predicate) {
+        var results =
+                RepositoryExecutors.map(
+                        listWorkspaces(),
+                        workspaceId -> findAllInWorkspace(workspaceId, predicate),
+                        options.getParallelism(),
+                        RepositoryExecutors.getExecutor(options));
+
+        return results.stream().flatMap(List::stream).toList();
+    }
+
+    /**
+     * Returns a lazy stream of the entities which match a predicate in all workspaces, see
+     * {@link #findAllAcrossWorkspaces(Predicate)}. Workspaces are scanned while the stream is consumed, at most
+     * {@link FileSystemRepositoryOptions#getParallelism()} workspaces ahead of the consumer. The stream must be
+     * closed.
+     *
+     * @param predicate The predicate to filter the entities.
+     * @return The stream of workspace ids and entities, ordered by workspace id and entity id.
+     */
+    public Stream<Tuple2<String, T>> findAllAcrossWorkspacesAsStream(Predicate<T> predicate) {
+        return RepositoryExecutors.mapLazily(
+                        listWorkspaces(),
+                        workspaceId -> findAllInWorkspace(workspaceId, predicate),
+                        options.getParallelism(),
+                        RepositoryExecutors.getExecutor(options))
+                .flatMap(List::stream);
     }
 
     public List<T> findAllBy(String workspaceId, Predicate<T> predicate) {
-        return getRepository(workspaceId).findAllBy(predicate);
+        return withRepository(workspaceId, repository -> repository.findAllBy(predicate));
+    }
+
+    public Stream<T> findAllAsStream(String workspaceId) {
+        return streamWithRepository(workspaceId, FileSystemRepository::findAllAsStream);
     }
 
     public Stream<T> findAllByAsStream(String workspaceId, Predicate<T> predicate) {
-        return getRepository(workspaceId).findAll().stream().filter(predicate);
+        return streamWithRepository(
+                workspaceId, repository -> repository.findAllByAsStream(predicate));
     }
 
     public Optional<T> findOneBy(String workspaceId, Predicate<T> predicate) {
-        return getRepository(workspaceId).findAllByAsStream(predicate).findFirst();
+        return withRepository(workspaceId, repository -> repository.findOneBy(predicate));
+    }
+
+    public Page<T> findPage(String workspaceId, Predicate<T> predicate, String cursor, int limit) {
+        return withRepository(
+                workspaceId, repository -> repository.findPage(predicate, cursor, limit));
+    }
+
+    public Page<T> findPage(
+            String workspaceId,
+            Predicate<T> predicate,
+            Comparator<T> comparator,
+            String cursor,
+            int limit) {
+        return withRepository(
+                workspaceId,
+                repository -> repository.findPage(predicate, comparator, cursor, limit));
+    }
+
+    public List<T> findByIndex(String workspaceId, String name, Object key) {
+        return withRepository(workspaceId, repository -> repository.findByIndex(name, key));
+    }
+
+    public Optional<T> findOneByIndex(String workspaceId, String name, Object key) {
+        return withRepository(workspaceId, repository -> repository.findOneByIndex(name, key));
+    }
+
+    public boolean existsById(String workspaceId, String id) {
+        return withRepository(workspaceId, repository -> repository.existsById(id));
+    }
+
+    public CompletableFuture<Void> flush(String workspaceId) {
+        var lease = repositories.acquire(workspaceId, this::createRepository);
+
+        try {
+            return lease.getRepository().flush().whenComplete((result, ex) -> lease.close());
+        } catch (RuntimeException ex) {
+            lease.close();
+            throw ex;
+        }
     }
 
     public Optional<T> findById(String workspaceId, String id) {
-        return getRepository(workspaceId).findById(id);
+        return withRepository(workspaceId, repository -> repository.findById(id));
+    }
+
+    public Optional<VersionedEntity<T>> findVersionedById(String workspaceId, String id) {
+        return withRepository(workspaceId, repository -> repository.findVersionedById(id));
+    }
+
+    /**
+     * Lists the ids of all workspaces which contain a directory of this repository.
+     *
+     * @return The workspace ids, sorted.
+     */
+    public List<String> listWorkspaces() {
+        if (!Files.isDirectory(workingDirectory)) {
+            return List.of();
+        }
+
+        try (var list = Operators.suppressExceptions(() -> Files.list(workingDirectory))) {
+            return list.filter(
+                            workspace ->
+                                    Files.isDirectory(
+                                            workspace.resolve(directoryName.toLowerCase())))
+                    .map(workspace -> workspace.getFileName().toString())
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    public List<String> listIds(String workspaceId) {
+        return withRepository(workspaceId, repository -> repository.listIds());
+    }
+
+    public Stream<String> listIdsAsStream(String workspaceId) {
+        return streamWithRepository(workspaceId, FileSystemRepository::listIdsAsStream);
+    }
+
+    public long migrateToShardedLayout(String workspaceId) {
+        return withRepository(workspaceId, repository -> repository.migrateToShardedLayout());
+    }
+
+    public long exportSnapshot(String workspaceId, OutputStream output) {
+        return withRepository(workspaceId, repository -> repository.exportSnapshot(output));
+    }
+
+    public long exportSnapshot(String workspaceId, OutputStream output, boolean compress) {
+        return withRepository(
+                workspaceId, repository -> repository.exportSnapshot(output, compress));
+    }
+
+    public long importSnapshot(String workspaceId, InputStream input) {
+        return withRepository(workspaceId, repository -> repository.importSnapshot(input));
+    }
+
+    /**
+     * Registers a secondary index for all workspaces, see
+     * {@link FileSystemRepository#registerIndex(String, Function1, boolean)}. Indexes are maintained per workspace.
+     *
+     * @param name      The name of the index.
+     * @param extractor The function to extract the key from an entity.
+     * @param unique    Whether a key may only be assigned to one entity within a workspace.
+     */
+    public void registerIndex(String name, Function1<T, ?> extractor, boolean unique) {
+        Procedure1<FileSystemRepository<T>> register =
+                repository -> repository.registerIndex(name, extractor, unique);
+
+        indexesLock.writeLock().lock();
+
+        try {
+            indexes.add(register);
+            repositories.values().forEach(register::run);
+        } finally {
+            indexesLock.writeLock().unlock();
+        }
     }
 
     public void save(String workspaceId, T entity) {
-        getRepository(workspaceId).save(entity);
+        runWithRepository(workspaceId, repository -> repository.save(entity));
+    }
+
+    public EntityVersion save(String workspaceId, T entity, EntityVersion expectedVersion) {
+        return withRepository(workspaceId, repository -> repository.save(entity, expectedVersion));
+    }
+
+    public List<Result<T>> saveAll(String workspaceId, Collection<T> entities) {
+        return withRepository(workspaceId, repository -> repository.saveAll(entities));
     }
 
-    private FileSystemRepository<T> getRepository(String workspaceId) {
-        if (!repositories.containsKey(workspaceId)) {
-            var repository =
-                    new FileSystemRepository<>(
-                            getId,
-                            workingDirectory.resolve(workspaceId),
-                            readValue,
-                            writeValue,
-                            entityName,
-                            directoryName);
+    /**
+     * Leases the repository of a workspace, which is created if it is not open yet. The repository is not closed by
+     * eviction before the lease is released.
+     *
+     * @param workspaceId The id of the workspace.
+     * @return The lease, which must be closed after use.
+     */
+    WorkspaceRepositoryPool.Lease<T> acquire(String workspaceId) {
+        return repositories.acquire(workspaceId, this::createRepository);
+    }
+
+    /**
+     * Finds the matching entities of a workspace for queries across workspaces. Pooled repositories are used as
+     * they are, other workspaces are read with a separate repository without cache and indexes, hence scanning all
+     * workspaces does not evict the pooled repositories.
+     *
+     * @param workspaceId The id of the workspace.
+     * @param predicate   The predicate to filter the entities.
+     * @return The workspace id and the entity of each match, ordered by entity id.
+     */
+    private List<Tuple2<String, T>> findAllInWorkspace(String workspaceId, Predicate<T> predicate) {
+        try (var pooled = repositories.acquireIfPresent(workspaceId)) {
+            if (Objects.nonNull(pooled)) {
+                return findAllInRepository(workspaceId, pooled.getRepository(), predicate);
+            }
+        }
+
+        // Workspaces which are not in use are read without adding them to the pool.
+        var scan =
+                FileSystemRepository.openForScan(
+                        getId,
+                        workingDirectory.resolve(workspaceId).resolve(directoryName.toLowerCase()),
+                        readValue,
+                        codec,
+                        entityName,
+                        options);
+
+        if (scan.isEmpty()) {
+            return List.of();
+        }
 
-            repositories.put(workspaceId, repository);
+        try (var repository = scan.get()) {
+            return findAllInRepository(workspaceId, repository, predicate);
         }
+    }
+
+    private List<Tuple2<String, T>> findAllInRepository(
+            String workspaceId, FileSystemRepository<T> repository, Predicate<T> predicate) {
+        return repository.findAll().stream()
+                .filter(predicate)
+                .map(entity -> Tuple2.apply(workspaceId, entity))
+                .toList();
+    }
+
+    /**
+     * Creates the pooled repository of a workspace with all registered indexes. Repositories of different workspaces
+     * are created concurrently, {@link #registerIndex(String, Function1, boolean)} waits until they are created.
+     */
+    private FileSystemRepository<T> createRepository(String workspaceId) {
+        indexesLock.readLock().lock();
+
+        try {
+            var repository = createRepository(workspaceId, options);
+            indexes.forEach(register -> register.run(repository));
+            return repository;
+        } finally {
+            indexesLock.readLock().unlock();
+        }
+    }
+
+    private FileSystemRepository<T> createRepository(
+            String workspaceId, FileSystemRepositoryOptions options) {
+        var directory = workingDirectory.resolve(workspaceId);
+
+        return Objects.isNull(codec)
+                ? new FileSystemRepository<>(
+                        getId, directory, readValue, writeValue, entityName, directoryName, options)
+                : new FileSystemRepository<>(
+                        getId, directory, codec, entityName, directoryName, options);
+    }
+
+    private <R> R withRepository(
+            String workspaceId, Function1<FileSystemRepository<T>, R> operation) {
+        try (var lease = acquire(workspaceId)) {
+            return operation.get(lease.getRepository());
+        }
+    }
+
+    private void runWithRepository(
+            String workspaceId, Procedure1<FileSystemRepository<T>> operation) {
+        try (var lease = acquire(workspaceId)) {
+            operation.run(lease.getRepository());
+        }
+    }
+
+    /**
+     * Returns a lazy stream of a workspace repository, the repository is leased until the stream is closed.
+     */
+    private <R> Stream<R> streamWithRepository(
+            String workspaceId, Function1<FileSystemRepository<T>, Stream<R>> operation) {
+        var lease = acquire(workspaceId);
+
+        try {
+            return operation.get(lease.getRepository()).onClose(lease::close);
+        } catch (RuntimeException ex) {
+            lease.close();
+            throw ex;
+        }
+    }
 
-        return repositories.get(workspaceId);
+    private void onEvicted(String workspaceId, FileSystemRepository<T> repository) {
+        repository.close();
+        evictionListeners.forEach(listener -> listener.run(workspaceId));
     }
 }
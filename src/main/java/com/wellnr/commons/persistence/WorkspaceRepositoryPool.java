@@ -0,0 +1,340 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.Operators;
+import com.wellnr.commons.functions.Function1;
+import com.wellnr.commons.functions.Procedure2;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A size- and idle-time-bounded pool of the repositories of {@link WorkspaceEntityFileSystemRepository}.
+ * <p>
+ * Repositories are used through leases, see {@link #acquire(String, Function1)}. Acquiring a lease of an open
+ * repository is lock-free and only records the access time; a new repository is created while only its own workspace
+ * is locked. If the pool grows beyond its maximum size, the least recently used repositories are evicted in one
+ * sweep until the pool is 10% below its maximum size, which keeps the cost of eviction low when many new workspaces
+ * are accessed. Repositories which have not been accessed within the idle timeout are evicted by sweeps which run at
+ * most twice per timeout. Repositories which are leased or have subscribers of their change feed are not evicted;
+ * if a repository is leased while it is evicted, it is closed when its last lease is released.
+ *
+ * @param <T> the type of the entities managed by the repositories.
+ */
+@Slf4j
+final class WorkspaceRepositoryPool<T> {
+
+    private final Map<String, Entry<T>> entries;
+
+    private final int maxSize;
+
+    /**
+     * The idle timeout in nanoseconds, {@code 0} if repositories should not be evicted by idle time.
+     */
+    private final long idleTimeout;
+
+    /**
+     * Called after a repository has been removed from the pool and its last lease has been released.
+     */
+    private final Procedure2<String, FileSystemRepository<T>> onEvict;
+
+    private final AtomicBoolean sweeping;
+
+    private volatile long lastIdleSweep;
+
+    WorkspaceRepositoryPool(
+            int maxSize,
+            Duration idleTimeout,
+            Procedure2<String, FileSystemRepository<T>> onEvict) {
+        this.entries = new ConcurrentHashMap<>();
+        this.maxSize = maxSize;
+        this.idleTimeout = Objects.isNull(idleTimeout) ? 0 : idleTimeout.toNanos();
+        this.onEvict = onEvict;
+        this.sweeping = new AtomicBoolean(false);
+        this.lastIdleSweep = System.nanoTime();
+    }
+
+    /**
+     * Leases the repository of a workspace, creates it if it is not part of the pool. The repository is not closed
+     * before the lease is released.
+     *
+     * @param workspaceId The id of the workspace.
+     * @param create      The function to create a new repository. It is called at most once per workspace as long
+     *                    as the repository is part of the pool.
+     * @return The lease, which must be closed after use.
+     */
+    Lease<T> acquire(String workspaceId, Function1<String, FileSystemRepository<T>> create) {
+        while (true) {
+            var entry = entries.computeIfAbsent(workspaceId, id -> new Entry<>(this, id));
+
+            if (!entry.acquire()) {
+                // The entry has been evicted concurrently.
+                continue;
+            }
+
+            try {
+                entry.open(create);
+            } catch (RuntimeException ex) {
+                entries.remove(workspaceId, entry);
+                entry.evict();
+                entry.close();
+                throw ex;
+            }
+
+            access(entry);
+            return entry;
+        }
+    }
+
+    /**
+     * Leases the repository of a workspace if it is part of the pool.
+     *
+     * @param workspaceId The id of the workspace.
+     * @return The lease, which must be closed after use, or {@code null}.
+     */
+    Lease<T> acquireIfPresent(String workspaceId) {
+        var entry = entries.get(workspaceId);
+
+        if (Objects.isNull(entry) || !entry.acquire()) {
+            return null;
+        }
+
+        if (Objects.isNull(entry.repository)) {
+            // The repository is still being created by another thread.
+            entry.close();
+            return null;
+        }
+
+        access(entry);
+        return entry;
+    }
+
+    private void access(Entry<T> entry) {
+        entry.lastAccess = System.nanoTime();
+
+        if (entries.size() > maxSize
+                || (idleTimeout > 0 && entry.lastAccess - lastIdleSweep > idleTimeout / 2)) {
+            sweep();
+        }
+    }
+
+    /**
+     * Returns the repositories which are currently part of the pool.
+     *
+     * @return The repositories.
+     */
+    List<FileSystemRepository<T>> values() {
+        return entries.values().stream()
+                .map(entry -> entry.repository)
+                .filter(Objects::nonNull)
+                .toList();
+    }
+
+    /**
+     * Removes all repositories from the pool. Leased repositories are closed when their last lease is released.
+     */
+    void clear() {
+        entries.forEach(this::evict);
+    }
+
+    /**
+     * Evicts idle repositories and the least recently used repositories if the pool is too large. Only one thread
+     * sweeps at a time, other threads return immediately.
+     */
+    private void sweep() {
+        if (!sweeping.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            var now = System.nanoTime();
+            var candidates = new ArrayList<Candidate<T>>();
+
+            // Access times are copied as they are updated concurrently while sorting.
+            entries.forEach(
+                    (id, entry) -> candidates.add(new Candidate<>(id, entry, entry.lastAccess)));
+
+            // Leased repositories and repositories with subscribers of their change feed are kept
+            // open.
+            candidates.removeIf(candidate -> candidate.entry().isInUse());
+
+            if (idleTimeout > 0) {
+                lastIdleSweep = now;
+
+                for (var candidate : candidates) {
+                    if (now - candidate.lastAccess() > idleTimeout) {
+                        evict(candidate.workspaceId(), candidate.entry());
+                    }
+                }
+            }
+
+            var excess = entries.size() - maxSize;
+
+            if (excess > 0) {
+                candidates.sort(Comparator.comparingLong(Candidate::lastAccess));
+                candidates.stream()
+                        .filter(
+                                candidate ->
+                                        entries.get(candidate.workspaceId()) == candidate.entry())
+                        .limit(excess + maxSize / 10)
+                        .forEach(candidate -> evict(candidate.workspaceId(), candidate.entry()));
+            }
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    private void evict(String workspaceId, Entry<T> entry) {
+        if (Objects.nonNull(entry) && entries.remove(workspaceId, entry) && entry.evict()) {
+            entry.closeRepository();
+        }
+    }
+
+    /**
+     * A leased repository of a workspace.
+     *
+     * @param <T> the type of the entities managed by the repository.
+     */
+    interface Lease<T> extends AutoCloseable {
+
+        /**
+         * Returns the repository, which is open until the lease is released.
+         *
+         * @return The repository.
+         */
+        FileSystemRepository<T> getRepository();
+
+        /**
+         * Releases the lease.
+         */
+        @Override
+        void close();
+    }
+
+    private record Candidate<T>(String workspaceId, Entry<T> entry, long lastAccess) {}
+
+    private static final class Entry<T> implements Lease<T> {
+
+        private final WorkspaceRepositoryPool<T> pool;
+
+        private final String workspaceId;
+
+        /**
+         * Guards the creation of the repository, separate from the monitor of the entry which guards the leases.
+         */
+        private final Object creation;
+
+        /**
+         * The repository, {@code null} until it has been created by the first lease.
+         */
+        private volatile FileSystemRepository<T> repository;
+
+        private volatile long lastAccess;
+
+        /**
+         * The number of leases which have not been released yet.
+         */
+        private int leases;
+
+        private boolean evicted;
+
+        private Entry(WorkspaceRepositoryPool<T> pool, String workspaceId) {
+            this.pool = pool;
+            this.workspaceId = workspaceId;
+            this.creation = new Object();
+            this.lastAccess = System.nanoTime();
+        }
+
+        @Override
+        public FileSystemRepository<T> getRepository() {
+            return repository;
+        }
+
+        @Override
+        public void close() {
+            boolean closeRepository;
+
+            synchronized (this) {
+                leases--;
+                closeRepository = evicted && leases == 0;
+            }
+
+            if (closeRepository) {
+                closeRepository();
+            }
+        }
+
+        /**
+         * Adds a lease, unless the entry has been evicted.
+         *
+         * @return True if the lease has been added.
+         */
+        private synchronized boolean acquire() {
+            if (evicted) {
+                return false;
+            }
+
+            leases++;
+            return true;
+        }
+
+        /**
+         * Marks the entry as evicted.
+         *
+         * @return True if the repository is not leased and can be closed immediately.
+         */
+        private synchronized boolean evict() {
+            evicted = true;
+            return leases == 0;
+        }
+
+        private boolean isInUse() {
+            synchronized (this) {
+                if (leases > 0) {
+                    return true;
+                }
+            }
+
+            var repository = this.repository;
+            return Objects.nonNull(repository) && repository.hasSubscribers();
+        }
+
+        /**
+         * Creates the repository if it does not exist yet. Only threads which lease the same workspace wait for the
+         * creation.
+         */
+        private void open(Function1<String, FileSystemRepository<T>> create) {
+            synchronized (creation) {
+                if (Objects.isNull(repository)) {
+                    repository = create.get(workspaceId);
+                }
+            }
+        }
+
+        private void closeRepository() {
+            var repository = this.repository;
+
+            if (Objects.isNull(repository)) {
+                return;
+            }
+
+            Operators.ignoreExceptions(
+                    () -> pool.onEvict.apply(workspaceId, repository),
+                    ex ->
+                            log.warn(
+                                    "An exception occurred while evicting repository of workspace"
+                                            + " `{}`.",
+                                    workspaceId,
+                                    ex));
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.Operators;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Records the file operations of a transaction before they are applied. Each committed transaction is written to
+ * its own log file {@code <timestamp>-<uuid>.wal}, which is removed when all operations have been applied. Log files
+ * which remain after a crash are replayed by {@link #recover(Path)}.
+ * <p>
+ * All operations are idempotent: Moves of temporary files which have already been moved are skipped and deletes of
+ * missing files are ignored. Hence a log can be replayed any number of times.
+ */
+@Slf4j
+final class WriteAheadLog {
+
+    private static final String FILE_EXTENSION = ".wal";
+
+    private static final int FORMAT_VERSION = 1;
+
+    private WriteAheadLog() {}
+
+    /**
+     * Writes a log file and flushes it to disk. The transaction is committed as soon as this method returns.
+     *
+     * @param directory  The directory of the log files.
+     * @param operations The operations of the transaction.
+     * @return The log file.
+     */
+    static Path write(Path directory, List<Operation> operations) {
+        var file =
+                directory.resolve(
+                        String.format("%016x-%s", System.currentTimeMillis(), UUID.randomUUID())
+                                + FILE_EXTENSION);
+
+        AtomicFiles.write(
+                file,
+                path -> {
+                    try (var output =
+                            new DataOutputStream(
+                                    new BufferedOutputStream(Files.newOutputStream(path)))) {
+                        output.writeInt(FORMAT_VERSION);
+                        output.writeInt(operations.size());
+
+                        for (var operation : operations) {
+                            output.writeBoolean(Objects.nonNull(operation.source()));
+
+                            if (Objects.nonNull(operation.source())) {
+                                output.writeUTF(operation.source().toAbsolutePath().toString());
+                            }
+
+                            output.writeUTF(operation.target().toAbsolutePath().toString());
+                        }
+                    }
+                },
+                WriteDurability.SYNC_FILE_AND_DIRECTORY);
+
+        return file;
+    }
+
+    /**
+     * Applies operations and flushes the changed directories to disk.
+     *
+     * @param operations The operations to apply.
+     */
+    static void apply(List<Operation> operations) {
+        operations.forEach(WriteAheadLog::apply);
+        sync(operations);
+    }
+
+    /**
+     * Applies a single operation, without flushing its directory.
+     *
+     * @param operation The operation.
+     */
+    static void apply(Operation operation) {
+        if (Objects.isNull(operation.source())) {
+            Operators.suppressExceptions(() -> Files.deleteIfExists(operation.target()));
+        } else if (Files.exists(operation.source())) {
+            AtomicFiles.move(operation.source(), operation.target());
+        }
+    }
+
+    /**
+     * Flushes the directories which have been changed by operations to disk.
+     *
+     * @param operations The applied operations.
+     */
+    static void sync(List<Operation> operations) {
+        var directories = new LinkedHashSet<Path>();
+        operations.forEach(operation -> directories.add(operation.target().getParent()));
+        directories.forEach(AtomicFiles::syncDirectory);
+    }
+
+    /**
+     * Removes a log file after all of its operations have been applied.
+     *
+     * @param file The log file.
+     */
+    static void complete(Path file) {
+        Operators.suppressExceptions(() -> Files.deleteIfExists(file));
+        AtomicFiles.syncDirectory(file.getParent());
+    }
+
+    /**
+     * Removes the temporary files of operations which have not been committed.
+     *
+     * @param operations The operations.
+     */
+    static void discard(List<Operation> operations) {
+        operations.stream()
+                .map(Operation::source)
+                .filter(Objects::nonNull)
+                .forEach(source -> Operators.ignoreExceptions(() -> Files.deleteIfExists(source)));
+    }
+
+    /**
+     * Replays all log files of a directory, in the order in which they have been written.
+     *
+     * @param directory The directory of the log files.
+     * @return The number of replayed transactions.
+     */
+    static int recover(Path directory) {
+        List<Path> files;
+
+        try (var list = Operators.suppressExceptions(() -> Files.list(directory))) {
+            files =
+                    list.filter(file -> file.getFileName().toString().endsWith(FILE_EXTENSION))
+                            .sorted()
+                            .toList();
+        }
+
+        for (var file : files) {
+            log.info("Replaying transaction log `{}`.", file.getFileName());
+
+            apply(read(file));
+            complete(file);
+        }
+
+        return files.size();
+    }
+
+    private static List<Operation> read(Path file) {
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            var version = input.readInt();
+
+            if (version != FORMAT_VERSION) {
+                throw new IllegalStateException(
+                        String.format(
+                                "Unsupported version %d of transaction log `%s`.", version, file));
+            }
+
+            var count = input.readInt();
+            var operations = new ArrayList<Operation>(count);
+
+            for (var i = 0; i < count; i++) {
+                var source = input.readBoolean() ? Path.of(input.readUTF()) : null;
+                operations.add(new Operation(source, Path.of(input.readUTF())));
+            }
+
+            return operations;
+        } catch (IOException ex) {
+            return Operators.wrapAndThrow(ex);
+        }
+    }
+
+    /**
+     * A file operation of a transaction.
+     *
+     * @param source The temporary file which replaces the target, {@code null} if the target is deleted.
+     * @param target The file which is replaced or deleted.
+     */
+    record Operation(Path source, Path target) {
+
+        static Operation move(Path source, Path target) {
+            return new Operation(source, target);
+        }
+
+        static Operation delete(Path target) {
+            return new Operation(null, target);
+        }
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import com.wellnr.commons.functions.Procedure1;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Buffers saved entities and writes them in batches on a background thread. Repeated saves of the same id before
+ * the next flush are coalesced, only the latest entity is written.
+ * <p>
+ * Only one batch is written at a time. Entities stay visible with {@link #get(String)} until their batch has been
+ * written, hence readers of the buffer and the storage never see an older state than the latest save. Failures of
+ * batches are kept until they are reported by {@link #flush()}.
+ *
+ * @param <T> The type of the entities.
+ */
+@Slf4j
+final class WriteBehindBuffer<T> {
+
+    private final Duration delay;
+
+    private final int batchSize;
+
+    private final Executor executor;
+
+    /**
+     * Writes a batch of entities by id, fails if any entity could not be written.
+     */
+    private final Procedure1<Map<String, T>> writeBatch;
+
+    /**
+     * Entities which have been saved since the last batch has been started.
+     */
+    private final Map<String, T> pending;
+
+    /**
+     * Entities of the batch which is currently written.
+     */
+    private final Map<String, T> inFlight;
+
+    /**
+     * Completes when the pending entities have been written.
+     */
+    private CompletableFuture<Void> pendingCompletion;
+
+    /**
+     * Completes when the batch which is currently written has been written, {@code null} if no batch is written.
+     */
+    private CompletableFuture<Void> inFlightCompletion;
+
+    /**
+     * The failure of a batch which has not been reported by {@link #flush()} yet, further failures are suppressed.
+     */
+    private Exception failure;
+
+    /**
+     * Whether a batch is written.
+     */
+    private boolean running;
+
+    /**
+     * Whether a batch is scheduled to be written after the delay.
+     */
+    private boolean delayed;
+
+    /**
+     * Whether the next batch should be written without waiting for the delay.
+     */
+    private boolean flushRequested;
+
+    /**
+     * Creates a new buffer.
+     *
+     * @param delay      The maximum time an entity is buffered before its batch is written.
+     * @param batchSize  The number of pending entities which starts a batch before the delay has passed.
+     * @param executor   The executor which writes the batches.
+     * @param writeBatch The procedure which writes a batch of entities by id.
+     */
+    WriteBehindBuffer(
+            Duration delay,
+            int batchSize,
+            Executor executor,
+            Procedure1<Map<String, T>> writeBatch) {
+        this.delay = delay;
+        this.batchSize = batchSize;
+        this.executor = executor;
+        this.writeBatch = writeBatch;
+        this.pending = new LinkedHashMap<>();
+        this.inFlight = new LinkedHashMap<>();
+        this.pendingCompletion = new CompletableFuture<>();
+        this.inFlightCompletion = null;
+        this.failure = null;
+        this.running = false;
+        this.delayed = false;
+        this.flushRequested = false;
+    }
+
+    /**
+     * Adds an entity to the buffer, replacing a pending entity with the same id. A failure to write the entity is
+     * reported by the next {@link #flush()}.
+     *
+     * @param id     The id of the entity.
+     * @param entity The entity.
+     */
+    synchronized void put(String id, T entity) {
+        pending.put(id, entity);
+
+        if (pending.size() >= batchSize) {
+            flushRequested = true;
+        }
+
+        schedule();
+    }
+
+    /**
+     * Returns the buffered entity of an id, which has not been written yet.
+     *
+     * @param id The id of the entity.
+     * @return The entity, or empty if no entity with this id is buffered.
+     */
+    synchronized Optional<T> get(String id) {
+        var entity = pending.get(id);
+
+        if (Objects.isNull(entity)) {
+            entity = inFlight.get(id);
+        }
+
+        return Optional.ofNullable(entity);
+    }
+
+    /**
+     * Returns all buffered entities which have not been written yet.
+     *
+     * @return The entities by id.
+     */
+    synchronized Map<String, T> entries() {
+        var entries = new LinkedHashMap<>(inFlight);
+        entries.putAll(pending);
+        return entries;
+    }
+
+    /**
+     * Checks whether an entity is still part of the batch which is currently written. Entities which have been
+     * discarded or replaced by a later save must not be written anymore.
+     *
+     * @param id     The id of the entity.
+     * @param entity The entity of the batch.
+     * @return True if the entity should be written.
+     */
+    synchronized boolean isInFlight(String id, T entity) {
+        return inFlight.get(id) == entity && !pending.containsKey(id);
+    }
+
+    /**
+     * Removes a buffered entity, because it is deleted or written directly.
+     *
+     * @param id The id of the entity.
+     */
+    synchronized void discard(String id) {
+        pending.remove(id);
+        inFlight.remove(id);
+    }
+
+    /**
+     * Starts writing the pending entities without waiting for the delay.
+     *
+     * @return A future which completes when all entities which have been buffered before have been written, or
+     *     exceptionally with the failure of a batch which has not been reported yet.
+     */
+    CompletableFuture<Void> flush() {
+        var result = new CompletableFuture<Void>();
+
+        flushSilently()
+                .whenComplete(
+                        (ignored, ex) -> {
+                            var failure = takeFailure();
+
+                            if (Objects.nonNull(failure)) {
+                                result.completeExceptionally(failure);
+                            } else {
+                                result.complete(null);
+                            }
+                        });
+
+        return result;
+    }
+
+    /**
+     * Starts writing the pending entities without waiting for the delay. Failures are not reported, they are kept
+     * for the next {@link #flush()}.
+     *
+     * @return A future which completes when all entities which have been buffered before have been written.
+     */
+    synchronized CompletableFuture<Void> flushSilently() {
+        if (pending.isEmpty()) {
+            return Objects.requireNonNullElseGet(
+                    inFlightCompletion, () -> CompletableFuture.completedFuture(null));
+        }
+
+        // Batches are written one after another, hence the pending batch completes after the
+        // running batch.
+        flushRequested = true;
+        schedule();
+        return pendingCompletion;
+    }
+
+    /**
+     * Checks whether entities are buffered.
+     *
+     * @return True if no entities are buffered.
+     */
+    synchronized boolean isEmpty() {
+        return pending.isEmpty() && inFlight.isEmpty();
+    }
+
+    /**
+     * Starts the next batch if a flush is requested, or schedules it after the delay. If a batch is running, the
+     * next batch is scheduled when it has finished.
+     */
+    private void schedule() {
+        if (running || pending.isEmpty()) {
+            return;
+        }
+
+        if (flushRequested) {
+            running = true;
+            flushRequested = false;
+            CompletableFuture.runAsync(this::run, executor);
+        } else if (!delayed) {
+            delayed = true;
+            CompletableFuture.runAsync(
+                    this::onDelayPassed,
+                    CompletableFuture.delayedExecutor(
+                            delay.toNanos(), TimeUnit.NANOSECONDS, executor));
+        }
+    }
+
+    private synchronized void onDelayPassed() {
+        delayed = false;
+        flushRequested = true;
+        schedule();
+    }
+
+    /**
+     * Writes the pending entities as one batch and schedules the next batch if entities have been buffered in the
+     * meantime.
+     */
+    private void run() {
+        CompletableFuture<Void> completion;
+
+        synchronized (this) {
+            inFlight.putAll(pending);
+            pending.clear();
+            completion = pendingCompletion;
+            inFlightCompletion = completion;
+            pendingCompletion = new CompletableFuture<>();
+        }
+
+        Exception batchFailure = null;
+
+        try {
+            writeBatch.apply(inFlight());
+        } catch (Exception ex) {
+            log.warn("An exception occurred while writing buffered entities.", ex);
+            batchFailure = ex;
+        }
+
+        // The buffer is updated before the batch completes, hence callers which waited for the
+        // batch do not see its entities in the buffer anymore.
+        synchronized (this) {
+            inFlight.clear();
+            inFlightCompletion = null;
+            running = false;
+
+            if (Objects.nonNull(batchFailure) && Objects.isNull(failure)) {
+                failure = batchFailure;
+            } else if (Objects.nonNull(batchFailure) && failure != batchFailure) {
+                failure.addSuppressed(batchFailure);
+            }
+
+            if (pending.size() >= batchSize) {
+                flushRequested = true;
+            }
+
+            schedule();
+        }
+
+        if (Objects.isNull(batchFailure)) {
+            completion.complete(null);
+        } else {
+            completion.completeExceptionally(batchFailure);
+        }
+    }
+
+    private synchronized Exception takeFailure() {
+        var failure = this.failure;
+        this.failure = null;
+        return failure;
+    }
+
+    private synchronized Map<String, T> inFlight() {
+        return new LinkedHashMap<>(inFlight);
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+/**
+ * Defines how far {@link FileSystemRepository} ensures that written entities have reached the storage device before
+ * {@code save} returns. Files are always written to a temporary file and renamed atomically, hence readers never
+ * observe partially written files, independent of this setting.
+ */
+public enum WriteDurability {
+
+    /**
+     * Data is handed to the operating system, which writes it to disk eventually. An entity may be lost or
+     * revert to its previous version if the machine crashes.
+     */
+    NONE,
+
+    /**
+     * The content of the file is flushed to disk before it is renamed. After a crash, the entity either has its
+     * previous or its new content, but a recent rename may be lost.
+     */
+    SYNC_FILE,
+
+    /**
+     * The content of the file and the directory entry are flushed to disk. A saved entity survives a crash.
+     */
+    SYNC_FILE_AND_DIRECTORY
+}
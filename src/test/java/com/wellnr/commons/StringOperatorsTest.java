@@ -0,0 +1,242 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class StringOperatorsTest {
+
+    /**
+     * Characters of the generated inputs, including characters with locale-specific or length-changing case
+     * mappings and a surrogate pair.
+     */
+    private static final List<String> ALPHABET =
+            List.of(
+                    "a", "b", "i", "z", "A", "B", "I", "Z", "0", "7", " ", "  ", "-", "_", ".", "/",
+                    "\t", "\n", "É", "é", "ß", "İ", "ı", "Σ", "ς", "ǅ", "😀", "𐐀");
+
+    @Test
+    public void testExamples() {
+        assertEquals("some-entity-name", StringOperators.camelCaseToKebabCase("SomeEntityName"));
+        assertEquals("http-server-v2", StringOperators.camelCaseToKebabCase("HTTPServerV2"));
+        assertEquals(
+                "Some Entity Name", StringOperators.camelCaseToHumanReadable("someEntityName"));
+        assertEquals("HTTP Server 2", StringOperators.camelCaseToHumanReadable("HTTPServer2"));
+        assertEquals("someEntityName", StringOperators.stringToCamelCase("Some entity-name!"));
+        assertEquals("some-entity-name", StringOperators.stringToKebabCase("Some entity-name!"));
+        assertEquals("", StringOperators.camelCaseToHumanReadable(""));
+
+        var builder = new StringBuilder("prefix:");
+        StringOperators.appendCamelCaseToKebabCase("SomeEntity", builder).append(':');
+        StringOperators.appendCamelCaseToHumanReadable("someEntity", builder).append(':');
+        StringOperators.appendStringToCamelCase("some entity", builder);
+
+        assertEquals("prefix:some-entity:Some Entity:someEntity", builder.toString());
+    }
+
+    @Test
+    public void testMatchesRegularExpressions() {
+        assertMatchesReference();
+    }
+
+    @Test
+    public void testMatchesRegularExpressionsWithTurkishLocale() {
+        var locale = Locale.getDefault();
+
+        try {
+            Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+            assertMatchesReference();
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void testConversionCache() throws InterruptedException {
+        var cache = StringConversionCache.apply(64);
+        var first = cache.camelCaseToKebabCase("SomeEntityName");
+
+        assertEquals("some-entity-name", first);
+        assertSame(first, cache.camelCaseToKebabCase("SomeEntityName"));
+        assertEquals("categories", cache.pluralize("category"));
+        assertEquals("some-entity", cache.stringToTechFriendlyName("Some entity"));
+        assertEquals(1, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        assertEquals(3, cache.size());
+
+        for (var i = 0; i < 1_000; i++) {
+            assertEquals("entity" + i + "s", cache.pluralize("entity" + i));
+        }
+
+        assertTrue(cache.size() <= 3 * 64);
+
+        var threads = new ArrayList<Thread>();
+        var failures = new AtomicInteger();
+
+        for (var t = 0; t < 8; t++) {
+            var thread =
+                    new Thread(
+                            () -> {
+                                for (var i = 0; i < 10_000; i++) {
+                                    var input = "SomeEntity" + (i % 200);
+                                    var expected = StringOperators.camelCaseToKebabCase(input);
+
+                                    if (!expected.equals(cache.camelCaseToKebabCase(input))) {
+                                        failures.incrementAndGet();
+                                    }
+                                }
+                            });
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, failures.get());
+        assertTrue(cache.size() <= 3 * 64);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+
+        // The capacities of the segments sum up to the maximum size.
+        var odd = StringConversionCache.apply(20);
+
+        for (var i = 0; i < 1_000; i++) {
+            odd.pluralize("entity" + i);
+        }
+
+        assertEquals(20, odd.size());
+
+        var locale = Locale.getDefault();
+
+        try {
+            Locale.setDefault(Locale.ENGLISH);
+            assertEquals("title", cache.camelCaseToKebabCase("TITLE"));
+            Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+            assertEquals(
+                    StringOperators.camelCaseToKebabCase("TITLE"),
+                    cache.camelCaseToKebabCase("TITLE"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> StringConversionCache.apply(0));
+    }
+
+    private static void assertMatchesReference() {
+        var random = new Random(42);
+
+        for (var i = 0; i < 20_000; i++) {
+            var input = randomString(random);
+
+            assertMatches(
+                    input, StringOperators::camelCaseToKebabCase, Reference::camelCaseToKebabCase);
+            assertMatches(
+                    input,
+                    StringOperators::camelCaseToHumanReadable,
+                    Reference::camelCaseToHumanReadable);
+            assertMatches(input, StringOperators::stringToCamelCase, Reference::stringToCamelCase);
+            assertMatches(input, StringOperators::stringToKebabCase, Reference::stringToKebabCase);
+            assertMatches(
+                    input,
+                    s ->
+                            StringOperators.appendCamelCaseToKebabCase(s, new StringBuilder("x"))
+                                    .toString(),
+                    s -> "x" + Reference.camelCaseToKebabCase(s));
+            assertMatches(
+                    input,
+                    s ->
+                            StringOperators.appendCamelCaseToHumanReadable(
+                                            s, new StringBuilder("x"))
+                                    .toString(),
+                    s -> "x" + Reference.camelCaseToHumanReadable(s));
+        }
+    }
+
+    private static void assertMatches(
+            String input, Function<String, String> actual, Function<String, String> expected) {
+        assertEquals(expected.apply(input), actual.apply(input), () -> "Input: `" + input + "`");
+    }
+
+    private static String randomString(Random random) {
+        var length = random.nextInt(12);
+        var builder = new StringBuilder();
+
+        for (var i = 0; i < length; i++) {
+            // Prefer ASCII letters, which are the common case for camel case strings.
+            var index = random.nextInt(3) > 0 ? random.nextInt(8) : random.nextInt(ALPHABET.size());
+            builder.append(ALPHABET.get(index));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * The previous implementations based on regular expressions.
+     */
+    private static final class Reference {
+
+        static String camelCaseToHumanReadable(String s) {
+            var result =
+                    s.replaceAll(
+                            String.format(
+                                    "%s|%s|%s",
+                                    "(?<=[A-Z])(?=[A-Z][a-z])",
+                                    "(?<=[^A-Z])(?=[A-Z])",
+                                    "(?<=[A-Za-z])(?=[^A-Za-z])"),
+                            " ");
+
+            if (result.length() > 1) {
+                return result.substring(0, 1).toUpperCase() + result.substring(1);
+            } else {
+                return result.toUpperCase();
+            }
+        }
+
+        static String camelCaseToKebabCase(String s) {
+            return s.replaceAll("([a-z0-9])([A-Z])", "$1-$2")
+                    .replaceAll("([A-Z])([A-Z])(?=[a-z])", "$1-$2")
+                    .toLowerCase();
+        }
+
+        static String stringToCamelCase(String s) {
+            var builder = new StringBuilder();
+            char delimiter = ' ';
+            boolean shouldConvertNextCharToLower = true;
+
+            s = s.replaceAll("[^a-zA-Z0-9]", " ");
+            s = s.replaceAll("\\s+", " ");
+
+            for (int i = 0; i < s.length(); i++) {
+                char currentChar = s.charAt(i);
+                if (currentChar == delimiter) {
+                    shouldConvertNextCharToLower = false;
+                } else if (shouldConvertNextCharToLower) {
+                    builder.append(Character.toLowerCase(currentChar));
+                } else {
+                    builder.append(Character.toUpperCase(currentChar));
+                    shouldConvertNextCharToLower = true;
+                }
+            }
+
+            return builder.toString();
+        }
+
+        static String stringToKebabCase(String s) {
+            return camelCaseToKebabCase(stringToCamelCase(s));
+        }
+    }
+}
@@ -0,0 +1,1427 @@
+/*
+ * (C) Copyright 2024. Licensed under the Apache License, Version 2.0.
+ * Author: Michael Wellner (https://github.com/cokeSchlumpf/).
+ */
+package com.wellnr.commons.persistence;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.wellnr.commons.Operators;
+import com.wellnr.commons.markup.Result;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class FileSystemRepositoryTest {
+
+    @TempDir Path workingDirectory;
+
+    @Test
+    public void testSaveFindAndDelete() {
+        var repository = createRepository(FileSystemRepositoryOptions.apply());
+
+        repository.save(new Person("alice", "Alice"));
+        repository.save(new Person("bob", "Bob"));
+
+        assertEquals(Optional.of(new Person("alice", "Alice")), repository.findById("alice"));
+        assertEquals(2, repository.findAll().size());
+        assertEquals(
+                Optional.of(new Person("bob", "Bob")),
+                repository.findOneBy(p -> p.name().equals("Bob")));
+
+        repository.delete("alice");
+
+        assertEquals(Optional.empty(), repository.findById("alice"));
+        assertEquals(1, repository.findAll().size());
+    }
+
+    @Test
+    public void testSaveAllAndDeleteAll() {
+        var repository =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        Person::read,
+                        (file, person) -> {
+                            if (person.name().isEmpty()) {
+                                throw new IllegalArgumentException("Name must not be empty.");
+                            }
+
+                            Person.write(file, person);
+                        },
+                        Person.class,
+                        FileSystemRepositoryOptions.apply()
+                                .withParallelism(4)
+                                .withDurability(WriteDurability.SYNC_FILE_AND_DIRECTORY));
+
+        var results =
+                repository.saveAll(
+                        List.of(
+                                new Person("alice", "Alice"),
+                                new Person("bob", ""),
+                                new Person("carol", "Carol")));
+
+        assertEquals(List.of(true, false, true), results.stream().map(Result::isSuccess).toList());
+        assertEquals(2, repository.findAll().size());
+
+        var deleted = repository.deleteAll(List.of("alice", "carol", "dave"));
+
+        assertTrue(deleted.stream().allMatch(Result::isSuccess));
+        assertEquals(List.of(), repository.findAll());
+    }
+
+    @Test
+    public void testSaveIsAtomic() {
+        var repository =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        Person::read,
+                        (file, person) -> {
+                            Files.writeString(file, person.id());
+                            throw new IllegalStateException("Crash while writing.");
+                        },
+                        Person.class,
+                        FileSystemRepositoryOptions.apply()
+                                .withDurability(WriteDurability.SYNC_FILE_AND_DIRECTORY));
+
+        createRepository(FileSystemRepositoryOptions.apply()).save(new Person("alice", "Alice"));
+
+        assertThrows(RuntimeException.class, () -> repository.save(new Person("alice", "Bob")));
+        assertEquals(Optional.of(new Person("alice", "Alice")), repository.findById("alice"));
+        assertEquals(1, workingDirectory.resolve("persons").toFile().list().length);
+    }
+
+    @Test
+    public void testTemporaryFiles() throws Exception {
+        var repository = createRepository(FileSystemRepositoryOptions.apply());
+        var directory = workingDirectory.resolve("persons");
+
+        repository.save(new Person("alice", "Alice"));
+
+        var recent = directory.resolve(".bob.person.json." + UUID.randomUUID() + ".tmp");
+        var stale = directory.resolve(".carol.person.json." + UUID.randomUUID() + ".tmp");
+        var staged = directory.resolve(".dave.person.json." + UUID.randomUUID() + ".staged");
+        var past = FileTime.from(Instant.now().minus(Duration.ofDays(1)));
+
+        for (var file : List.of(recent, stale, staged)) {
+            Files.writeString(file, "temporary\nTemporary");
+        }
+
+        Files.setLastModifiedTime(stale, past);
+        Files.setLastModifiedTime(staged, past);
+
+        assertEquals(List.of("alice"), repository.listIds());
+        assertEquals(1, repository.count());
+        assertEquals(List.of(new Person("alice", "Alice")), repository.findAll());
+
+        // Stale temporary files are removed when a repository is created, staged files of
+        // transactions are kept.
+        createRepository(FileSystemRepositoryOptions.apply());
+
+        assertTrue(Files.exists(recent));
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(staged));
+    }
+
+    @Test
+    public void testFindAllAsStreamReadsLazily() {
+        var reads = new AtomicInteger();
+        var repository =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        file -> {
+                            reads.incrementAndGet();
+                            return Person.read(file);
+                        },
+                        Person::write,
+                        Person.class);
+
+        for (var i = 0; i < 10; i++) {
+            repository.save(new Person("person-" + i, "Person " + i));
+        }
+
+        try (var entities = repository.findAllAsStream()) {
+            assertEquals(3, entities.limit(3).count());
+        }
+
+        assertEquals(3, reads.get());
+        assertTrue(repository.findOneBy(p -> true).isPresent());
+        assertEquals(4, reads.get());
+    }
+
+    @Test
+    public void testParallelFindAll() throws Exception {
+        var repository = createRepository(FileSystemRepositoryOptions.apply().withParallelism(4));
+        var expected = new ArrayList<Person>();
+
+        for (var i = 0; i < 100; i++) {
+            var person = new Person(String.format("person-%03d", i), "Person " + i);
+            repository.save(person);
+            expected.add(person);
+        }
+
+        Files.writeString(workingDirectory.resolve("persons/broken.person.json"), "broken");
+
+        assertEquals(expected, repository.findAll());
+    }
+
+    @Test
+    public void testParallelCallsOnBoundedExecutor() throws Exception {
+        var parallelism = 3;
+        var executor = Executors.newFixedThreadPool(parallelism);
+
+        try {
+            var options =
+                    FileSystemRepositoryOptions.apply()
+                            .withParallelism(parallelism)
+                            .withExecutor(executor);
+            var repository = createRepository(options);
+            var workspaces =
+                    new WorkspaceEntityFileSystemRepository<>(
+                            Person.class,
+                            Person::id,
+                            workingDirectory.resolve("workspaces"),
+                            Person::read,
+                            Person::write,
+                            "person",
+                            "persons",
+                            options);
+
+            for (var i = 0; i < 20; i++) {
+                repository.save(new Person("person-" + i, "Person " + i));
+                workspaces.save("workspace-" + (i % 5), new Person("person-" + i, "Person " + i));
+            }
+
+            // Each task occupies a thread of the executor while it reads in parallel.
+            var tasks = new ArrayList<Callable<Integer>>();
+
+            for (var i = 0; i < parallelism; i++) {
+                tasks.add(() -> repository.findAll().size());
+                tasks.add(() -> workspaces.findAllAcrossWorkspaces(p -> true).size());
+            }
+
+            for (var future : executor.invokeAll(tasks, 10, TimeUnit.SECONDS)) {
+                assertEquals(20, future.get());
+            }
+
+            assertEquals(20, repository.async().findAllAsync().get(10, TimeUnit.SECONDS).size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testCacheIsInvalidatedByExternalChanges() throws Exception {
+        try (var repository =
+                createRepository(FileSystemRepositoryOptions.apply().withCacheEnabled(true))) {
+            repository.save(new Person("alice", "Alice"));
+            assertEquals(1, repository.findAll().size());
+
+            Files.writeString(
+                    workingDirectory.resolve("persons/alice.person.json"), "alice\nAlice Smith");
+            Files.writeString(workingDirectory.resolve("persons/bob.person.json"), "bob\nBob");
+
+            awaitCondition(
+                    () ->
+                            repository
+                                    .findById("alice")
+                                    .map(Person::name)
+                                    .orElse("")
+                                    .equals("Alice Smith"));
+            awaitCondition(() -> repository.findAll().size() == 2);
+
+            Files.delete(workingDirectory.resolve("persons/bob.person.json"));
+            awaitCondition(() -> repository.findById("bob").isEmpty());
+        }
+    }
+
+    @Test
+    public void testCacheIsKeptOnOwnWrites() throws Exception {
+        var reads = new AtomicInteger();
+
+        try (var repository =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        file -> {
+                            reads.incrementAndGet();
+                            return Person.read(file);
+                        },
+                        Person::write,
+                        Person.class,
+                        FileSystemRepositoryOptions.apply().withCacheEnabled(true))) {
+            repository.save(new Person("alice", "Alice"));
+            repository.save(new Person("alice", "Alice Smith"));
+            repository.save(new Person("bob", "Bob"));
+            repository.delete("bob");
+
+            // The file watcher reports the writes of the repository itself.
+            Thread.sleep(500);
+
+            assertEquals("Alice Smith", repository.findById("alice").orElseThrow().name());
+            assertEquals(Optional.empty(), repository.findById("bob"));
+            assertEquals(0, reads.get());
+        }
+    }
+
+    @Test
+    public void testIndexesAreKeptOnOwnWrites() throws Exception {
+        var reads = new AtomicInteger();
+
+        try (var repository =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        file -> {
+                            reads.incrementAndGet();
+                            return Person.read(file);
+                        },
+                        Person::write,
+                        Person.class,
+                        FileSystemRepositoryOptions.apply())) {
+            repository.registerIndex("name", Person::name, true);
+            repository.save(new Person("alice", "Alice"));
+            repository.save(new Person("bob", "Bob"));
+
+            // The file watcher reports the writes of the repository itself.
+            Thread.sleep(500);
+
+            // Only the matching entity is read, the index is not refreshed from the files.
+            assertEquals(
+                    List.of(new Person("alice", "Alice")), repository.findByIndex("name", "Alice"));
+            assertEquals(1, reads.get());
+        }
+    }
+
+    @Test
+    public void testConcurrentWorkspaceAccess() throws Exception {
+        var repository =
+                new WorkspaceEntityFileSystemRepository<>(
+                        Person.class, Person::id, workingDirectory, Person::read, Person::write);
+        var executor = Executors.newFixedThreadPool(8);
+        var tasks = new ArrayList<Callable<Object>>();
+
+        for (var i = 0; i < 200; i++) {
+            var workspace = "workspace-" + (i % 4);
+            var person = new Person("person-" + (i / 4 % 10), "Person " + i);
+            tasks.add(Executors.callable(() -> repository.save(workspace, person)));
+        }
+
+        for (var future : executor.invokeAll(tasks)) {
+            future.get();
+        }
+
+        executor.shutdown();
+
+        for (var i = 0; i < 4; i++) {
+            assertEquals(10, repository.findAll("workspace-" + i).size());
+        }
+
+        repository.delete("workspace-0", new Person("person-0", "Person 0"));
+        assertEquals(Optional.empty(), repository.findById("workspace-0", "person-0"));
+    }
+
+    @Test
+    public void testWorkspaceRepositoriesAreEvicted() {
+        var evicted = new CopyOnWriteArrayList<String>();
+        var repository =
+                new WorkspaceEntityFileSystemRepository<>(
+                        Person.class,
+                        Person::id,
+                        workingDirectory,
+                        Person::read,
+                        Person::write,
+                        "person",
+                        "persons",
+                        FileSystemRepositoryOptions.apply()
+                                .withCacheEnabled(true)
+                                .withMaxOpenWorkspaces(2));
+
+        repository.addEvictionListener(evicted::add);
+        repository.save("workspace-a", new Person("alice", "Alice"));
+        repository.save("workspace-b", new Person("bob", "Bob"));
+        repository.save("workspace-c", new Person("carol", "Carol"));
+
+        assertEquals(List.of("workspace-a"), evicted);
+        assertEquals(
+                Optional.of(new Person("alice", "Alice")),
+                repository.findById("workspace-a", "alice"));
+
+        // Repositories which are in use are not closed by eviction.
+        repository.registerIndex("name", Person::name, false);
+
+        try (var stream = repository.findAllAsStream("workspace-a")) {
+            repository.save("workspace-d", new Person("dave", "Dave"));
+            repository.save("workspace-e", new Person("eve", "Eve"));
+
+            assertEquals(
+                    List.of("workspace-a", "workspace-b", "workspace-c", "workspace-d"), evicted);
+            assertEquals(
+                    List.of(new Person("alice", "Alice")),
+                    repository.findByIndex("workspace-a", "name", "Alice"));
+            assertEquals(List.of(new Person("alice", "Alice")), stream.toList());
+        }
+    }
+
+    @Test
+    public void testSecondaryIndexes() {
+        try (var repository = createRepository(FileSystemRepositoryOptions.apply())) {
+            repository.save(new Person("alice", "Alice"));
+            repository.save(new Person("bob", "Bob"));
+            repository.save(new Person("carol", "Bob"));
+
+            repository.registerIndex("name", Person::name);
+            repository.registerIndex("id", Person::id, true);
+
+            assertEquals(
+                    List.of(new Person("bob", "Bob"), new Person("carol", "Bob")),
+                    repository.findByIndex("name", "Bob"));
+
+            repository.save(new Person("carol", "Carol"));
+            repository.delete("bob");
+
+            assertEquals(List.of(), repository.findByIndex("name", "Bob"));
+            assertEquals(
+                    Optional.of(new Person("carol", "Carol")),
+                    repository.findOneByIndex("name", "Carol"));
+
+            repository.registerIndex("unique-name", Person::name, true);
+            assertThrows(
+                    DuplicateIndexKeyException.class,
+                    () -> repository.save(new Person("dave", "Alice")));
+            assertEquals(Optional.empty(), repository.findById("dave"));
+        }
+    }
+
+    @Test
+    public void testLogStructuredStorage() throws Exception {
+        var options =
+                FileSystemRepositoryOptions.apply()
+                        .withStorageEngine(StorageEngine.LOG_STRUCTURED)
+                        .withMaxSegmentSize(1024)
+                        .withExecutor(Runnable::run)
+                        .withDurability(WriteDurability.SYNC_FILE);
+
+        try (var repository = createLogStructuredRepository(options)) {
+            for (var round = 0; round < 5; round++) {
+                for (var i = 0; i < 20; i++) {
+                    repository.save(new Person("person-" + i, "Person " + i + "." + round));
+                }
+            }
+
+            repository.deleteAll(List.of("person-0", "person-1"));
+            repository.delete("person-2");
+
+            assertEquals(17, repository.findAll().size());
+            assertEquals(
+                    Optional.of(new Person("person-3", "Person 3.4")),
+                    repository.findById("person-3"));
+        }
+
+        try (var segments = Files.list(workingDirectory.resolve("persons"))) {
+            var files = segments.filter(f -> f.toString().endsWith(".log")).sorted().toList();
+
+            // Compaction keeps the number of segments bounded.
+            assertTrue(files.size() < 10);
+
+            // Simulate a torn write at the end of the last segment.
+            Files.write(
+                    files.get(files.size() - 1), new byte[] {1, 0, 0}, StandardOpenOption.APPEND);
+        }
+
+        try (var repository = createLogStructuredRepository(options)) {
+            assertEquals(17, repository.findAll().size());
+            assertEquals(Optional.empty(), repository.findById("person-0"));
+            assertEquals(
+                    Optional.of(new Person("person-19", "Person 19.4")),
+                    repository.findById("person-19"));
+
+            repository.save(new Person("person-0", "Person 0"));
+            assertEquals(18, repository.findAll().size());
+        }
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        new FileSystemRepository<>(
+                                Person::id,
+                                workingDirectory,
+                                Person::read,
+                                Person::write,
+                                Person.class,
+                                options));
+    }
+
+    @Test
+    public void testLogStructuredCompactionDropsTombstones() throws Exception {
+        var options =
+                FileSystemRepositoryOptions.apply()
+                        .withStorageEngine(StorageEngine.LOG_STRUCTURED)
+                        .withMaxSegmentSize(1024)
+                        .withExecutor(Runnable::run);
+
+        try (var repository = createLogStructuredRepository(options)) {
+            // The first segment stays live, hence it is never compacted.
+            for (var i = 0; i < 10; i++) {
+                repository.save(new Person("keeper-" + i, "Keeper " + i + " " + "x".repeat(64)));
+            }
+
+            for (var i = 0; i < 20; i++) {
+                repository.save(new Person("person-" + i, "Person " + i));
+            }
+
+            repository.deleteAll(IntStream.range(0, 20).mapToObj(i -> "person-" + i).toList());
+
+            for (var i = 0; i < 200; i++) {
+                repository.save(new Person("filler", "Filler " + i + " " + "x".repeat(32)));
+            }
+
+            assertThrows(
+                    IllegalArgumentException.class,
+                    () -> createLogStructuredRepository(options.withMaxSegmentSize(2048)));
+        }
+
+        var tombstones = 0;
+
+        try (var segments = Files.list(workingDirectory.resolve("persons"))) {
+            for (var file : segments.filter(f -> f.toString().endsWith(".log")).toList()) {
+                var content = new String(Files.readAllBytes(file), StandardCharsets.ISO_8859_1);
+
+                for (var i = 0; i < 20; i++) {
+                    // Type, length and id of a delete record.
+                    var id = "person-" + i;
+                    var record = "\u0002\u0000\u0000\u0000" + (char) id.length() + id;
+                    tombstones += content.contains(record) ? 1 : 0;
+                }
+            }
+        }
+
+        assertEquals(0, tombstones);
+
+        try (var repository = createLogStructuredRepository(options)) {
+            assertEquals(11, repository.count());
+            assertEquals(Optional.empty(), repository.findById("person-0"));
+        }
+    }
+
+    @Test
+    public void testMemoryMappedReads() {
+        var mappedReads = new AtomicInteger();
+        var codec =
+                EntityCodec.<Person>apply(
+                        (person, output) ->
+                                output.write(
+                                        (person.id() + "\n" + person.name())
+                                                .getBytes(StandardCharsets.UTF_8)),
+                        input -> {
+                            throw new IllegalStateException("Expected a memory-mapped read.");
+                        },
+                        buffer -> {
+                            assertTrue(buffer.isDirect());
+                            assertTrue(buffer.isReadOnly());
+                            mappedReads.incrementAndGet();
+
+                            var lines =
+                                    StandardCharsets.UTF_8.decode(buffer).toString().split("\n");
+                            return new Person(lines[0], lines[1]);
+                        });
+
+        var repository =
+                new FileSystemRepository<>(
+                        Person::id,
+                        workingDirectory,
+                        codec,
+                        Person.class,
+                        FileSystemRepositoryOptions.apply()
+                                .withMemoryMappedReads(true)
+                                .withMemoryMapThreshold(0));
+
+        repository.save(new Person("alice", "Alice"));
+        assertEquals(Optional.of(new Person("alice", "Alice")), repository.findById("alice"));
+        assertEquals(Optional.of(new Person("alice", "Alice")), repository.findById("alice"));
+
+        repository.save(new Person("alice", "Alice Smith"));
+        assertEquals(Optional.of(new Person("alice", "Alice Smith")), repository.findById("alice"));
+        assertEquals(3, mappedReads.get());
+
+        repository.delete("alice");
+        assertEquals(Optional.empty(), repository.findById("alice"));
+    }
+
+    @Test
+    public void testMemoryMappedReadsOfBuiltInCodecs() throws Exception {
+        var binary =
+                EntityCodecs.<Person>binary(
+                        (person, output) -> {
+                            output.writeUTF(person.id());
+                            output.writeUTF(person.name());
+                        },
+                        input -> new Person(input.readUTF(), input.readUTF()));
+
+        var streamOnly =
+                EntityCodec.<Person>apply(
+                        (person, output) ->
+                                output.write(
+                                        (person.id() + "\n" + person.name())
+                                                .getBytes(StandardCharsets.UTF_8)),
+                        input -> {
+                            throw new IllegalStateException("Expected a memory-mapped read.");
+                        },
+                        buffer -> {
+                            var lines =
+                                    StandardCharsets.UTF_8.decode(buffer).toString().split("\n");
+                            return new Person(lines[0], lines[1]);
+                        });
+
+        var codecs =
+                List.of(
+                        binary,
+                        EntityCodecs.gzip(binary),
+                        EntityCodecs.deflate(binary),
+                        EntityCodecs.withFileExtension(binary, "person"),
+                        EntityCodecs.withFileExtension(streamOnly, "txt"));
+
+        for (var codec : codecs) {
+            // The mapped buffer must be decoded by the codec itself, not by copying it to a byte
+            // array.
+            assertNotEquals(
+                    EntityCodec.class,
+                    codec.getClass().getMethod("decode", ByteBuffer.class).getDeclaringClass());
+
+            var repository =
+                    new FileSystemRepository<>(
+                            Person::id,
+                            workingDirectory.resolve(codec.getFileExtension()),
+                            codec,
+                            Person.class,
+                            FileSystemRepositoryOptions.apply()
+                                    .withMemoryMappedReads(true)
+                                    .withMemoryMapThreshold(0));
+
+            repository.save(new Person("alice", "Alice"));
+            assertEquals(Optional.of(new Person("alice", "Alice")), repository.findById("alice"));
+        }
+
+        var output = new ByteArrayOutputStream();
+        binary.encode(new Person("bob", "Bob"), output);
+        output.write(new byte[] {1, 2, 3});
+
+        var buffer = ByteBuffer.allocateDirect(output.size()).put(output.toByteArray()).flip();
+        assertEquals(new Person("bob", "Bob"), binary.decode(buffer.asReadOnlyBuffer()));
+        assertEquals(new Person("bob", "Bob"), binary.decode(buffer));
+        assertEquals(3, buffer.remaining());
+    }
+
+    @Test
+    public void testMigrateCodec() throws Exception {
+        var repository = createRepository(FileSystemRepositoryOptions.apply());
+
+        for (var i = 0; i < 10; i++) {
+            repository.save(new Person("person-" + i, "Person " + i));
+        }
+
+        var source =
+                EntityCodec.<Person>apply(
+                        (person, output) -> {
+                            throw new UnsupportedOperationException();
+                        },
+                        input -> {
+                            var lines =
+                                    new String(input.readAllBytes(), StandardCharsets.UTF_8)
+                                            .split("\n");
+                            return new Person(lines[0], lines[1]);
+                        });
+
+        var target =
+                EntityCodecs.gzip(
+                        EntityCodecs.<Person>binary(
+                                (person, output) -> {
+                                    output.writeUTF(person.id());
+                                    output.writeUTF(person.name());
+                                },
+                                input -> new Person(input.readUTF(), input.readUTF())));
+
+        var results =
+                FileSystemRepository.migrate(
+                        workingDirectory,
+                        "person",
+                        "persons",
+                        source,
+                        target,
+                        FileSystemRepositoryOptions.apply().withParallelism(4));
+
+        assertEquals(10, results.size());
+        assertTrue(results.stream().allMatch(Result::isSuccess));
+        assertTrue(Files.exists(workingDirectory.resolve("persons/person-3.person.bin.gz")));
+        assertFalse(Files.exists(workingDirectory.resolve("persons/person-3.person.json")));
+
+        var migrated =
+                new FileSystemRepository<>(
+                        Person::id,
+                        workingDirectory,
+                        target,
+                        Person.class,
+                        FileSystemRepositoryOptions.apply());
+
+        assertEquals(10, migrated.findAll().size());
+        assertEquals(
+                Optional.of(new Person("person-3", "Person 3")), migrated.findById("person-3"));
+    }
+
+    @Test
+    public void testVersionedSaves() {
+        var repository = createRepository(FileSystemRepositoryOptions.apply());
+        var other = createRepository(FileSystemRepositoryOptions.apply());
+
+        var created = repository.save(new Person("alice", "Alice"), null);
+        assertThrows(
+                EntityVersionConflictException.class,
+                () -> other.save(new Person("alice", "Alice"), null));
+
+        var read = other.findVersionedById("alice").orElseThrow();
+        assertEquals(created, read.getVersion());
+
+        var updated = other.save(new Person("alice", "Alice Smith"), read.getVersion());
+        assertNotEquals(created, updated);
+
+        var conflict =
+                assertThrows(
+                        EntityVersionConflictException.class,
+                        () -> repository.save(new Person("alice", "Alice Jones"), created));
+        assertEquals(updated, conflict.getActualVersion());
+        assertEquals(Optional.of(new Person("alice", "Alice Smith")), repository.findById("alice"));
+
+        assertThrows(
+                EntityVersionConflictException.class, () -> repository.delete("alice", created));
+        repository.delete("alice", EntityVersion.apply(updated.toString()));
+        assertEquals(Optional.empty(), repository.findVersionedById("alice"));
+
+        // The entity is replaced during each read, e.g. by a busy writer of another process.
+        var replaced = new AtomicInteger();
+        var busy =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        file -> {
+                            var person = Person.read(file);
+                            Person.write(file, new Person(person.id(), person.name() + "!"));
+                            replaced.incrementAndGet();
+                            return person;
+                        },
+                        Person::write,
+                        Person.class);
+
+        busy.save(new Person("bob", "Bob"));
+        assertThrows(EntityVersionConflictException.class, () -> busy.findVersionedById("bob"));
+        assertEquals(10, replaced.get());
+    }
+
+    @Test
+    public void testChanges() throws Exception {
+        try (var repository = createRepository(FileSystemRepositoryOptions.apply())) {
+            var changes = new CopyOnWriteArrayList<String>();
+
+            repository
+                    .changes()
+                    .subscribe(
+                            new Flow.Subscriber<>() {
+                                @Override
+                                public void onSubscribe(Flow.Subscription subscription) {
+                                    subscription.request(Long.MAX_VALUE);
+                                }
+
+                                @Override
+                                public void onNext(EntityChange<Person> change) {
+                                    changes.add(
+                                            change.getType()
+                                                    + " "
+                                                    + change.getId()
+                                                    + " "
+                                                    + Optional.ofNullable(change.getEntity())
+                                                            .map(Person::name)
+                                                            .orElse("-"));
+                                }
+
+                                @Override
+                                public void onError(Throwable throwable) {}
+
+                                @Override
+                                public void onComplete() {
+                                    changes.add("COMPLETE");
+                                }
+                            });
+
+            repository.save(new Person("alice", "Alice"));
+            repository.save(new Person("alice", "Alice Smith"));
+            repository.delete("alice");
+
+            awaitCondition(() -> changes.size() == 3);
+
+            Files.writeString(workingDirectory.resolve("persons/bob.person.json"), "bob\nBob");
+            awaitCondition(() -> changes.size() == 4);
+
+            // File events caused by the repository itself must not be published twice.
+            Thread.sleep(200);
+
+            assertEquals(
+                    List.of(
+                            "CREATED alice Alice",
+                            "UPDATED alice Alice Smith",
+                            "DELETED alice -",
+                            "CREATED bob Bob"),
+                    changes);
+
+            repository.close();
+            awaitCondition(() -> changes.size() == 5);
+        }
+    }
+
+    @Test
+    public void testFindPage() {
+        var reads = new AtomicInteger();
+        var repository =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        file -> {
+                            reads.incrementAndGet();
+                            return Person.read(file);
+                        },
+                        Person::write,
+                        Person.class);
+
+        for (var i = 0; i < 25; i++) {
+            repository.save(new Person(String.format("person-%02d", i), "Person " + (i % 5)));
+        }
+
+        var first = repository.findPage(p -> true, null, 10);
+        assertEquals(10, first.getItems().size());
+        assertEquals("person-00", first.getItems().get(0).id());
+        assertEquals(10, reads.get());
+
+        repository.delete("person-10");
+
+        var second = repository.findPage(p -> true, first.getNextCursor().orElseThrow(), 10);
+        assertEquals("person-11", second.getItems().get(0).id());
+
+        var third = repository.findPage(p -> true, second.getNextCursor().orElseThrow(), 10);
+        assertEquals(4, third.getItems().size());
+        assertFalse(third.hasNext());
+
+        var ids = new ArrayList<String>();
+        String cursor = null;
+
+        do {
+            var page =
+                    repository.findPage(
+                            p -> !p.name().equals("Person 0"),
+                            Comparator.comparing(Person::name).reversed(),
+                            cursor,
+                            7);
+
+            page.getItems().forEach(p -> ids.add(p.id()));
+            cursor = page.getNextCursor().orElse(null);
+        } while (cursor != null);
+
+        assertEquals(20, ids.size());
+        assertEquals(List.of("person-04", "person-09", "person-14"), ids.subList(0, 3));
+
+        var sorted = repository.findPage(p -> true, Comparator.comparing(Person::id), null, 5);
+        assertEquals("person-04", sorted.getItems().get(4).id());
+
+        repository.delete("person-04");
+
+        var next =
+                repository.findPage(
+                        p -> true,
+                        Comparator.comparing(Person::id),
+                        sorted.getNextCursor().orElseThrow(),
+                        5);
+        assertEquals("person-05", next.getItems().get(0).id());
+        assertThrows(IllegalArgumentException.class, () -> repository.findPage(p -> true, "%", 1));
+    }
+
+    @Test
+    public void testListIdsWithoutReading() throws Exception {
+        var repository =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        file -> {
+                            throw new IllegalStateException("Entities must not be read.");
+                        },
+                        Person::write,
+                        Person.class);
+
+        repository.save(new Person("carol", "Carol"));
+        repository.save(new Person("alice", "Alice"));
+        repository.save(new Person("bob", "Bob"));
+        Files.writeString(workingDirectory.resolve("persons/notes.txt"), "not an entity");
+
+        assertEquals(List.of("alice", "bob", "carol"), repository.listIds());
+        assertEquals(3, repository.count());
+        assertTrue(repository.existsById("bob"));
+        assertFalse(repository.existsById("dave"));
+
+        try (var ids = repository.listIdsAsStream()) {
+            assertEquals(List.of("alice", "bob", "carol"), ids.sorted().toList());
+        }
+    }
+
+    @Test
+    public void testShardedLayout() throws Exception {
+        var flat = createRepository(FileSystemRepositoryOptions.apply());
+
+        for (var i = 0; i < 10; i++) {
+            flat.save(new Person("p" + i, "Person " + i));
+        }
+
+        var directory = workingDirectory.resolve("persons");
+        var repository = createRepository(FileSystemRepositoryOptions.apply().withShardDepth(2));
+
+        assertEquals("Person 3", repository.findById("p3").orElseThrow().name());
+        assertEquals(10, repository.findAll().size());
+
+        repository.save(new Person("p3", "Updated"));
+        repository.save(new Person("p10", "Person 10"));
+        repository.delete("p4");
+
+        assertEquals("Updated", repository.findById("p3").orElseThrow().name());
+        assertEquals(10, repository.count());
+        assertEquals(8, repository.migrateToShardedLayout());
+
+        try (var files = Files.list(directory)) {
+            assertTrue(files.noneMatch(Files::isRegularFile));
+        }
+
+        try (var files =
+                Files.find(directory, 3, (file, attributes) -> attributes.isRegularFile())) {
+            assertTrue(files.allMatch(file -> directory.relativize(file).getNameCount() == 3));
+        }
+
+        assertEquals(10, repository.findAll().size());
+        assertFalse(repository.existsById("p4"));
+        assertEquals("Person 10", repository.findById("p10").orElseThrow().name());
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        var writes = new AtomicInteger();
+        var repository =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        Person::read,
+                        (file, person) -> {
+                            writes.incrementAndGet();
+                            Person.write(file, person);
+                        },
+                        Person.class,
+                        FileSystemRepositoryOptions.apply()
+                                .withWriteBehindDelay(Duration.ofMinutes(1))
+                                .withWriteBehindBatchSize(100));
+
+        for (var i = 0; i < 50; i++) {
+            repository.save(new Person("alice", "Alice " + i));
+        }
+
+        repository.save(new Person("bob", "Bob"));
+
+        assertEquals("Alice 49", repository.findById("alice").orElseThrow().name());
+        assertTrue(repository.existsById("bob"));
+        assertEquals(0, writes.get());
+
+        repository.flush().get(10, TimeUnit.SECONDS);
+
+        assertEquals(2, writes.get());
+        assertTrue(Files.exists(workingDirectory.resolve("persons/bob.person.json")));
+
+        repository.save(new Person("carol", "Carol"));
+        repository.delete("carol");
+        repository.save(new Person("dave", "Dave"));
+
+        assertEquals(List.of("alice", "bob", "dave"), repository.listIds());
+        assertEquals(Optional.empty(), repository.findById("carol"));
+        assertEquals(3, writes.get());
+
+        for (var i = 0; i < 100; i++) {
+            repository.save(new Person("person-" + i, "Person " + i));
+        }
+
+        awaitCondition(() -> writes.get() == 103);
+    }
+
+    @Test
+    public void testWriteBehindFailures() throws Exception {
+        var repository =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        Person::read,
+                        (file, person) -> {
+                            if (person.name().isEmpty()) {
+                                throw new IllegalArgumentException("Name must not be empty.");
+                            }
+
+                            Person.write(file, person);
+                        },
+                        Person.class,
+                        FileSystemRepositoryOptions.apply()
+                                .withWriteBehindDelay(Duration.ofMinutes(1))
+                                .withWriteBehindBatchSize(1));
+
+        repository.registerIndex("name", Person::name, true);
+        repository.save(new Person("alice", "Alice"));
+
+        // Unique keys are checked before the entity is buffered.
+        assertThrows(
+                DuplicateIndexKeyException.class,
+                () -> repository.save(new Person("bob", "Alice")));
+
+        // The batch is written in the background, its failure is reported by the next flush.
+        repository.save(new Person("carol", ""));
+        assertEquals(List.of("alice"), repository.listIds());
+
+        var ex = assertThrows(ExecutionException.class, () -> repository.flush().get());
+        assertInstanceOf(RuntimeException.class, ex.getCause());
+        repository.flush().get(10, TimeUnit.SECONDS);
+
+        repository.save(new Person("dave", ""));
+        assertThrows(RuntimeException.class, repository::close);
+        assertEquals(List.of("alice"), repository.listIds());
+    }
+
+    @Test
+    public void testAsyncOperations() throws Exception {
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var repository =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory,
+                        Person::read,
+                        (file, person) -> {
+                            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                            Thread.sleep(10);
+                            Person.write(file, person);
+                            running.decrementAndGet();
+                        },
+                        Person.class,
+                        FileSystemRepositoryOptions.apply().withMaxInFlightAsyncOperations(2));
+
+        var saves =
+                IntStream.range(0, 20)
+                        .mapToObj(
+                                i ->
+                                        repository
+                                                .async()
+                                                .saveAsync(
+                                                        new Person("person-" + i, "Person " + i)))
+                        .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(saves).get(10, TimeUnit.SECONDS);
+
+        assertTrue(maxRunning.get() <= 2);
+        assertEquals(20, repository.async().findAllAsync().get(10, TimeUnit.SECONDS).size());
+        assertEquals(
+                "Person 3",
+                repository
+                        .async()
+                        .findByIdAsync("person-3")
+                        .get(10, TimeUnit.SECONDS)
+                        .orElseThrow()
+                        .name());
+
+        var conflict =
+                repository
+                        .async()
+                        .saveAsync(
+                                new Person("person-3", "Other"), EntityVersion.apply("outdated"));
+
+        var ex = assertThrows(ExecutionException.class, () -> conflict.get(10, TimeUnit.SECONDS));
+        assertInstanceOf(EntityVersionConflictException.class, ex.getCause());
+
+        // The number of concurrent operations is bounded by default.
+        var limit = FileSystemRepositoryOptions.apply().getMaxInFlightAsyncOperations();
+        running.set(0);
+        maxRunning.set(0);
+
+        var bounded =
+                new FileSystemRepository<Person>(
+                        Person::id,
+                        workingDirectory.resolve("bounded"),
+                        Person::read,
+                        (file, person) -> {
+                            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                            Thread.sleep(20);
+                            Person.write(file, person);
+                            running.decrementAndGet();
+                        },
+                        Person.class,
+                        FileSystemRepositoryOptions.apply());
+
+        var boundedSaves =
+                IntStream.range(0, 2 * limit)
+                        .mapToObj(i -> bounded.async().saveAsync(new Person("person-" + i, "")))
+                        .toArray(CompletableFuture[]::new);
+
+        CompletableFuture.allOf(boundedSaves).get(30, TimeUnit.SECONDS);
+
+        assertTrue(limit < Integer.MAX_VALUE);
+        assertTrue(maxRunning.get() <= limit);
+    }
+
+    @Test
+    public void testFindAllAcrossWorkspaces() throws Exception {
+        var repository =
+                new WorkspaceEntityFileSystemRepository<>(
+                        Person.class,
+                        Person::id,
+                        workingDirectory,
+                        Person::read,
+                        Person::write,
+                        "person",
+                        "persons",
+                        FileSystemRepositoryOptions.apply()
+                                .withParallelism(3)
+                                .withMaxOpenWorkspaces(2));
+
+        for (var i = 0; i < 6; i++) {
+            repository.save("workspace-" + i, new Person("alice", "Alice " + i));
+            repository.save("workspace-" + i, new Person("bob", "Bob " + i));
+        }
+
+        assertEquals(6, repository.listWorkspaces().size());
+
+        // Workspaces which are not pooled are scanned without cleaning up their directories.
+        var stale =
+                workingDirectory.resolve(
+                        "workspaces/workspace-0/persons/.carol.person.json."
+                                + UUID.randomUUID()
+                                + ".tmp");
+        Files.writeString(stale, "temporary");
+        Files.setLastModifiedTime(stale, FileTime.from(Instant.now().minus(Duration.ofDays(1))));
+
+        var matches = repository.findAllAcrossWorkspaces(p -> p.id().equals("bob"));
+
+        assertEquals(6, matches.size());
+        assertEquals("workspace-0", matches.get(0)._1);
+        assertEquals("Bob 5", matches.get(5)._2.name());
+        assertTrue(Files.exists(stale));
+
+        try (var stream = repository.findAllAcrossWorkspacesAsStream(p -> true)) {
+            assertEquals(
+                    List.of("Alice 0", "Bob 0", "Alice 1"),
+                    stream.limit(3).map(match -> match._2.name()).toList());
+        }
+    }
+
+    @Test
+    public void testTransactions() throws Exception {
+        var logDirectory = workingDirectory.resolve("transactions");
+        var transactions = Transactions.apply(logDirectory);
+        var persons = createRepository(FileSystemRepositoryOptions.apply());
+        var workspaces =
+                new WorkspaceEntityFileSystemRepository<>(
+                        Person.class, Person::id, workingDirectory, Person::read, Person::write);
+
+        persons.save(new Person("carol", "Carol"));
+        persons.registerIndex("name", Person::name, true);
+
+        try (var transaction = transactions.begin()) {
+            transaction
+                    .save(persons, new Person("alice", "Alice"))
+                    .delete(persons, "carol")
+                    .save(workspaces, "workspace-a", new Person("bob", "Bob"))
+                    .commit();
+        }
+
+        assertEquals(List.of("alice"), persons.listIds());
+        assertEquals(
+                Optional.of(new Person("alice", "Alice")), persons.findOneByIndex("name", "Alice"));
+        assertEquals("Bob", workspaces.findById("workspace-a", "bob").orElseThrow().name());
+
+        var conflicting =
+                transactions
+                        .begin()
+                        .save(persons, new Person("dave", "Dave"))
+                        .save(persons, new Person("eve", "Alice"));
+
+        assertThrows(DuplicateIndexKeyException.class, conflicting::commit);
+        assertEquals(List.of("alice"), persons.listIds());
+
+        // Writes of the same transaction are staged independently, the keys are checked again on
+        // commit.
+        var duplicates =
+                transactions
+                        .begin()
+                        .save(persons, new Person("dave", "Zoe"))
+                        .save(persons, new Person("eve", "Zoe"));
+
+        assertThrows(DuplicateIndexKeyException.class, duplicates::commit);
+        assertEquals(List.of("alice"), persons.listIds());
+        assertEquals(Optional.empty(), persons.findOneByIndex("name", "Zoe"));
+
+        try (var files = Files.list(workingDirectory.resolve("persons"))) {
+            assertEquals(1, files.count());
+        }
+
+        // A transaction which has been logged but not applied is replayed on startup.
+        var operations = new ArrayList<WriteAheadLog.Operation>();
+        operations.addAll(persons.stage("frank", new Person("frank", "Frank")));
+        operations.addAll(persons.stage("alice", null));
+        WriteAheadLog.write(logDirectory, operations);
+
+        Transactions.apply(logDirectory);
+
+        assertEquals(List.of("frank"), persons.listIds());
+
+        try (var files = Files.list(logDirectory)) {
+            assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void testSnapshots() throws Exception {
+        var repository = createRepository(FileSystemRepositoryOptions.apply());
+
+        for (var i = 0; i < 300; i++) {
+            repository.save(new Person("p" + i, "Person " + i));
+        }
+
+        var uncompressed = new ByteArrayOutputStream();
+        var compressed = new ByteArrayOutputStream();
+
+        assertEquals(300, repository.exportSnapshot(uncompressed));
+        assertEquals(300, repository.exportSnapshot(compressed, true));
+        assertTrue(compressed.size() < uncompressed.size());
+
+        var restored =
+                new FileSystemRepository<>(
+                        Person::id,
+                        workingDirectory.resolve("restored"),
+                        Person::read,
+                        Person::write,
+                        Person.class,
+                        FileSystemRepositoryOptions.apply());
+
+        restored.save(new Person("p1", "Outdated"));
+        restored.save(new Person("other", "Other"));
+        restored.registerIndex("name", Person::name);
+
+        assertEquals(
+                300, restored.importSnapshot(new ByteArrayInputStream(compressed.toByteArray())));
+        assertEquals(301, restored.count());
+        assertEquals("Person 1", restored.findById("p1").orElseThrow().name());
+        assertEquals(
+                List.of(new Person("p7", "Person 7")), restored.findByIndex("name", "Person 7"));
+        assertEquals(List.of(), restored.findByIndex("name", "Outdated"));
+
+        // Both engines store entities encoded with the same codec, hence snapshots can be moved
+        // between them.
+        var logStructured =
+                createLogStructuredRepository(
+                        workingDirectory.resolve("log-structured"),
+                        FileSystemRepositoryOptions.apply()
+                                .withStorageEngine(StorageEngine.LOG_STRUCTURED));
+
+        assertEquals(
+                300,
+                logStructured.importSnapshot(new ByteArrayInputStream(uncompressed.toByteArray())));
+        assertEquals(repository.findAll(), logStructured.findAll());
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> restored.importSnapshot(new ByteArrayInputStream(new byte[] {1, 2, 3, 4})));
+
+        // Incomplete or corrupted snapshots are rejected before any entity is written.
+        var empty =
+                new FileSystemRepository<>(
+                        Person::id,
+                        workingDirectory.resolve("empty"),
+                        Person::read,
+                        Person::write,
+                        Person.class,
+                        FileSystemRepositoryOptions.apply());
+
+        var truncated = Arrays.copyOf(uncompressed.toByteArray(), uncompressed.size() - 8);
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> empty.importSnapshot(new ByteArrayInputStream(truncated)));
+
+        var corrupted = uncompressed.toByteArray();
+        corrupted[corrupted.length / 2] ^= 1;
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> empty.importSnapshot(new ByteArrayInputStream(corrupted)));
+        assertEquals(0, empty.count());
+
+        // Record lengths are checked before the content is allocated.
+        var invalidLength = ByteBuffer.wrap(uncompressed.toByteArray());
+        var idOffset = 9 + 2 + invalidLength.getShort(9) + 1;
+        var lengthOffset = idOffset + 2 + invalidLength.getShort(idOffset);
+
+        for (var length : List.of(-1, Integer.MAX_VALUE)) {
+            invalidLength.putInt(lengthOffset, length);
+
+            var ex =
+                    assertThrows(
+                            IllegalArgumentException.class,
+                            () ->
+                                    empty.importSnapshot(
+                                            new ByteArrayInputStream(invalidLength.array())));
+            assertTrue(ex.getMessage().contains("invalid length " + length));
+        }
+
+        assertEquals(0, empty.count());
+
+        // Ids of other storage engines must be valid file names.
+        logStructured.save(new Person("../escaped", "Escaped"));
+
+        var escaping = new ByteArrayOutputStream();
+        logStructured.exportSnapshot(escaping);
+
+        assertThrows(
+                IllegalArgumentException.class,
+                () -> empty.importSnapshot(new ByteArrayInputStream(escaping.toByteArray())));
+        assertEquals(0, empty.count());
+        assertFalse(Files.exists(workingDirectory.resolve("escaped.person.json")));
+        assertThrows(IllegalArgumentException.class, () -> empty.save(new Person("../x", "X")));
+    }
+
+    @Test
+    public void testMetrics() throws Exception {
+        var metrics = InMemoryRepositoryMetrics.apply();
+        var directory = workingDirectory.resolve("persons").toString();
+
+        try (var repository =
+                createRepository(
+                        FileSystemRepositoryOptions.apply()
+                                .withCacheEnabled(true)
+                                .withMetrics(metrics))) {
+
+            for (var i = 0; i < 10; i++) {
+                repository.save(new Person("p" + i, "Person " + i));
+            }
+
+            Files.writeString(workingDirectory.resolve("persons/broken.person.json"), "broken");
+
+            assertEquals("Person 1", repository.findById("p1").orElseThrow().name());
+            assertEquals("Person 1", repository.findById("p1").orElseThrow().name());
+            assertEquals(3, repository.findAllBy(p -> p.id().compareTo("p3") < 0).size());
+            assertEquals(2, repository.findPage(p -> true, null, 2).getItems().size());
+        }
+
+        var stats = metrics.getStats(directory).orElseThrow();
+        var saves = stats.getLatencies(RepositoryMetrics.Operation.SAVE).orElseThrow();
+
+        assertEquals(Set.of(directory), metrics.getRepositories());
+        assertEquals(10, saves.getCount());
+        assertTrue(saves.getValueAtPercentile(50) <= saves.getValueAtPercentile(99));
+        assertTrue(saves.getValueAtPercentile(100) <= saves.getMax());
+        assertTrue(saves.getMax() > 0);
+        assertEquals(
+                2,
+                stats.getLatencies(RepositoryMetrics.Operation.FIND_BY_ID)
+                        .orElseThrow()
+                        .getCount());
+        assertTrue(stats.getLatencies(RepositoryMetrics.Operation.DELETE).isEmpty());
+
+        // `findAllBy` scans the 10 readable entities, `findPage` scans `broken`, `p0` and `p1`.
+        assertEquals(13, stats.getScanned());
+        assertEquals(5, stats.getMatched());
+        assertTrue(stats.getReadFailures() >= 1);
+        assertEquals(10 * "p0\nPerson 0".length(), stats.getBytesWritten());
+        assertTrue(stats.getBytesRead() > 0);
+        assertTrue(stats.getCacheHits() >= 1);
+        assertTrue(stats.getCacheHitRatio() > 0 && stats.getCacheHitRatio() < 1);
+
+        var histogram = new LatencyHistogram();
+        IntStream.rangeClosed(1, 1000).forEach(i -> histogram.record(i * 1000L));
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500, histogram.getMean(), 0.1);
+        assertEquals(500_000, histogram.getValueAtPercentile(50), 500_000 * 0.016);
+        assertEquals(990_000, histogram.getValueAtPercentile(99), 990_000 * 0.016);
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+    }
+
+    static void awaitCondition(Supplier<Boolean> condition) throws InterruptedException {
+        for (var i = 0; i < 200 && !condition.get(); i++) {
+            Thread.sleep(50);
+        }
+
+        assertTrue(condition.get());
+    }
+
+    FileSystemRepository<Person> createRepository(FileSystemRepositoryOptions options) {
+        return new FileSystemRepository<>(
+                Person::id, workingDirectory, Person::read, Person::write, Person.class, options);
+    }
+
+    FileSystemRepository<Person> createLogStructuredRepository(
+            FileSystemRepositoryOptions options) {
+        return createLogStructuredRepository(workingDirectory, options);
+    }
+
+    FileSystemRepository<Person> createLogStructuredRepository(
+            Path directory, FileSystemRepositoryOptions options) {
+        return new FileSystemRepository<>(
+                Person::id,
+                directory,
+                EntityCodec.apply(
+                        (person, output) ->
+                                output.write(
+                                        (person.id() + "\n" + person.name())
+                                                .getBytes(StandardCharsets.UTF_8)),
+                        input -> {
+                            var lines =
+                                    new String(input.readAllBytes(), StandardCharsets.UTF_8)
+                                            .split("\n");
+                            return new Person(lines[0], lines[1]);
+                        }),
+                Person.class,
+                options);
+    }
+
+    record Person(String id, String name) {
+
+        static Person read(Path file) {
+            var lines = Operators.suppressExceptions(() -> Files.readAllLines(file));
+            return new Person(lines.get(0), lines.get(1));
+        }
+
+        static void write(Path file, Person person) {
+            Operators.suppressExceptions(
+                    () -> Files.writeString(file, person.id() + "\n" + person.name()));
+        }
+    }
+}